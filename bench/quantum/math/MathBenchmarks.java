@@ -0,0 +1,134 @@
+package quantum.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import quantum.qmbench.Benchmark;
+
+/**
+ * The benchmarks of the tridiagonal solvers, on the kind of system that a Crank-Nicolson step of a free particle solves.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class MathBenchmarks {
+
+	private MathBenchmarks() {
+	}
+
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new TdmaSolve());
+		list.add(new FactorizedSolve());
+		return list;
+	}
+
+	/* the right-hand side of a system: a smooth wave with a phase gradient */
+	static void fillRhs(float[] re, float[] im, int n) {
+		for (int i = 0; i < n; i++) {
+			re[i] = (float) Math.cos(0.1 * i) * (float) Math.exp(-0.0001 * (i - n / 2) * (i - n / 2));
+			im[i] = (float) Math.sin(0.1 * i) * (float) Math.exp(-0.0001 * (i - n / 2) * (i - n / 2));
+		}
+	}
+
+	/** solve one system of n unknowns with the split-array Thomas algorithm. c and d are modified by the solver, so they are restored before each operation, as a propagator does. */
+	static class TdmaSolve extends Benchmark {
+
+		private int n;
+		private float[] aRe, aIm, bRe, bIm, cRe, cIm, dRe, dIm, xRe, xIm;
+		private float[] c0Re, c0Im, d0Re, d0Im;
+
+		TdmaSolve() {
+			super("Tdma.solve");
+			addParameter("n", "100", "200", "512", "1024");
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			n = Integer.parseInt(params.get("n"));
+			aRe = new float[n];
+			aIm = new float[n];
+			bRe = new float[n];
+			bIm = new float[n];
+			cRe = new float[n];
+			cIm = new float[n];
+			dRe = new float[n];
+			dIm = new float[n];
+			xRe = new float[n];
+			xIm = new float[n];
+			c0Re = new float[n];
+			c0Im = new float[n];
+			for (int i = 0; i < n; i++) {
+				aRe[i] = c0Re[i] = -0.25f;
+				aIm[i] = c0Im[i] = 0.1f;
+				bRe[i] = 1.5f;
+				bIm[i] = -0.2f;
+			}
+			aRe[0] = aIm[0] = c0Re[n - 1] = c0Im[n - 1] = 0;
+			d0Re = new float[n];
+			d0Im = new float[n];
+			fillRhs(d0Re, d0Im, n);
+		}
+
+		@Override
+		public double run() {
+			System.arraycopy(c0Re, 0, cRe, 0, n);
+			System.arraycopy(c0Im, 0, cIm, 0, n);
+			System.arraycopy(d0Re, 0, dRe, 0, n);
+			System.arraycopy(d0Im, 0, dIm, 0, n);
+			Tdma.solve(n, aRe, aIm, bRe, bIm, cRe, cIm, dRe, dIm, xRe, xIm);
+			return xRe[n / 2];
+		}
+
+	}
+
+	/** back-substitute the n systems of a sweep of an n by n grid with a cached factorization, in the layout of the x-sweep (structure of arrays) or of the y-sweep (array of structures) */
+	static class FactorizedSolve extends Benchmark {
+
+		private int n;
+		private boolean contiguous;
+		private TdmaFactorization factorization;
+		private float[] re, im, re0, im0;
+
+		FactorizedSolve() {
+			super("TdmaFactorization.solve");
+			addParameter("n", "100", "200", "512", "1024");
+			addParameter("layout", "soa", "aos");
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			n = Integer.parseInt(params.get("n"));
+			contiguous = "soa".equals(params.get("layout"));
+			factorization = new TdmaFactorization(n);
+			factorization.factorize(-0.25f, 0.1f, 1.5f, -0.2f, -0.25f, 0.1f);
+			re0 = new float[n * n];
+			im0 = new float[n * n];
+			float[] r = new float[n], m = new float[n];
+			fillRhs(r, m, n);
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					re0[i * n + j] = r[i];
+					im0[i * n + j] = m[i];
+				}
+			}
+			re = new float[n * n];
+			im = new float[n * n];
+		}
+
+		@Override
+		public double run() {
+			System.arraycopy(re0, 0, re, 0, re.length);
+			System.arraycopy(im0, 0, im, 0, im.length);
+			if (contiguous) {
+				factorization.solve(re, im, re, im, 0, n, 1, n);
+			} else {
+				factorization.solve(re, im, re, im, 0, n, n, 1);
+			}
+			return re[n / 2];
+		}
+
+	}
+
+}
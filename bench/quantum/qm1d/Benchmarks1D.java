@@ -0,0 +1,149 @@
+package quantum.qm1d;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import quantum.qmbench.Benchmark;
+import quantum.qmshared.Particle;
+
+/**
+ * The benchmarks of the 1D solvers. The propagators are measured with a Gaussian wave packet in a harmonic oscillator, with or without absorbing boundaries and an electric field, the imaginary-time propagator with its explicit and implicit steps, and the stationary state solver with the lowest states of the oscillator, with the cache of solutions cleared before each operation.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class Benchmarks1D {
+
+	private Benchmarks1D() {
+	}
+
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new PropagatorStep("CayleySolver1D.nextStep"));
+		list.add(new PropagatorStep("RungeKuttaSolver.nextStep"));
+		list.add(new PropagatorStep("MidpointSolver.nextStep"));
+		list.add(new ImaginaryTimeStep());
+		list.add(new StationaryStateSolve());
+		return list;
+	}
+
+	/** advance a propagator by one time step */
+	static class PropagatorStep extends Benchmark {
+
+		private RealTimePropagator1D propagator;
+
+		PropagatorStep(String name) {
+			super(name);
+			addParameter("n", "100", "200", "512", "1024");
+			addParameter("boundary", "default", "ABC");
+			addParameter("field", "none", "e");
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			int n = Integer.parseInt(params.get("n"));
+			Particle particle = new Particle();
+			String name = getName().intern();
+			if (name == "CayleySolver1D.nextStep") {
+				propagator = new CayleySolver1D(particle, n);
+			} else if (name == "RungeKuttaSolver.nextStep") {
+				propagator = new RungeKuttaSolver(particle, n);
+			} else {
+				propagator = new MidpointSolver(particle, n);
+			}
+			propagator.setBoundaryCondition(params.get("boundary"));
+			propagator.setPotential(new HarmonicOscillator(n, -10, 10));
+			if (!"none".equals(params.get("field")))
+				propagator.setElectricField(new ElectricField1D());
+			propagator.setGaussianParameters(-4, 2);
+			propagator.init();
+		}
+
+		@Override
+		public double run() {
+			propagator.nextStep();
+			return propagator.iStep;
+		}
+
+		@Override
+		public void tearDown() {
+			propagator = null;
+		}
+
+	}
+
+	/** advance the imaginary-time propagator by one time step, at the default time step of the explicit or the implicit step */
+	static class ImaginaryTimeStep extends Benchmark {
+
+		private ImaginaryTimePropagator1D propagator;
+
+		ImaginaryTimeStep() {
+			super("ImaginaryTimePropagator1D.nextStep");
+			addParameter("n", "100", "200", "512", "1024");
+			addParameter("step", "explicit", "implicit");
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			int n = Integer.parseInt(params.get("n"));
+			propagator = new ImaginaryTimePropagator1D(new Particle(), n);
+			propagator.setPotential(new HarmonicOscillator(n, -10, 10));
+			propagator.setImplicit("implicit".equals(params.get("step")));
+			propagator.setGaussianParameters(-4, 2);
+			propagator.init();
+		}
+
+		@Override
+		public double run() {
+			propagator.nextStep();
+			return propagator.iStep;
+		}
+
+		@Override
+		public void tearDown() {
+			propagator = null;
+		}
+
+	}
+
+	/** compute the lowest eigenstates of a harmonic oscillator */
+	static class StationaryStateSolve extends Benchmark {
+
+		private StationaryStateSolver solver;
+		private double length;
+
+		StationaryStateSolve() {
+			super("StationaryStateSolver.solve");
+			addParameter("n", "100", "200", "512", "1024");
+			addParameter("spectrum", "partial", "full");
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			int n = Integer.parseInt(params.get("n"));
+			Potential1D potential = new HarmonicOscillator(n, -10, 10);
+			solver = new StationaryStateSolver(n);
+			solver.setParticle(new Particle());
+			solver.setMaxState(20);
+			solver.setPartialSpectrum("partial".equals(params.get("spectrum")));
+			solver.setPotential(potential.getPotential());
+			length = potential.getUpperBound() - potential.getLowerBound();
+		}
+
+		@Override
+		public double run() {
+			StationaryStateSolver.getCache().clear();
+			solver.solve("I", length);
+			return solver.getEigenVectors()[0][0];
+		}
+
+		@Override
+		public void tearDown() {
+			StationaryStateSolver.getCache().clear();
+			solver = null;
+		}
+
+	}
+
+}
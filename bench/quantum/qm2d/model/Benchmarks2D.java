@@ -0,0 +1,138 @@
+package quantum.qm2d.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import quantum.qmbench.Benchmark;
+import quantum.qmshared.Particle;
+
+/**
+ * The benchmarks of the 2D solvers. A propagator is measured on an n by n grid with a Gaussian wave packet in a box of potentials, with or without absorbing boundaries and electric and magnetic fields, and with or without all the quantities of a frame computed every OUTPUT_INTERVAL steps, which is what a view demands.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class Benchmarks2D {
+
+	private Benchmarks2D() {
+	}
+
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new CayleySolverStep());
+		list.add(new PropagatorStep("RealTimePropagator2D.nextStep", false));
+		list.add(new PropagatorStep("ImaginaryTimePropagator2D.nextStep", true));
+		return list;
+	}
+
+	/** solve one row of n unknowns with the Cayley solver */
+	static class CayleySolverStep extends Benchmark {
+
+		private int n;
+		private CayleySolver2D solver;
+		private float[] phiRe, phiIm, phi0Re, phi0Im, subRe, subIm, diagRe, diagIm, supRe, supIm;
+
+		CayleySolverStep() {
+			super("CayleySolver2D.nextStep");
+			addParameter("n", "100", "200", "512", "1024");
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			n = Integer.parseInt(params.get("n"));
+			solver = new CayleySolver2D(n);
+			phiRe = new float[n];
+			phiIm = new float[n];
+			phi0Re = new float[n];
+			phi0Im = new float[n];
+			subRe = new float[n];
+			subIm = new float[n];
+			diagRe = new float[n];
+			diagIm = new float[n];
+			supRe = new float[n];
+			supIm = new float[n];
+			double x;
+			for (int i = 0; i < n; i++) {
+				x = (i - n * 0.5) / (n * 0.1);
+				phi0Re[i] = (float) (Math.exp(-x * x) * Math.cos(2 * x));
+				phi0Im[i] = (float) (Math.exp(-x * x) * Math.sin(2 * x));
+				subIm[i] = supIm[i] = 0.25f;
+				diagIm[i] = -0.5f - 0.01f * (float) (x * x);
+			}
+		}
+
+		@Override
+		public double run() {
+			System.arraycopy(phi0Re, 0, phiRe, 0, n);
+			System.arraycopy(phi0Im, 0, phiIm, 0, n);
+			solver.nextStep(phiRe, phiIm, subRe, subIm, diagRe, diagIm, supRe, supIm);
+			return phiRe[n / 2];
+		}
+
+	}
+
+	/** advance a propagator by one time step */
+	static class PropagatorStep extends Benchmark {
+
+		private boolean imaginary;
+		private TimePropagator2D propagator;
+
+		PropagatorStep(String name, boolean imaginary) {
+			super(name);
+			this.imaginary = imaginary;
+			addParameter("n", "100", "200", "512", "1024");
+			addParameter("boundary", "default", "ABC");
+			addParameter("field", "none", "eb"); // e for an electric field, b for a magnetic field
+			addParameter("output", "none", "all");
+			if (!imaginary) {
+				addParameter("suzuki", "false", "true");
+				addParameter("threads", "1");
+			}
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			int n = Integer.parseInt(params.get("n"));
+			Particle particle = new Particle();
+			propagator = imaginary ? new ImaginaryTimePropagator2D(particle, n, n, -10, 10, -10, 10) : new RealTimePropagator2D(particle, n, n, -10, 10, -10, 10);
+			PotentialFactory pf = new PotentialFactory(n, n, -10, 10, -10, 10, particle);
+			WavePacketFactory wf = new WavePacketFactory(n, n, -10, 10, -10, 10);
+			propagator.setPotentialFactory(pf);
+			propagator.setWavePacketFactory(wf);
+			if (propagator instanceof RealTimePropagator2D) {
+				RealTimePropagator2D p = (RealTimePropagator2D) propagator;
+				p.setSuzukiFlag(Boolean.parseBoolean(params.get("suzuki")));
+				p.setThreadCount(Integer.parseInt(params.get("threads")));
+			}
+			String bc = params.get("boundary");
+			propagator.setBoundaryCondition('x', bc);
+			propagator.setBoundaryCondition('y', bc);
+			String field = params.get("field");
+			if (field.indexOf('e') >= 0 && !"none".equals(field))
+				propagator.setElectricField(new ElectricField2D());
+			if (field.indexOf('b') >= 0)
+				propagator.setMagneticField(new MagneticField2D());
+			if ("all".equals(params.get("output")))
+				propagator.addOutputDemand(new OutputDemand(OutputDemand.ALL, TimePropagator2D.OUTPUT_INTERVAL));
+			propagator.addPotential(pf.createEllipticalPotentialArea(false, 2, -3, 3, 1, 2, null, true, true));
+			propagator.addPotential(pf.createRectangularPotentialArea(false, 2, 4, -3, 2, 2, 0, null, true, true));
+			propagator.addWavePacket(wf.createGaussian(1, 1, -3, 0, 2, 1));
+			propagator.buildWaveFunction();
+		}
+
+		@Override
+		public double run() {
+			propagator.nextStep();
+			return propagator.iStep;
+		}
+
+		@Override
+		public void tearDown() {
+			propagator.destroy();
+			propagator = null;
+		}
+
+	}
+
+}
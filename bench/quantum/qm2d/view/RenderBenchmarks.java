@@ -0,0 +1,142 @@
+package quantum.qm2d.view;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JPanel;
+
+import quantum.qmbench.Benchmark;
+import quantum.qmshared.AbsorbingBoundary;
+import quantum.qmutil.ContourPlot;
+
+/**
+ * The benchmarks of the rendering of a frame, drawn into an offscreen image of the size of a view, so that they can run without a display. The frame is a normalized Gaussian wave packet with a plane-wave phase on an n by n grid.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class RenderBenchmarks {
+
+	private RenderBenchmarks() {
+	}
+
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new RenderProbability());
+		list.add(new RenderContours());
+		return list;
+	}
+
+	static float[][][] createFrame(int n) {
+		float[][] prob = new float[n][n];
+		float[][] phase = new float[n][n];
+		double x, y, sum = 0;
+		for (int i = 0; i < n; i++) {
+			x = (i - n * 0.4) / (n * 0.1);
+			for (int j = 0; j < n; j++) {
+				y = (j - n * 0.5) / (n * 0.15);
+				prob[i][j] = (float) Math.exp(-x * x - y * y);
+				phase[i][j] = (float) Math.IEEEremainder(0.2 * i + 0.1 * j, 2 * Math.PI);
+				sum += prob[i][j];
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++)
+				prob[i][j] /= sum;
+		}
+		return new float[][][] { prob, phase };
+	}
+
+	/** render the probability density, colored by the phase or in a single color, as View2D does */
+	static class RenderProbability extends Benchmark {
+
+		private WaveFunctionRenderer renderer;
+		private float[][] prob, phase;
+		private JPanel panel;
+		private BufferedImage image;
+		private Graphics2D g;
+
+		RenderProbability() {
+			super("WaveFunctionRenderer.renderProbility");
+			addParameter("n", "100", "200", "512", "1024");
+			addParameter("size", "500");
+			addParameter("mode", "phase", "probOnly");
+			addParameter("boundary", "default", "ABC");
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			int n = Integer.parseInt(params.get("n"));
+			int size = Integer.parseInt(params.get("size"));
+			float[][][] frame = createFrame(n);
+			prob = frame[0];
+			phase = frame[1];
+			renderer = new WaveFunctionRenderer();
+			renderer.setProbOnly("probOnly".equals(params.get("mode")));
+			if ("ABC".equalsIgnoreCase(params.get("boundary"))) {
+				renderer.setBoundary('x', new AbsorbingBoundary());
+				renderer.setBoundary('y', new AbsorbingBoundary());
+			}
+			panel = new JPanel();
+			panel.setSize(size, size);
+			image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+			g = image.createGraphics();
+		}
+
+		@Override
+		public double run() {
+			renderer.renderProbility(prob, phase, panel, g);
+			return image.getRGB(0, 0);
+		}
+
+		@Override
+		public void tearDown() {
+			g.dispose();
+		}
+
+	}
+
+	/** draw the contour lines of the probability density */
+	static class RenderContours extends Benchmark {
+
+		private ContourPlot contourPlot;
+		private float[][] prob;
+		private Dimension size;
+		private BufferedImage image;
+		private Graphics2D g;
+
+		RenderContours() {
+			super("ContourPlot.render");
+			addParameter("n", "100", "200", "512", "1024");
+			addParameter("size", "500");
+		}
+
+		@Override
+		public void setUp(Map<String, String> params) {
+			int n = Integer.parseInt(params.get("n"));
+			int s = Integer.parseInt(params.get("size"));
+			prob = createFrame(n)[0];
+			contourPlot = new ContourPlot();
+			size = new Dimension(s, s);
+			image = new BufferedImage(s, s, BufferedImage.TYPE_INT_ARGB);
+			g = image.createGraphics();
+		}
+
+		@Override
+		public double run() {
+			contourPlot.render(g, size, prob);
+			return image.getRGB(0, 0);
+		}
+
+		@Override
+		public void tearDown() {
+			g.dispose();
+		}
+
+	}
+
+}
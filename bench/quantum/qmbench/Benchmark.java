@@ -0,0 +1,58 @@
+package quantum.qmbench;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A benchmark of an operation, measured by BenchmarkRunner in operations per second. A benchmark declares the values of its parameters, and the runner measures it once for every combination of them. The state of an operation is created by setUp() from the values of a combination, outside of the measurement, and run() performs one operation on it.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public abstract class Benchmark {
+
+	private String name;
+	private Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** declare a parameter and its values, the first of which is the default */
+	protected void addParameter(String name, String... values) {
+		if (values.length == 0)
+			throw new IllegalArgumentException("parameter " + name + " has no value");
+		parameters.put(name, values);
+	}
+
+	/** @return the parameters and their values, in the order of declaration */
+	public Map<String, String[]> getParameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	/** create the state of the operation for the given value of each parameter */
+	public void setUp(Map<String, String> params) throws Exception {
+	}
+
+	/**
+	 * Perform one operation.
+	 * 
+	 * @return a value that depends on the result of the operation, which the runner consumes so that the work cannot be eliminated as dead code
+	 */
+	public abstract double run();
+
+	/** release the state created by setUp() */
+	public void tearDown() {
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
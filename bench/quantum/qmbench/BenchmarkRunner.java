@@ -0,0 +1,640 @@
+package quantum.qmbench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import quantum.math.MathBenchmarks;
+import quantum.qm1d.Benchmarks1D;
+import quantum.qm2d.model.Benchmarks2D;
+import quantum.qm2d.view.RenderBenchmarks;
+
+/**
+ * Measure the throughput and the allocation rate of the benchmarks of the numerical and rendering hot paths, for every combination of the values of their parameters.
+ * 
+ * The benchmarks and this runner are kept in the bench source root, apart from the sources of the application, so that they are not shipped with it. They use the packages of the code they measure, so that they can reach what is package-private, and are compiled and run with the classes of the application on the class path.
+ * 
+ * <pre>
+ * java quantum.qmbench.BenchmarkRunner [--list] [--include regex] [--param name=v1,v2,...] [--warmup n] [--iterations n] [--time ms] [--forks n] [--json file]
+ * </pre>
+ * 
+ * Each combination is measured in a fresh JVM (a fork) with the same class path and JVM options as the runner, so that the code compiled for one benchmark does not slow down the next one. A fork runs the warmup iterations, whose results are discarded, and then the measurement iterations, each of which repeats the operation for the given time. With --forks 0 everything runs in the JVM of the runner. The score is the mean number of operations per second over the measurement iterations of all the forks, with the half-width of its 99.9% confidence interval as the error. The allocation rate is the number of bytes allocated by all the threads of the fork, and the number and the time of the garbage collections are read from the collectors.
+ * 
+ * The results are printed as a table, and --json writes them in the format of the JSON result files of JMH, so that the tools that plot and compare JMH results can read them. The exit code is 0 on success, 1 for invalid arguments, 2 if the JSON file cannot be written and 3 if a benchmark has failed.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class BenchmarkRunner {
+
+	public final static int OK = 0;
+	public final static int INVALID_ARGUMENTS = 1;
+	public final static int IO_ERROR = 2;
+	public final static int FAILED = 3;
+
+	private final static String USAGE = "Usage: java quantum.qmbench.BenchmarkRunner [--list] [--include regex] [--param name=v1,v2,...] [--warmup n] [--iterations n] [--time ms] [--forks n] [--json file]";
+
+	// the 99.95% quantiles of Student's t-distribution for 1 to 10 degrees of freedom
+	private final static double[] T_QUANTILES = { 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587 };
+	private final static double Z_QUANTILE = 3.2905; // the 99.95% quantile of the normal distribution
+
+	private final static String MARK = "@"; // the prefix of the lines by which a fork reports its iterations
+
+	private int warmupIterations = 3;
+	private int measurementIterations = 5;
+	private long iterationTime = 1000; // milliseconds
+	private int forks = 1;
+	private volatile double sink;
+
+	/** a measured iteration */
+	static class Iteration {
+		long operations;
+		long nanos;
+		long allocatedBytes = -1; // -1 if the JVM cannot count the allocated bytes
+		long gcCount;
+		long gcTime; // milliseconds
+	}
+
+	/** the iterations of all the forks of a combination of parameters */
+	static class Result {
+		Benchmark benchmark;
+		Map<String, String> params;
+		List<List<Iteration>> forks = new ArrayList<List<Iteration>>();
+
+		Result(Benchmark benchmark, Map<String, String> params) {
+			this.benchmark = benchmark;
+			this.params = params;
+		}
+	}
+
+	/** @return all the benchmarks */
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		list.addAll(MathBenchmarks.getBenchmarks());
+		list.addAll(Benchmarks2D.getBenchmarks());
+		list.addAll(Benchmarks1D.getBenchmarks());
+		list.addAll(RenderBenchmarks.getBenchmarks());
+		return list;
+	}
+
+	public void setWarmupIterations(int n) {
+		warmupIterations = n;
+	}
+
+	public void setMeasurementIterations(int n) {
+		measurementIterations = n;
+	}
+
+	/** set the duration of an iteration in milliseconds */
+	public void setIterationTime(long ms) {
+		iterationTime = ms;
+	}
+
+	/** set the number of JVMs to measure each combination in. Zero means the JVM of the runner. */
+	public void setForks(int n) {
+		forks = n;
+	}
+
+	/** @return every combination of the values of the parameters of the benchmark, with the values in the overrides replacing the declared ones */
+	static List<Map<String, String>> combine(Benchmark b, Map<String, String[]> overrides) {
+		List<Map<String, String>> list = new ArrayList<Map<String, String>>();
+		list.add(new LinkedHashMap<String, String>());
+		for (Map.Entry<String, String[]> e : b.getParameters().entrySet()) {
+			String[] values = overrides.containsKey(e.getKey()) ? overrides.get(e.getKey()) : e.getValue();
+			List<Map<String, String>> next = new ArrayList<Map<String, String>>();
+			for (Map<String, String> m : list) {
+				for (String v : values) {
+					Map<String, String> m2 = new LinkedHashMap<String, String>(m);
+					m2.put(e.getKey(), v);
+					next.add(m2);
+				}
+			}
+			list = next;
+		}
+		return list;
+	}
+
+	/**
+	 * Measure a combination of parameters of a benchmark in the JVM of the caller. The results of the warmup and of the measurement iterations are printed on the standard error.
+	 * 
+	 * @return the measurement iterations
+	 */
+	List<Iteration> measure(Benchmark b, Map<String, String> params) throws Exception {
+		List<Iteration> list = new ArrayList<Iteration>();
+		b.setUp(params);
+		try {
+			for (int i = 0; i < warmupIterations; i++) {
+				Iteration it = iterate(b);
+				System.err.printf("# Warmup Iteration %3d: %.3f ops/s\n", i + 1, score(it));
+			}
+			for (int i = 0; i < measurementIterations; i++) {
+				Iteration it = iterate(b);
+				System.err.printf("Iteration %3d: %.3f ops/s\n", i + 1, score(it));
+				list.add(it);
+			}
+		} finally {
+			b.tearDown();
+		}
+		return list;
+	}
+
+	private Iteration iterate(Benchmark b) {
+		Iteration it = new Iteration();
+		long duration = iterationTime * 1000000L;
+		long bytes = allocatedBytes();
+		long gcCount = gcCount(), gcTime = gcTime();
+		double s = 0;
+		long ops = 0, t, t0 = System.nanoTime();
+		do {
+			s += b.run();
+			ops++;
+			t = System.nanoTime() - t0;
+		} while (t < duration);
+		it.operations = ops;
+		it.nanos = t;
+		long bytes2 = allocatedBytes();
+		if (bytes >= 0 && bytes2 >= 0)
+			it.allocatedBytes = Math.max(0, bytes2 - bytes);
+		it.gcCount = gcCount() - gcCount;
+		it.gcTime = gcTime() - gcTime;
+		sink = s;
+		return it;
+	}
+
+	/* the bytes allocated so far by the live threads, or -1 if the JVM cannot count them */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+		if (!b.isThreadAllocatedMemorySupported() || !b.isThreadAllocatedMemoryEnabled())
+			return -1;
+		long sum = 0;
+		for (long x : b.getThreadAllocatedBytes(b.getAllThreadIds())) {
+			if (x > 0) // -1 for a thread that has died in the meantime
+				sum += x;
+		}
+		return sum;
+	}
+
+	private static long gcCount() {
+		long sum = 0;
+		for (GarbageCollectorMXBean b : ManagementFactory.getGarbageCollectorMXBeans())
+			sum += Math.max(0, b.getCollectionCount());
+		return sum;
+	}
+
+	private static long gcTime() {
+		long sum = 0;
+		for (GarbageCollectorMXBean b : ManagementFactory.getGarbageCollectorMXBeans())
+			sum += Math.max(0, b.getCollectionTime());
+		return sum;
+	}
+
+	private static double score(Iteration it) {
+		return it.operations / (it.nanos * 1.0e-9);
+	}
+
+	/** measure a combination of parameters of a benchmark in a new JVM */
+	List<Iteration> fork(Benchmark b, Map<String, String> params) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(BenchmarkRunner.class.getName());
+		command.add("--run");
+		command.add(b.getName());
+		for (Map.Entry<String, String> e : params.entrySet()) {
+			command.add("--set");
+			command.add(e.getKey() + "=" + e.getValue());
+		}
+		command.add("--warmup");
+		command.add(Integer.toString(warmupIterations));
+		command.add("--iterations");
+		command.add(Integer.toString(measurementIterations));
+		command.add("--time");
+		command.add(Long.toString(iterationTime));
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process p = pb.start();
+		List<Iteration> list = new ArrayList<Iteration>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith(MARK + " ")) {
+					System.out.println(line);
+					continue;
+				}
+				String[] s = line.split(" ");
+				Iteration it = new Iteration();
+				it.operations = Long.parseLong(s[1]);
+				it.nanos = Long.parseLong(s[2]);
+				it.allocatedBytes = Long.parseLong(s[3]);
+				it.gcCount = Long.parseLong(s[4]);
+				it.gcTime = Long.parseLong(s[5]);
+				list.add(it);
+			}
+		} finally {
+			reader.close();
+		}
+		int exit = p.waitFor();
+		if (exit != OK || list.size() != measurementIterations)
+			throw new IOException("the fork has failed with exit code " + exit);
+		return list;
+	}
+
+	/** measure every combination of parameters of the benchmarks */
+	public List<Result> run(List<Benchmark> benchmarks, Map<String, String[]> overrides) {
+		List<Result> results = new ArrayList<Result>();
+		for (Benchmark b : benchmarks) {
+			for (Map<String, String> params : combine(b, overrides)) {
+				System.err.println();
+				System.err.println("# Benchmark: " + b.getName() + (params.isEmpty() ? "" : " " + params));
+				Result r = new Result(b, params);
+				try {
+					if (forks <= 0) {
+						r.forks.add(measure(b, params));
+					} else {
+						for (int i = 0; i < forks; i++) {
+							System.err.println("# Fork: " + (i + 1) + " of " + forks);
+							r.forks.add(fork(b, params));
+						}
+					}
+					results.add(r);
+				} catch (Exception e) {
+					e.printStackTrace();
+					System.err.println("# Failed: " + b.getName() + " " + params);
+					results.add(new Result(b, params)); // without iterations, which marks a failure
+				}
+			}
+		}
+		return results;
+	}
+
+	/* the scores of the iterations of each fork */
+	private static double[][] rawData(Result r, int metric) {
+		double[][] data = new double[r.forks.size()][];
+		for (int i = 0; i < data.length; i++) {
+			List<Iteration> list = r.forks.get(i);
+			data[i] = new double[list.size()];
+			for (int j = 0; j < data[i].length; j++) {
+				Iteration it = list.get(j);
+				switch (metric) {
+				case 0:
+					data[i][j] = score(it);
+					break;
+				case 1: // MB/sec
+					data[i][j] = it.allocatedBytes / (it.nanos * 1.0e-9) / (1024 * 1024);
+					break;
+				case 2: // B/op
+					data[i][j] = (double) it.allocatedBytes / it.operations;
+					break;
+				case 3:
+					data[i][j] = it.gcCount;
+					break;
+				case 4:
+					data[i][j] = it.gcTime;
+					break;
+				}
+			}
+		}
+		return data;
+	}
+
+	/* the mean and the half-width of the 99.9% confidence interval, which is NaN for a single iteration */
+	private static double[] statistics(double[][] data) {
+		int n = 0;
+		double sum = 0;
+		for (double[] a : data) {
+			for (double x : a) {
+				sum += x;
+				n++;
+			}
+		}
+		double mean = sum / n;
+		if (n < 2)
+			return new double[] { mean, Double.NaN };
+		double s2 = 0;
+		for (double[] a : data) {
+			for (double x : a)
+				s2 += (x - mean) * (x - mean);
+		}
+		return new double[] { mean, quantile(n - 1) * Math.sqrt(s2 / (n - 1) / n) };
+	}
+
+	/* the 99.95% quantile of Student's t-distribution, from a table for few degrees of freedom and from the Cornish-Fisher expansion otherwise */
+	private static double quantile(int df) {
+		if (df <= T_QUANTILES.length)
+			return T_QUANTILES[df - 1];
+		double z = Z_QUANTILE, z2 = z * z;
+		return z + z * (z2 + 1) / (4 * df) + z * ((5 * z2 + 16) * z2 + 3) / (96.0 * df * df) + z * (((3 * z2 + 19) * z2 + 17) * z2 - 15) / (384.0 * df * df * df);
+	}
+
+	private static boolean allocationCounted(Result r) {
+		for (List<Iteration> list : r.forks) {
+			for (Iteration it : list) {
+				if (it.allocatedBytes < 0)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/** print the results as a table */
+	public static void printTable(List<Result> results, PrintWriter out) {
+		List<String[]> rows = new ArrayList<String[]>();
+		rows.add(new String[] { "Benchmark", "Parameters", "Cnt", "Score", "Error", "Units", "Alloc (MB/s)", "Alloc (B/op)", "GCs" });
+		for (Result r : results) {
+			StringBuilder p = new StringBuilder();
+			for (Map.Entry<String, String> e : r.params.entrySet()) {
+				if (p.length() > 0)
+					p.append(' ');
+				p.append(e.getKey()).append('=').append(e.getValue());
+			}
+			if (r.forks.isEmpty()) {
+				rows.add(new String[] { r.benchmark.getName(), p.toString(), "0", "FAILED", "", "", "", "", "" });
+				continue;
+			}
+			double[][] data = rawData(r, 0);
+			double[] s = statistics(data);
+			int n = 0;
+			for (double[] a : data)
+				n += a.length;
+			boolean a = allocationCounted(r);
+			long gc = 0;
+			for (double[] x : rawData(r, 3)) {
+				for (double y : x)
+					gc += (long) y;
+			}
+			rows.add(new String[] { r.benchmark.getName(), p.toString(), Integer.toString(n), format(s[0]), Double.isNaN(s[1]) ? "" : "+- " + format(s[1]), "ops/s", a ? format(statistics(rawData(r, 1))[0]) : "", a ? format(statistics(rawData(r, 2))[0]) : "", Long.toString(gc) });
+		}
+		int[] width = new int[rows.get(0).length];
+		for (String[] row : rows) {
+			for (int i = 0; i < row.length; i++)
+				width[i] = Math.max(width[i], row[i].length());
+		}
+		for (String[] row : rows) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < row.length; i++) {
+				if (i > 0)
+					sb.append("  ");
+				String pad = new String(new char[width[i] - row[i].length()]).replace('\0', ' ');
+				sb.append(i < 2 || i == 5 ? row[i] + pad : pad + row[i]); // names left-aligned, numbers right-aligned
+			}
+			out.println(sb.toString().replaceAll("\\s+$", ""));
+		}
+		out.flush();
+	}
+
+	private static String format(double x) {
+		return String.format(x >= 100 ? "%.1f" : "%.3f", x);
+	}
+
+	/** write the results in the format of the JSON result files of JMH */
+	public void writeJson(List<Result> results, PrintWriter out) {
+		out.println("[");
+		boolean first = true;
+		for (Result r : results) {
+			if (r.forks.isEmpty()) // a failed benchmark has no result in JMH either
+				continue;
+			if (!first)
+				out.println(",");
+			first = false;
+			out.println("    {");
+			out.println("        \"benchmark\" : " + quote(r.benchmark.getName()) + ",");
+			out.println("        \"mode\" : \"thrpt\",");
+			out.println("        \"threads\" : 1,");
+			out.println("        \"forks\" : " + forks + ",");
+			out.println("        \"jvm\" : " + quote(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java") + ",");
+			StringBuilder args = new StringBuilder();
+			for (String a : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+				if (args.length() > 0)
+					args.append(", ");
+				args.append(quote(a));
+			}
+			out.println("        \"jvmArgs\" : [" + args + "],");
+			out.println("        \"jdkVersion\" : " + quote(System.getProperty("java.version")) + ",");
+			out.println("        \"warmupIterations\" : " + warmupIterations + ",");
+			out.println("        \"warmupTime\" : \"" + iterationTime + " ms\",");
+			out.println("        \"warmupBatchSize\" : 1,");
+			out.println("        \"measurementIterations\" : " + measurementIterations + ",");
+			out.println("        \"measurementTime\" : \"" + iterationTime + " ms\",");
+			out.println("        \"measurementBatchSize\" : 1,");
+			if (!r.params.isEmpty()) {
+				out.println("        \"params\" : {");
+				for (Iterator<Map.Entry<String, String>> i = r.params.entrySet().iterator(); i.hasNext();) {
+					Map.Entry<String, String> e = i.next();
+					out.println("            " + quote(e.getKey()) + " : " + quote(e.getValue()) + (i.hasNext() ? "," : ""));
+				}
+				out.println("        },");
+			}
+			out.print("        \"primaryMetric\" : ");
+			writeMetric(rawData(r, 0), "ops/s", out);
+			out.println(",");
+			out.println("        \"secondaryMetrics\" : {");
+			if (allocationCounted(r)) {
+				out.print("            \"\u00b7gc.alloc.rate\" : ");
+				writeMetric(rawData(r, 1), "MB/sec", out);
+				out.println(",");
+				out.print("            \"\u00b7gc.alloc.rate.norm\" : ");
+				writeMetric(rawData(r, 2), "B/op", out);
+				out.println(",");
+			}
+			out.print("            \"\u00b7gc.count\" : ");
+			writeMetric(rawData(r, 3), "counts", out);
+			out.println(",");
+			out.print("            \"\u00b7gc.time\" : ");
+			writeMetric(rawData(r, 4), "ms", out);
+			out.println();
+			out.println("        }");
+			out.print("    }");
+		}
+		out.println();
+		out.println("]");
+		out.flush();
+	}
+
+	private static void writeMetric(double[][] data, String unit, PrintWriter out) {
+		double[] s = statistics(data);
+		out.println("{");
+		out.println("                \"score\" : " + number(s[0]) + ",");
+		out.println("                \"scoreError\" : " + number(s[1]) + ",");
+		out.println("                \"scoreConfidence\" : [" + number(s[0] - s[1]) + ", " + number(s[0] + s[1]) + "],");
+		out.println("                \"scoreUnit\" : " + quote(unit) + ",");
+		StringBuilder sb = new StringBuilder();
+		for (double[] a : data) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append('[');
+			for (int i = 0; i < a.length; i++)
+				sb.append(i > 0 ? ", " : "").append(number(a[i]));
+			sb.append(']');
+		}
+		out.println("                \"rawData\" : [" + sb + "]");
+		out.print("            }");
+	}
+
+	/* JSON has no literal for NaN or infinity, for which JMH writes a string */
+	private static String number(double x) {
+		return Double.isNaN(x) || Double.isInfinite(x) ? "\"" + x + "\"" : Double.toString(x);
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	public static void main(String[] args) {
+		System.exit(execute(args));
+	}
+
+	/** @return the exit code */
+	static int execute(String[] args) {
+
+		boolean list = false;
+		Pattern include = null;
+		Map<String, String[]> overrides = new LinkedHashMap<String, String[]>();
+		String jsonName = null;
+		String runName = null; // the benchmark that a fork runs
+		Map<String, String> set = new LinkedHashMap<String, String>(); // the parameters that a fork runs with
+		BenchmarkRunner runner = new BenchmarkRunner();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String a = args[i].intern();
+				if (a == "--list") {
+					list = true;
+				} else if (a == "--include") {
+					include = Pattern.compile(args[++i]);
+				} else if (a == "--param") {
+					String p = args[++i];
+					int k = p.indexOf('=');
+					if (k < 1 || k == p.length() - 1)
+						throw new IllegalArgumentException("a parameter must be given as name=v1,v2,...: " + p);
+					overrides.put(p.substring(0, k), p.substring(k + 1).split(","));
+				} else if (a == "--warmup") {
+					runner.setWarmupIterations(Integer.parseInt(args[++i]));
+				} else if (a == "--iterations") {
+					runner.setMeasurementIterations(Integer.parseInt(args[++i]));
+				} else if (a == "--time") {
+					runner.setIterationTime(Long.parseLong(args[++i]));
+				} else if (a == "--forks") {
+					runner.setForks(Integer.parseInt(args[++i]));
+				} else if (a == "--json") {
+					jsonName = args[++i];
+				} else if (a == "--run") {
+					runName = args[++i];
+				} else if (a == "--set") {
+					String p = args[++i];
+					int k = p.indexOf('=');
+					set.put(p.substring(0, k), p.substring(k + 1));
+				} else {
+					throw new IllegalArgumentException("unknown argument " + a);
+				}
+			}
+			if (runner.warmupIterations < 0 || runner.measurementIterations < 1 || runner.iterationTime < 1 || runner.forks < 0)
+				throw new IllegalArgumentException("the numbers of iterations and forks must not be negative, and there must be a measurement iteration of a positive time");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			System.err.println("Missing value of " + args[args.length - 1]);
+			System.err.println(USAGE);
+			return INVALID_ARGUMENTS;
+		} catch (IllegalArgumentException e) { // including NumberFormatException and PatternSyntaxException
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return INVALID_ARGUMENTS;
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (Benchmark b : getBenchmarks()) {
+			if (runName != null ? b.getName().equals(runName) : include == null || include.matcher(b.getName()).find())
+				benchmarks.add(b);
+		}
+
+		if (runName != null) { // in a fork: report the measurement iterations to the runner
+			if (benchmarks.isEmpty()) {
+				System.err.println("unknown benchmark " + runName);
+				return INVALID_ARGUMENTS;
+			}
+			try {
+				for (Iteration it : runner.measure(benchmarks.get(0), set))
+					System.out.println(MARK + " " + it.operations + " " + it.nanos + " " + it.allocatedBytes + " " + it.gcCount + " " + it.gcTime);
+			} catch (Exception e) {
+				e.printStackTrace();
+				return FAILED;
+			}
+			return OK;
+		}
+
+		if (list) {
+			for (Benchmark b : benchmarks) {
+				StringBuilder sb = new StringBuilder(b.getName());
+				for (Map.Entry<String, String[]> e : b.getParameters().entrySet())
+					sb.append(' ').append(e.getKey()).append('=').append(Arrays.toString(e.getValue()).replaceAll("[\\[\\] ]", ""));
+				System.out.println(sb);
+			}
+			return OK;
+		}
+
+		if (benchmarks.isEmpty()) {
+			System.err.println("No benchmark matches " + include);
+			return INVALID_ARGUMENTS;
+		}
+		for (String name : overrides.keySet()) {
+			boolean declared = false;
+			for (Benchmark b : benchmarks) {
+				if (b.getParameters().containsKey(name))
+					declared = true;
+			}
+			if (!declared)
+				System.err.println("Warning: no benchmark has a parameter " + name);
+		}
+
+		List<Result> results = runner.run(benchmarks, overrides);
+		System.out.println();
+		printTable(results, new PrintWriter(System.out));
+		if (jsonName != null) {
+			try {
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(jsonName), "UTF-8"));
+				runner.writeJson(results, out);
+				out.close();
+				if (out.checkError())
+					throw new IOException("cannot write the file");
+			} catch (IOException e) {
+				System.err.println("Error in writing " + jsonName + ": " + e.getMessage());
+				return IO_ERROR;
+			}
+		}
+		for (Result r : results) {
+			if (r.forks.isEmpty())
+				return FAILED;
+		}
+		return OK;
+
+	}
+
+}
@@ -74,6 +74,68 @@ public class Tdma {
 		return x;
 	}
 
+	/**
+	 * Complex number version that works on split real and imaginary arrays without allocating any object. c and d are modified during the operation. The solution is written into x, which may be the same arrays as d. All input arrays must be at least n long.
+	 * 
+	 * @param n
+	 *            the dimension of the system
+	 * @param aRe
+	 *            the real part of the subdiagonal elements
+	 * @param aIm
+	 *            the imaginary part of the subdiagonal elements
+	 * @param bRe
+	 *            the real part of the diagonal elements
+	 * @param bIm
+	 *            the imaginary part of the diagonal elements
+	 * @param cRe
+	 *            the real part of the superdiagonal elements
+	 * @param cIm
+	 *            the imaginary part of the superdiagonal elements
+	 * @param dRe
+	 *            the real part of the right-hand-side vector
+	 * @param dIm
+	 *            the imaginary part of the right-hand-side vector
+	 * @param xRe
+	 *            the real part of the solution
+	 * @param xIm
+	 *            the imaginary part of the solution
+	 */
+	public static void solve(int n, float[] aRe, float[] aIm, float[] bRe, float[] bIm, float[] cRe, float[] cIm, float[] dRe, float[] dIm, float[] xRe, float[] xIm) {
+		float tr, ti, inv, ur, ui;
+		inv = 1.0f / (bRe[0] * bRe[0] + bIm[0] * bIm[0]);
+		tr = bRe[0] * inv;
+		ti = -bIm[0] * inv;
+		ur = cRe[0];
+		cRe[0] = ur * tr - cIm[0] * ti;
+		cIm[0] = ur * ti + cIm[0] * tr;
+		ur = dRe[0];
+		dRe[0] = ur * tr - dIm[0] * ti;
+		dIm[0] = ur * ti + dIm[0] * tr;
+		for (int i = 1; i < n; i++) {
+			// temp = 1 / (b[i] - c[i-1] * a[i])
+			ur = bRe[i] - (cRe[i - 1] * aRe[i] - cIm[i - 1] * aIm[i]);
+			ui = bIm[i] - (cRe[i - 1] * aIm[i] + cIm[i - 1] * aRe[i]);
+			inv = 1.0f / (ur * ur + ui * ui);
+			tr = ur * inv;
+			ti = -ui * inv;
+			ur = cRe[i];
+			cRe[i] = ur * tr - cIm[i] * ti; // redundant at the last step as c[n-1]=0.
+			cIm[i] = ur * ti + cIm[i] * tr;
+			ur = dRe[i] - (dRe[i - 1] * aRe[i] - dIm[i - 1] * aIm[i]);
+			ui = dIm[i] - (dRe[i - 1] * aIm[i] + dIm[i - 1] * aRe[i]);
+			dRe[i] = ur * tr - ui * ti;
+			dIm[i] = ur * ti + ui * tr;
+		}
+		xRe[n - 1] = dRe[n - 1];
+		xIm[n - 1] = dIm[n - 1];
+		for (int i = n - 2; i >= 0; i--) {
+			ur = xRe[i + 1];
+			ui = xIm[i + 1];
+			xRe[i] = dRe[i] - (cRe[i] * ur - cIm[i] * ui);
+			xIm[i] = dIm[i] - (cRe[i] * ui + cIm[i] * ur);
+		}
+	}
+
 	/**
 	 * Complex number version. c and d are modified during the operation. All input arrays must be of the same size.
 	 * 
@@ -0,0 +1,127 @@
+package quantum.math;
+
+/**
+ * The LU factorization of a complex tridiagonal matrix for the Thomas algorithm (see Tdma). When many systems share the same matrix, the modified superdiagonal and the inverse pivots are computed once by factorize() and each right-hand side then costs only a forward elimination and a back substitution. The factorization can be kept and reused as long as the matrix does not change.
+ * 
+ * The right-hand sides of a batch are located by an offset, a system stride and an element stride: element i of system s is at offset + s * systemStride + i * elementStride. The loops run over the systems innermost, so with a system stride of one (structure of arrays) the inner loop walks contiguous memory and can be vectorized.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class TdmaFactorization {
+
+	private int n;
+	private float[] aRe, aIm; // subdiagonal
+	private float[] cRe, cIm; // modified superdiagonal
+	private float[] mRe, mIm; // inverse pivots
+
+	public TdmaFactorization(int n) {
+		this.n = n;
+		aRe = new float[n];
+		aIm = new float[n];
+		cRe = new float[n];
+		cIm = new float[n];
+		mRe = new float[n];
+		mIm = new float[n];
+	}
+
+	public int getDimension() {
+		return n;
+	}
+
+	/**
+	 * Factorize a matrix with constant subdiagonal a, diagonal b and superdiagonal c (a[0]=0 and c[n-1]=0 are implied).
+	 */
+	public void factorize(float aRe, float aIm, float bRe, float bIm, float cRe, float cIm) {
+		float ur, ui, inv;
+		this.aRe[0] = this.aIm[0] = 0;
+		inv = 1.0f / (bRe * bRe + bIm * bIm);
+		mRe[0] = bRe * inv;
+		mIm[0] = -bIm * inv;
+		this.cRe[0] = cRe * mRe[0] - cIm * mIm[0];
+		this.cIm[0] = cRe * mIm[0] + cIm * mRe[0];
+		for (int i = 1; i < n; i++) {
+			this.aRe[i] = aRe;
+			this.aIm[i] = aIm;
+			ur = bRe - (this.cRe[i - 1] * aRe - this.cIm[i - 1] * aIm);
+			ui = bIm - (this.cRe[i - 1] * aIm + this.cIm[i - 1] * aRe);
+			inv = 1.0f / (ur * ur + ui * ui);
+			mRe[i] = ur * inv;
+			mIm[i] = -ui * inv;
+			if (i < n - 1) {
+				this.cRe[i] = cRe * mRe[i] - cIm * mIm[i];
+				this.cIm[i] = cRe * mIm[i] + cIm * mRe[i];
+			} else {
+				this.cRe[i] = this.cIm[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Solve count systems that share the factorized matrix. d is overwritten by intermediate results. The solutions are written into x, which may be the same arrays as d.
+	 * 
+	 * @param dRe
+	 *            the real part of the right-hand sides
+	 * @param dIm
+	 *            the imaginary part of the right-hand sides
+	 * @param xRe
+	 *            the real part of the solutions
+	 * @param xIm
+	 *            the imaginary part of the solutions
+	 * @param offset
+	 *            the index of the first element of the first system
+	 * @param count
+	 *            the number of systems
+	 * @param systemStride
+	 *            the distance between the first elements of two consecutive systems
+	 * @param elementStride
+	 *            the distance between two consecutive elements of a system
+	 */
+	public void solve(float[] dRe, float[] dIm, float[] xRe, float[] xIm, int offset, int count, int systemStride, int elementStride) {
+		float ur, ui, ar, ai, mr, mi;
+		int k, end, prev;
+		mr = mRe[0];
+		mi = mIm[0];
+		end = offset + count * systemStride;
+		for (k = offset; k < end; k += systemStride) {
+			ur = dRe[k];
+			dRe[k] = ur * mr - dIm[k] * mi;
+			dIm[k] = ur * mi + dIm[k] * mr;
+		}
+		for (int i = 1; i < n; i++) {
+			ar = aRe[i];
+			ai = aIm[i];
+			mr = mRe[i];
+			mi = mIm[i];
+			k = offset + i * elementStride;
+			end = k + count * systemStride;
+			for (; k < end; k += systemStride) {
+				prev = k - elementStride;
+				ur = dRe[k] - (dRe[prev] * ar - dIm[prev] * ai);
+				ui = dIm[k] - (dRe[prev] * ai + dIm[prev] * ar);
+				dRe[k] = ur * mr - ui * mi;
+				dIm[k] = ur * mi + ui * mr;
+			}
+		}
+		k = offset + (n - 1) * elementStride;
+		end = k + count * systemStride;
+		for (; k < end; k += systemStride) {
+			xRe[k] = dRe[k];
+			xIm[k] = dIm[k];
+		}
+		for (int i = n - 2; i >= 0; i--) {
+			ar = cRe[i];
+			ai = cIm[i];
+			k = offset + i * elementStride;
+			end = k + count * systemStride;
+			for (; k < end; k += systemStride) {
+				prev = k + elementStride;
+				ur = xRe[prev];
+				ui = xIm[prev];
+				xRe[k] = dRe[k] - (ar * ur - ai * ui);
+				xIm[k] = dIm[k] - (ar * ui + ai * ur);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+package quantum.math;
+
+import java.util.Random;
+
+/**
+ * Compute the lowest k eigenvalues and, optionally, their eigenvectors of a real symmetric tridiagonal matrix using bisection and inverse iteration (the method of LAPACK's DSTEBZ and DSTEIN). Unlike a full divide-and-conquer solve, which needs O(n^2) memory for all the eigenvectors, the memory is O(n) for the workspace plus O(kn) for the requested eigenvectors, so it can handle matrices of dimension in the tens of thousands.
+ * 
+ * The eigenvalues are located by bisection using Sturm sequence counts. Each eigenvector is then computed by a few steps of inverse iteration with the LU factorization (with partial pivoting) of the shifted matrix. Eigenvectors whose eigenvalues are close to each other are reorthogonalized by the Gram-Schmidt process.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class TridiagonalEigenSolver {
+
+	private final static double EPS = 2.220446049250313e-16;
+	private final static int ITERATIONS = 3;
+
+	private int n;
+	private double[] u0, u1, u2; // the diagonal and two superdiagonals of U
+	private double[] l; // the multipliers of L
+	private boolean[] swap; // row interchanges
+	private Random random;
+
+	public TridiagonalEigenSolver(int n) {
+		this.n = n;
+		u0 = new double[n];
+		u1 = new double[n];
+		u2 = new double[n];
+		l = new double[n];
+		swap = new boolean[n];
+		random = new Random(1);
+	}
+
+	public int getDimension() {
+		return n;
+	}
+
+	/**
+	 * Compute the lowest k eigenpairs. The input arrays are not modified.
+	 * 
+	 * @param d
+	 *            the diagonal elements (dimension n)
+	 * @param e
+	 *            the off-diagonal elements (dimension n-1)
+	 * @param k
+	 *            the number of eigenpairs
+	 * @param eigenValue
+	 *            receives the lowest k eigenvalues in ascending order
+	 * @param eigenVector
+	 *            receives the normalized eigenvectors (k by n), or null if only eigenvalues are needed
+	 */
+	public void solve(double[] d, double[] e, int k, double[] eigenValue, double[][] eigenVector) {
+		if (k < 1 || k > n)
+			throw new IllegalArgumentException("cannot compute " + k + " eigenvalues of a matrix of dimension " + n);
+
+		// Gershgorin's interval that contains all the eigenvalues
+		double lower = d[0], upper = d[0], r;
+		for (int i = 0; i < n; i++) {
+			r = (i > 0 ? Math.abs(e[i - 1]) : 0) + (i < n - 1 ? Math.abs(e[i]) : 0);
+			if (d[i] - r < lower)
+				lower = d[i] - r;
+			if (d[i] + r > upper)
+				upper = d[i] + r;
+		}
+		double norm = Math.max(Math.abs(lower), Math.abs(upper));
+		double pivmin = Double.MIN_NORMAL;
+		for (int i = 0; i < n - 1; i++)
+			pivmin = Math.max(pivmin, e[i] * e[i]);
+		pivmin *= Double.MIN_NORMAL / EPS;
+		if (norm == 0)
+			norm = 1;
+
+		// bisection: the j-th eigenvalue is the point where the count of eigenvalues below x passes j
+		double lo, hi, mid;
+		for (int j = 0; j < k; j++) {
+			lo = j > 0 ? eigenValue[j - 1] : lower - 2 * EPS * norm;
+			hi = upper + 2 * EPS * norm;
+			while (hi - lo > 2 * EPS * Math.max(Math.abs(lo), Math.abs(hi)) + pivmin) {
+				mid = 0.5 * (lo + hi);
+				if (mid <= lo || mid >= hi)
+					break;
+				if (countBelow(d, e, mid, pivmin) > j) {
+					hi = mid;
+				} else {
+					lo = mid;
+				}
+			}
+			eigenValue[j] = 0.5 * (lo + hi);
+		}
+
+		if (eigenVector == null)
+			return;
+
+		// inverse iteration
+		double separation = 1.0e-3 * norm; // eigenvalues closer than this form a cluster (the criterion of DSTEIN)
+		double perturbation = 10 * EPS * norm;
+		int first = 0; // the first eigenvalue of the current cluster
+		double[] x;
+		double s;
+		for (int j = 0; j < k; j++) {
+			if (j > 0 && eigenValue[j] - eigenValue[j - 1] > separation)
+				first = j;
+			// perturb the shift of the members of a cluster a little so that the factorizations differ
+			factorize(d, e, eigenValue[j] + (j - first) * perturbation, perturbation);
+			x = eigenVector[j];
+			for (int i = 0; i < n; i++)
+				x[i] = 2 * random.nextDouble() - 1;
+			for (int iter = 0; iter < ITERATIONS; iter++) {
+				substitute(x);
+				for (int m = first; m < j; m++) {
+					s = 0;
+					for (int i = 0; i < n; i++)
+						s += x[i] * eigenVector[m][i];
+					for (int i = 0; i < n; i++)
+						x[i] -= s * eigenVector[m][i];
+				}
+				s = 0;
+				for (int i = 0; i < n; i++)
+					s += x[i] * x[i];
+				s = 1.0 / Math.sqrt(s);
+				for (int i = 0; i < n; i++)
+					x[i] *= s;
+			}
+		}
+
+	}
+
+	/* the number of eigenvalues less than x, by counting the negative pivots of the LDL^T factorization of T - x */
+	private int countBelow(double[] d, double[] e, double x, double pivmin) {
+		int count = 0;
+		double q = d[0] - x;
+		if (Math.abs(q) < pivmin)
+			q = -pivmin;
+		if (q < 0)
+			count++;
+		for (int i = 1; i < n; i++) {
+			q = d[i] - x - e[i - 1] * e[i - 1] / q;
+			if (Math.abs(q) < pivmin)
+				q = -pivmin;
+			if (q < 0)
+				count++;
+		}
+		return count;
+	}
+
+	/* LU factorization with partial pivoting of T - shift, in which U has two superdiagonals */
+	private void factorize(double[] d, double[] e, double shift, double tiny) {
+		u0[0] = d[0] - shift;
+		u1[0] = n > 1 ? e[0] : 0;
+		double r0, r1, next;
+		for (int i = 0; i < n - 1; i++) {
+			r0 = u0[i];
+			r1 = u1[i];
+			next = i < n - 2 ? e[i + 1] : 0;
+			if (Math.abs(r0) >= Math.abs(e[i])) {
+				swap[i] = false;
+				if (r0 == 0)
+					r0 = u0[i] = tiny;
+				l[i] = e[i] / r0;
+				u2[i] = 0;
+				u0[i + 1] = d[i + 1] - shift - l[i] * r1;
+				u1[i + 1] = next;
+			} else {
+				swap[i] = true;
+				l[i] = r0 / e[i];
+				u0[i] = e[i];
+				u1[i] = d[i + 1] - shift;
+				u2[i] = next;
+				u0[i + 1] = r1 - l[i] * u1[i];
+				u1[i + 1] = -l[i] * next;
+			}
+		}
+		if (u0[n - 1] == 0)
+			u0[n - 1] = tiny;
+	}
+
+	/* solve (T - shift) y = x in place using the factorization */
+	private void substitute(double[] x) {
+		double t;
+		for (int i = 0; i < n - 1; i++) {
+			if (swap[i]) {
+				t = x[i];
+				x[i] = x[i + 1];
+				x[i + 1] = t - l[i] * x[i];
+			} else {
+				x[i + 1] -= l[i] * x[i];
+			}
+		}
+		x[n - 1] /= u0[n - 1];
+		if (n > 1)
+			x[n - 2] = (x[n - 2] - u1[n - 2] * x[n - 1]) / u0[n - 2];
+		for (int i = n - 3; i >= 0; i--) {
+			x[i] = (x[i] - u1[i] * x[i + 1] - u2[i] * x[i + 2]) / u0[i];
+		}
+	}
+
+}
@@ -12,6 +12,8 @@ import quantum.qmshared.Particle;
  */
 class CayleySolver1D extends RealTimePropagator1D {
 
+	private final static DoubleComplex ONE = new DoubleComplex(1, 0);
+
 	private DoubleComplex[] a, b, c, d;
 
 	CayleySolver1D(Particle particle, int dimension) {
@@ -46,21 +48,21 @@ class CayleySolver1D extends RealTimePropagator1D {
 		for (int i = 0; i < n; i++) {
 
 			// compute the rhs vector
-			d[i] = psi[i].add(h[i][i].multiply(psi[i]));
+			d[i] = psi[i].add(hDiag[i].multiply(psi[i]));
 
 			if (i > 0) {
 				// compute the subdiagonal elements
-				a[i] = h[i - 1][i].negative();
-				d[i] = d[i].add(h[i - 1][i].multiply(psi[i - 1]));
+				a[i] = hSub[i].negative();
+				d[i] = d[i].add(hSub[i].multiply(psi[i - 1]));
 			}
 
 			// compute the diagonal elements
-			b[i] = new DoubleComplex(1, 0).subtract(h[i][i]);
+			b[i] = ONE.subtract(hDiag[i]);
 
 			if (i < n - 1) {
 				// compute the superdiagonal elements
-				c[i] = h[i + 1][i].negative();
-				d[i] = d[i].add(h[i + 1][i].multiply(psi[i + 1]));
+				c[i] = hSup[i].negative();
+				d[i] = d[i].add(hSup[i].multiply(psi[i + 1]));
 			}
 
 		}
@@ -71,8 +73,8 @@ class CayleySolver1D extends RealTimePropagator1D {
 
 		iStep++;
 
-		if (iStep % OUTPUT_INTERVAL == 0) {
-			outputProperties();
+		if (isOutputDue()) {
+			output();
 		}
 
 	}
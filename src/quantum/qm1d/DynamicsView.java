@@ -47,6 +47,7 @@ class DynamicsView extends JPanel {
     private float probabilityScale = 5f;
     private NumberFormat format;
     private double time, timeStep;
+    private String warning;
     private Boundary boundary;
     private int n;
     private boolean frank = true;
@@ -101,6 +102,11 @@ class DynamicsView extends JPanel {
         this.timeStep = timeStep;
     }
 
+    /** show a warning, e.g. that the simulation is numerically unstable, or none if null */
+    void setWarning(String warning) {
+        this.warning = warning;
+    }
+
     void setProbability(double[] prob) {
         this.prob = prob;
     }
@@ -157,6 +163,11 @@ class DynamicsView extends JPanel {
         drawProbabilityFunction(g2);
         if (boundary == null)
             drawPositionAndVelocity(g2);
+        if (warning != null) {
+            g2.setFont(font);
+            g2.setColor(Color.red);
+            g2.drawString(warning, 10, getHeight() - 10);
+        }
         if (frank) {
 			g2.setFont(new Font("Arial", Font.BOLD, 12));
             int frankLength = g2.getFontMetrics().stringWidth(QuantumBox.BRAND_NAME);
@@ -0,0 +1,148 @@
+package quantum.qm1d;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded least-recently-used cache of the eigen energies and eigenvectors computed by StationaryStateSolver. A solution is keyed by the content of the potential array together with the particle mass, the number of grid points, the length of the domain and the number of states. The potential is copied into the key and compared element by element, so two different potentials that happen to have the same hash never share a solution.
+ * 
+ * The capacity is measured in the number of doubles held by the cache (potentials, energies and eigenvectors). When it is exceeded, the least recently used solutions are evicted. The cached arrays must be treated as read-only by the callers.
+ * 
+ * @author Charles Xie
+ * 
+ */
+class EigenSolutionCache {
+
+	private Map<Key, Solution> map;
+	private long capacity;
+	private long size;
+	private int hitCount, missCount;
+
+	EigenSolutionCache(long capacity) {
+		this.capacity = capacity;
+		map = new LinkedHashMap<Key, Solution>(16, 0.75f, true);
+	}
+
+	synchronized void setCapacity(long capacity) {
+		this.capacity = capacity;
+		evict();
+	}
+
+	synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/** @return the number of doubles currently held by the cache */
+	synchronized long getSize() {
+		return size;
+	}
+
+	synchronized int getEntryCount() {
+		return map.size();
+	}
+
+	synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	synchronized int getMissCount() {
+		return missCount;
+	}
+
+	synchronized void clear() {
+		map.clear();
+		size = 0;
+	}
+
+	/** @return the cached solution, or null if there is none (a miss) */
+	synchronized Solution get(double[] potential, double mass, double length, int maxState, boolean vectors) {
+		Solution s = map.get(new Key(potential, mass, length, maxState, vectors, false));
+		if (s == null) {
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return s;
+	}
+
+	synchronized void put(double[] potential, double mass, double length, int maxState, boolean vectors, double[] eigenEnergy, double[][] eigenVector) {
+		Key key = new Key(potential, mass, length, maxState, vectors, true);
+		Solution s = new Solution(eigenEnergy, eigenVector);
+		long n = key.potential.length + s.size();
+		if (n > capacity)
+			return;
+		Solution old = map.put(key, s);
+		if (old != null)
+			size -= key.potential.length + old.size();
+		size += n;
+		evict();
+	}
+
+	private void evict() {
+		Map.Entry<Key, Solution> e;
+		for (Iterator<Map.Entry<Key, Solution>> it = map.entrySet().iterator(); size > capacity && it.hasNext();) {
+			e = it.next();
+			size -= e.getKey().potential.length + e.getValue().size();
+			it.remove();
+		}
+	}
+
+	static class Solution {
+
+		final double[] eigenEnergy;
+		final double[][] eigenVector;
+
+		Solution(double[] eigenEnergy, double[][] eigenVector) {
+			this.eigenEnergy = eigenEnergy;
+			this.eigenVector = eigenVector;
+		}
+
+		long size() {
+			long n = eigenEnergy.length;
+			if (eigenVector != null) {
+				for (double[] v : eigenVector)
+					n += v.length;
+			}
+			return n;
+		}
+
+	}
+
+	private static class Key {
+
+		private final double[] potential;
+		private final double mass, length;
+		private final int maxState;
+		private final boolean vectors;
+		private final int hash;
+
+		Key(double[] potential, double mass, double length, int maxState, boolean vectors, boolean copy) {
+			this.potential = copy ? potential.clone() : potential;
+			this.mass = mass;
+			this.length = length;
+			this.maxState = maxState;
+			this.vectors = vectors;
+			long h = Arrays.hashCode(potential);
+			h = 31 * h + Double.doubleToLongBits(mass);
+			h = 31 * h + Double.doubleToLongBits(length);
+			h = 31 * h + maxState;
+			h = 31 * h + (vectors ? 1 : 0);
+			hash = (int) (h ^ (h >>> 32));
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return hash == k.hash && maxState == k.maxState && vectors == k.vectors && Double.doubleToLongBits(mass) == Double.doubleToLongBits(k.mass) && Double.doubleToLongBits(length) == Double.doubleToLongBits(k.length) && Arrays.equals(potential, k.potential);
+		}
+
+	}
+
+}
@@ -6,20 +6,28 @@ import static quantum.qmshared.Constants.MASS_UNIT_CONVERTER;
 import quantum.qmshared.Particle;
 
 /**
+ * The Hamiltonian is a three-point stencil: a diagonal hDiag[i] and a constant off-diagonal hOff. A step therefore costs O(n) and updates psi in place.
+ * 
+ * The default explicit step psi -= dt H psi is only stable for dt < 2 / (largest eigenvalue of H), which shrinks as the square of the grid spacing. The implicit (backward Euler) step solves (1 + dt (H - s)) psi' = psi instead, where s is a lower bound of the spectrum so that H - s is positive semidefinite. It damps every excited state relative to the ground state for any dt > 0, so much larger imaginary time steps can be used on fine grids. The shift only changes the norm of psi, which is removed by the normalization.
  * 
  * @author Charles Xie
  * 
  */
 class ImaginaryTimePropagator1D extends TimePropagator1D {
 
-	double[][] h;
-	double[] psi, psi2;
+	final static double IMPLICIT_TIME_STEP = 1; // the default time step of the implicit step, in fs
+
+	double[] hDiag;
+	double hOff;
+	double[] psi;
+
+	private boolean implicit;
+	private double[] scratch;
 
 	ImaginaryTimePropagator1D(Particle particle, int dimension) {
 		n = dimension;
-		h = new double[n][n];
+		hDiag = new double[n];
 		psi = new double[n];
-		psi2 = new double[n];
 		amplitude = new double[n];
 		coordinate = new double[n];
 		for (int i = 0; i < n; i++)
@@ -38,13 +46,41 @@ class ImaginaryTimePropagator1D extends TimePropagator1D {
 			if (ef != 0) {
 				p += ef * (i - n / 2) * ENERGY_UNIT_CONVERTER;
 			}
-			h[i][i] = p;
-			if (iStep < 1) {
-				for (int j = i + 1; j < n; j++) {
-					h[i][j] = h[j][i] = j == i + 1 ? -a : 0;
-				}
-			}
+			hDiag[i] = p;
 		}
+		hOff = -a;
+	}
+
+	/**
+	 * Use the implicit (backward Euler) step, which is stable for large imaginary time steps. Switching it on raises a smaller time step to IMPLICIT_TIME_STEP, and switching it off cuts the time step to the stability limit of the explicit step if it is beyond it.
+	 */
+	void setImplicit(boolean b) {
+		implicit = b;
+		if (implicit) {
+			if (scratch == null)
+				scratch = new double[n];
+			if (timeStep < IMPLICIT_TIME_STEP)
+				setTimeStep(IMPLICIT_TIME_STEP);
+		} else if (potential != null) {
+			double limit = getExplicitTimeStepLimit();
+			if (timeStep > limit)
+				setTimeStep(limit);
+		}
+	}
+
+	/* the largest time step for which the explicit step is stable, with a margin: 2 / Gershgorin's upper bound of the eigenvalues of H */
+	double getExplicitTimeStepLimit() {
+		generateHamiltonianMatrix();
+		double max = hDiag[0];
+		for (int i = 1; i < n; i++) {
+			if (hDiag[i] > max)
+				max = hDiag[i];
+		}
+		return 0.9 * 2 / (max + 2 * Math.abs(hOff));
+	}
+
+	boolean isImplicit() {
+		return implicit;
 	}
 
 	void setInitialState(int initState, double[][] eigenVector) {
@@ -97,27 +133,61 @@ class ImaginaryTimePropagator1D extends TimePropagator1D {
 
 		generateHamiltonianMatrix();
 
-		for (int i = 0; i < n; i++) {
-			psi2[i] = 0;
-			for (int j = 0; j < n; j++) {
-				psi2[i] += timeStep * h[i][j] * psi[j];
-			}
-		}
-
-		for (int i = 0; i < n; i++) {
-			psi[i] -= psi2[i];
+		if (implicit) {
+			implicitStep();
+		} else {
+			explicitStep();
 		}
 
 		normalizePsi();
 
 		iStep++;
 
-		if (iStep % OUTPUT_INTERVAL == 0) {
-			outputProperties();
+		if (isOutputDue()) {
+			output();
 		}
 
 	}
 
+	/* psi -= dt H psi, in place by carrying the old value of the previous element */
+	private void explicitStep() {
+		double off = timeStep * hOff;
+		double prev = psi[0];
+		double cur;
+		psi[0] -= timeStep * hDiag[0] * prev + off * psi[1];
+		for (int i = 1; i < n - 1; i++) {
+			cur = psi[i];
+			psi[i] -= off * prev + timeStep * hDiag[i] * cur + off * psi[i + 1];
+			prev = cur;
+		}
+		cur = psi[n - 1];
+		psi[n - 1] -= off * prev + timeStep * hDiag[n - 1] * cur;
+	}
+
+	/* solve (1 + dt (H - s)) psi' = psi in place with the Thomas algorithm (see Tdma), keeping the modified superdiagonal in scratch */
+	private void implicitStep() {
+		// Gershgorin's lower bound of the eigenvalues of H
+		double s = hDiag[0];
+		for (int i = 1; i < n; i++) {
+			if (hDiag[i] < s)
+				s = hDiag[i];
+		}
+		s -= 2 * Math.abs(hOff);
+		double b = 1 - timeStep * s;
+		double off = timeStep * hOff;
+		double m = 1.0 / (b + timeStep * hDiag[0]);
+		scratch[0] = off * m;
+		psi[0] *= m;
+		for (int i = 1; i < n; i++) {
+			m = 1.0 / (b + timeStep * hDiag[i] - scratch[i - 1] * off);
+			scratch[i] = off * m;
+			psi[i] = (psi[i] - psi[i - 1] * off) * m;
+		}
+		for (int i = n - 2; i >= 0; i--) {
+			psi[i] -= scratch[i] * psi[i + 1];
+		}
+	}
+
 	void calculateMomentum() {
 		momentum = 0;
 		double delta2 = delta * 2;
@@ -148,6 +218,25 @@ class ImaginaryTimePropagator1D extends TimePropagator1D {
 		return result;
 	}
 
+	Object copyWaveFunction(Object copy) {
+		double[] c = copy != null ? (double[]) copy : new double[n];
+		System.arraycopy(psi, 0, c, 0, n);
+		return c;
+	}
+
+	void setWaveFunction(Object copy) {
+		System.arraycopy((double[]) copy, 0, psi, 0, n);
+	}
+
+	int countNonFiniteCells() {
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (Double.isNaN(psi[i]) || Double.isInfinite(psi[i]))
+				count++;
+		}
+		return count;
+	}
+
 	void outputProperties() {
 		for (int i = 0; i < n; i++) {
 			amplitude[i] = psi[i] * psi[i];
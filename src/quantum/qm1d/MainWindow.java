@@ -10,13 +10,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import javax.swing.*;
 
 import quantum.qmevent.VisualizationEvent;
 import quantum.qmevent.VisualizationListener;
 import quantum.qmshared.Particle;
+import quantum.qmshared.SimulationScheduler;
+import quantum.qmutil.MiscUtil;
+import quantum.qmutil.VisibilityTracker;
 
 /**
  * @author Charles Xie
@@ -25,6 +27,7 @@ import quantum.qmshared.Particle;
 public class MainWindow extends JApplet implements VisualizationListener {
 
 	private static final long serialVersionUID = 1L;
+	private final static float MAXIMUM_FRAME_RATE = 60; // no need to paint faster than the screen refreshes
 	private WaveFunctionView waveFunView;
 	private EnergyLevelView energyLevelView;
 	private DynamicsView dynamicsView;
@@ -35,6 +38,7 @@ public class MainWindow extends JApplet implements VisualizationListener {
 	boolean editable = true;
 
 	private ExecutorService threadService;
+	private VisibilityTracker visibility;
 
 	static byte logLevel = 0;
 	Particle particle;
@@ -64,7 +68,9 @@ public class MainWindow extends JApplet implements VisualizationListener {
 	@Override
 	public void destroy() {
 		stop();
-		if (threadService != null && !threadService.isShutdown()) {
+		if (visibility != null)
+			visibility.dispose();
+		if (threadService != null && !(threadService instanceof SimulationScheduler) && !threadService.isShutdown()) { // a scheduler is shared with other simulations
 			threadService.shutdownNow();
 		}
 	}
@@ -168,7 +174,24 @@ public class MainWindow extends JApplet implements VisualizationListener {
 		if ("false".equalsIgnoreCase(s)) {
 			stationary = false;
 			addDynamicView();
-			propagator = new RungeKuttaSolver(particle, n);
+			try {
+				s = getParameter("imaginary_time");
+			} catch (Exception e) {
+				s = null;
+			}
+			if ("true".equalsIgnoreCase(s)) { // relax to the ground state
+				ImaginaryTimePropagator1D itp = new ImaginaryTimePropagator1D(particle, n);
+				try {
+					s = getParameter("implicit");
+				} catch (Exception e) {
+					s = null;
+				}
+				if ("true".equalsIgnoreCase(s))
+					itp.setImplicit(true); // with a time step that suits it, unless one is given below
+				propagator = itp;
+			} else {
+				propagator = new RungeKuttaSolver(particle, n);
+			}
 			try {
 				s = getParameter("boundary");
 			} catch (Exception e) {
@@ -181,6 +204,10 @@ public class MainWindow extends JApplet implements VisualizationListener {
 			} catch (Exception e) {
 			}
 			propagator.setTimeStep(timestep);
+			try {
+				propagator.getScheduler().setTimeRate(Double.parseDouble(getParameter("timerate"))); // fs per second, flat out if not set
+			} catch (Exception e) {
+			}
 			try {
 				s = getParameter("potential");
 			} catch (Exception e) {
@@ -226,6 +253,8 @@ public class MainWindow extends JApplet implements VisualizationListener {
 				}
 				propagator.setElectricField(eField);
 			}
+			propagator.getVisualizationDispatcher().setExecutor(MiscUtil.EVENT_QUEUE);
+			propagator.getVisualizationDispatcher().setMaximumFrameRate(MAXIMUM_FRAME_RATE);
 			propagator.addVisualizationListener(this);
 			dynamicsView.setPotential(potential, true);
 			dynamicsView.setBoundaryLayer(propagator.getBoundary());
@@ -278,17 +307,27 @@ public class MainWindow extends JApplet implements VisualizationListener {
 			stationaryStateSolver = new StationaryStateSolver(n);
 			stationaryStateSolver.setParticle(particle);
 			stationaryStateSolver.setMaxState(20);
+			stationaryStateSolver.setPartialSpectrum(true);
 		}
 	}
 
 	private void runDynamics() {
 		if (threadService == null)
-			threadService = Executors.newFixedThreadPool(1);
-		threadService.execute(new Runnable() {
-			public void run() {
-				propagator.run();
+			threadService = SimulationScheduler.getShared();
+		if (threadService instanceof SimulationScheduler) {
+			// time-sliced with the other simulations of the scheduler, at the priority that the visibility of the view deserves
+			if (propagator.startRunning()) {
+				if (visibility == null)
+					visibility = new VisibilityTracker(dynamicsView);
+				visibility.track(((SimulationScheduler) threadService).schedule(propagator, visibility.getPriority()));
 			}
-		});
+		} else {
+			threadService.execute(new Runnable() {
+				public void run() {
+					propagator.run();
+				}
+			});
+		}
 	}
 
 	public void visualizationRequested(VisualizationEvent e) {
@@ -301,6 +340,7 @@ public class MainWindow extends JApplet implements VisualizationListener {
 			dynamicsView.setVelocity(propagator.getVelocity());
 			dynamicsView.setKineticEnergy(propagator.getKineticEnergy());
 			dynamicsView.setPotentialEnergy(propagator.getPotentialEnergy());
+			dynamicsView.setWarning(propagator.isFlagged() ? "Numerically unstable: try a smaller time step" : null);
 			dynamicsView.repaint();
 		}
 	}
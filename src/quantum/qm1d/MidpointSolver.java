@@ -12,12 +12,13 @@ class MidpointSolver extends RealTimePropagator1D {
 
 	private final static DoubleComplex HALF = new DoubleComplex(0.5, 0.0);
 
-	private DoubleComplex[] k1;
-	private DoubleComplex z1, z2;
+	private DoubleComplex[] k1, k2;
+	private DoubleComplex z1;
 
 	MidpointSolver(Particle particle, int dimension) {
 		super(particle, dimension);
 		k1 = new DoubleComplex[n];
+		k2 = new DoubleComplex[n];
 		setTimeStep(0.002);
 	}
 
@@ -25,35 +26,21 @@ class MidpointSolver extends RealTimePropagator1D {
 
 		super.nextStep();
 
+		multiplyHamiltonian(psi, k1);
 		for (int i = 0; i < n; i++) {
-			k1[i] = new DoubleComplex();
-			for (int j = 0; j < n; j++) {
-				z1 = h[i][j];
-				if (z1.absSquare() > 0) {
-					z1 = z1.multiply(psi[j]);
-					k1[i] = k1[i].add(z1);
-				}
-			}
 			z1 = HALF.multiply(k1[i]);
 			k1[i] = psi[i].add(z1);
 		}
 
+		multiplyHamiltonian(k1, k2);
 		for (int i = 0; i < n; i++) {
-			z2 = new DoubleComplex();
-			for (int j = 0; j < n; j++) {
-				z1 = h[i][j];
-				if (z1.absSquare() > 0) {
-					z1 = z1.multiply(k1[j]);
-					z2 = z2.add(z1);
-				}
-			}
-			psi[i] = psi[i].add(z2);
+			psi[i] = psi[i].add(k2[i]);
 		}
 
 		iStep++;
 
-		if (iStep % OUTPUT_INTERVAL == 0) {
-			outputProperties();
+		if (isOutputDue()) {
+			output();
 		}
 
 	}
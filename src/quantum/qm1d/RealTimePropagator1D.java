@@ -8,13 +8,16 @@ import quantum.qmshared.AbsorbingBoundary;
 import quantum.qmshared.Particle;
 
 /**
+ * The finite-difference Hamiltonian (multiplied by -i dt) is tridiagonal, so it is stored as three bands: hSub[i] = h(i, i-1), hDiag[i] = h(i, i) and hSup[i] = h(i, i+1), with hSub[0] and hSup[n-1] being zero. Both the memory and the cost of a matrix-vector product are O(n).
+ * 
  * @author Charles Xie
  * 
  */
 abstract class RealTimePropagator1D extends TimePropagator1D {
 
-	DoubleComplex[][] h;
+	DoubleComplex[] hSub, hDiag, hSup;
 	DoubleComplex[] psi;
+	private double offDiagonalTimeStep; // the time step that hSub and hSup have been built with
 
 	private double p0;
 
@@ -24,7 +27,9 @@ abstract class RealTimePropagator1D extends TimePropagator1D {
 
 	RealTimePropagator1D(Particle particle, int dimension) {
 		n = dimension;
-		h = new DoubleComplex[n][n];
+		hSub = new DoubleComplex[n];
+		hDiag = new DoubleComplex[n];
+		hSup = new DoubleComplex[n];
 		amplitude = new double[n];
 		psi = new DoubleComplex[n];
 		coordinate = new double[n];
@@ -76,6 +81,7 @@ abstract class RealTimePropagator1D extends TimePropagator1D {
 		double ft = 0;
 		if (slk)
 			ft = calculateExpectation(phase);
+		boolean rebuild = iStep < 1 || timeStep != offDiagonalTimeStep; // the off-diagonals depend only on the time step, which a back-off or a script may change during a run
 		for (int i = 0; i < n; i++) {
 			p = 2 * a + clampPotential(potential.pot[i]);
 			if (ef != 0) {
@@ -86,24 +92,33 @@ abstract class RealTimePropagator1D extends TimePropagator1D {
 				p += slkFriction * (phase[i] - ft) / (particle.getMass() * MASS_UNIT_CONVERTER);
 			}
 			if (boundary == null) {
-				h[i][i] = new DoubleComplex(0, -timeStep * p);
+				hDiag[i] = new DoubleComplex(0, -timeStep * p);
 			} else if (boundary instanceof AbsorbingBoundary) {
 				AbsorbingBoundary ab = (AbsorbingBoundary) boundary;
 				int lg = (int) (ab.getLengthPercentage() * n);
 				if (i < lg) {
-					h[i][i] = new DoubleComplex(-ab.getAbsorption() * (lg - i), -timeStep);
+					hDiag[i] = new DoubleComplex(-ab.getAbsorption() * (lg - i), -timeStep);
 				} else if (i > n - lg) {
-					h[i][i] = new DoubleComplex(-ab.getAbsorption() * (lg - n + i), -timeStep * p);
+					hDiag[i] = new DoubleComplex(-ab.getAbsorption() * (lg - n + i), -timeStep * p);
 				} else {
-					h[i][i] = new DoubleComplex(0, -timeStep * p);
+					hDiag[i] = new DoubleComplex(0, -timeStep * p);
 				}
 			}
-			if (iStep < 1) {
-				for (int j = i + 1; j < n; j++) {
-					h[i][j] = h[j][i] = new DoubleComplex(0, j == i + 1 ? timeStep * a : 0);
-				}
+			if (rebuild) {
+				hSub[i] = new DoubleComplex(0, i > 0 ? timeStep * a : 0);
+				hSup[i] = new DoubleComplex(0, i < n - 1 ? timeStep * a : 0);
 			}
 		}
+		offDiagonalTimeStep = timeStep;
+	}
+
+	/* y = h x. x and y must be different arrays. */
+	void multiplyHamiltonian(DoubleComplex[] x, DoubleComplex[] y) {
+		y[0] = hDiag[0].multiply(x[0]).add(hSup[0].multiply(x[1]));
+		for (int i = 1; i < n - 1; i++) {
+			y[i] = hSub[i].multiply(x[i - 1]).add(hDiag[i].multiply(x[i])).add(hSup[i].multiply(x[i + 1]));
+		}
+		y[n - 1] = hSub[n - 1].multiply(x[n - 2]).add(hDiag[n - 1].multiply(x[n - 1]));
 	}
 
 	void setInitialState(int initState, double[][] eigenVector) {
@@ -210,6 +225,26 @@ abstract class RealTimePropagator1D extends TimePropagator1D {
 		return result;
 	}
 
+	Object copyWaveFunction(Object copy) {
+		DoubleComplex[] c = copy != null ? (DoubleComplex[]) copy : new DoubleComplex[n];
+		System.arraycopy(psi, 0, c, 0, n); // the elements are immutable
+		return c;
+	}
+
+	void setWaveFunction(Object copy) {
+		System.arraycopy((DoubleComplex[]) copy, 0, psi, 0, n);
+	}
+
+	int countNonFiniteCells() {
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			double a = psi[i].real(), b = psi[i].imag();
+			if (Double.isNaN(a) || Double.isInfinite(a) || Double.isNaN(b) || Double.isInfinite(b))
+				count++;
+		}
+		return count;
+	}
+
 	void outputProperties() {
 		sum = 0.0;
 		for (int i = 0; i < n; i++) {
@@ -32,60 +32,24 @@ class RungeKuttaSolver extends RealTimePropagator1D {
 
 		super.nextStep();
 
-		for (int i = 0; i < n; i++) {
-			f1[i] = new DoubleComplex();
-			for (int j = 0; j < n; j++) {
-				z = h[i][j];
-				if (z.absSquare() > 0) {
-					z = z.multiply(psi[j]);
-					f1[i] = f1[i].add(z);
-				}
-			}
-		}
+		multiplyHamiltonian(psi, f1);
 		for (int i = 0; i < n; i++) {
 			z = HALF.multiply(f1[i]);
 			temp[i] = psi[i].add(z);
 		}
 
-		for (int i = 0; i < n; i++) {
-			f2[i] = new DoubleComplex();
-			for (int j = 0; j < n; j++) {
-				z = h[i][j];
-				if (z.absSquare() > 0) {
-					z = z.multiply(temp[j]);
-					f2[i] = f2[i].add(z);
-				}
-			}
-		}
+		multiplyHamiltonian(temp, f2);
 		for (int i = 0; i < n; i++) {
 			z = HALF.multiply(f2[i]);
 			temp[i] = psi[i].add(z);
 		}
 
-		for (int i = 0; i < n; i++) {
-			f3[i] = new DoubleComplex();
-			for (int j = 0; j < n; j++) {
-				z = h[i][j];
-				if (z.absSquare() > 0) {
-					z = z.multiply(temp[j]);
-					f3[i] = f3[i].add(z);
-				}
-			}
-		}
+		multiplyHamiltonian(temp, f3);
 		for (int i = 0; i < n; i++) {
 			temp[i] = psi[i].add(f3[i]);
 		}
 
-		for (int i = 0; i < n; i++) {
-			f4[i] = new DoubleComplex();
-			for (int j = 0; j < n; j++) {
-				z = h[i][j];
-				if (z.absSquare() > 0) {
-					z = z.multiply(temp[j]);
-					f4[i] = f4[i].add(z);
-				}
-			}
-		}
+		multiplyHamiltonian(temp, f4);
 
 		for (int i = 0; i < n; i++) {
 			z2 = TWO.multiply(f2[i]);
@@ -99,8 +63,8 @@ class RungeKuttaSolver extends RealTimePropagator1D {
 
 		iStep++;
 
-		if (iStep % OUTPUT_INTERVAL == 0) {
-			outputProperties();
+		if (isOutputDue()) {
+			output();
 		}
 
 	}
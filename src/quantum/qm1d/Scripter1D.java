@@ -7,6 +7,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import quantum.qmshared.AbsorbingBoundary;
+import quantum.qmshared.HealthMonitor;
 import quantum.qmshared.Scripter;
 
 /**
@@ -209,6 +210,25 @@ class Scripter1D extends Scripter {
 					if (propagator != null) {
 						propagator.setTimeStep(timestep);
 					}
+				} else if (t[0].equalsIgnoreCase("timerate")) {
+					double timeRate = 0;
+					try {
+						timeRate = Double.parseDouble(t[1]);
+					} catch (NumberFormatException e) {
+						return;
+					}
+					if (propagator != null && timeRate >= 0) {
+						propagator.getScheduler().setTimeRate(timeRate);
+					}
+				} else if (t[0].equalsIgnoreCase("implicit")) {
+					if (propagator instanceof ImaginaryTimePropagator1D) {
+						((ImaginaryTimePropagator1D) propagator).setImplicit("on".equalsIgnoreCase(t[1]) || "true".equalsIgnoreCase(t[1]));
+					}
+				} else if (t[0].equalsIgnoreCase("health")) {
+					int policy = HealthMonitor.getPolicy(t[1]);
+					if (propagator != null && policy >= 0) {
+						propagator.getHealthMonitor().setPolicy(policy);
+					}
 				} else if (t[0].equalsIgnoreCase("efield_intensity")) {
 					double eFieldIntensity = 0;
 					try {
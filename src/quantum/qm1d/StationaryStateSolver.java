@@ -5,6 +5,7 @@ import static quantum.qmshared.Constants.MASS_UNIT_CONVERTER;
 
 import java.util.Arrays;
 
+import quantum.math.TridiagonalEigenSolver;
 import quantum.qmshared.Particle;
 import org.netlib.lapack.Dstedc;
 import org.netlib.util.intW;
@@ -12,6 +13,10 @@ import org.netlib.util.intW;
 /**
  * Solving the time-independent one-dimensional Schroedinger equation using the finite difference method and LAPACK.
  * 
+ * LAPACK's Dstedc computes all n eigenvectors, which takes O(n^2) memory. In the partial spectrum mode, only the lowest maxState eigenpairs are computed by bisection and inverse iteration (see TridiagonalEigenSolver) with O(n * maxState) memory, which makes lattices of tens of thousands of points possible.
+ * 
+ * The solutions are kept in an LRU cache shared by all the solvers (see EigenSolutionCache), so revisiting a potential that was solved before does not solve it again.
+ * 
  * @author Charles Xie
  * 
  */
@@ -70,6 +75,11 @@ class StationaryStateSolver {
 
 	private Particle particle;
 
+	private final static EigenSolutionCache cache = new EigenSolutionCache(1 << 22);
+
+	private boolean partialSpectrum;
+	private TridiagonalEigenSolver partialSolver;
+
 	StationaryStateSolver() {
 		this(100);
 	}
@@ -97,13 +107,28 @@ class StationaryStateSolver {
 		v = new double[n];
 		d = new double[n];
 		e = new double[n - 1];
-		z = new double[n * n];
-		work = new double[1 + 4 * n + n * n];
-		iwork = new int[3 + 5 * n];
+		// the O(n^2) arrays of Dstedc are allocated only when needed
+		z = null;
+		work = null;
+		iwork = null;
+		partialSolver = null;
 		info = new intW(0);
 		eigenEnergy = new double[n];
 	}
 
+	/** compute only the lowest maxState eigenpairs instead of the whole spectrum */
+	void setPartialSpectrum(boolean b) {
+		partialSpectrum = b;
+	}
+
+	boolean isPartialSpectrum() {
+		return partialSpectrum;
+	}
+
+	static EigenSolutionCache getCache() {
+		return cache;
+	}
+
 	void setPotential(double[] v) {
 		this.v = v;
 	}
@@ -122,6 +147,19 @@ class StationaryStateSolver {
 	 * COMPZ (input) CHARACTER1 = 'N': Compute eigenvalues only. = 'I': Compute eigenvectors of tridiagonal matrix also.
 	 */
 	void solve(String compZ, double length) {
+		boolean vectors = "I".equalsIgnoreCase(compZ);
+		EigenSolutionCache.Solution s = cache.get(v, particle.getMass(), length, maxState, vectors);
+		if (s != null) {
+			System.arraycopy(s.eigenEnergy, 0, eigenEnergy, 0, maxState);
+			if (vectors)
+				eigenVector = s.eigenVector;
+			return;
+		}
+		compute(compZ, length);
+		cache.put(v, particle.getMass(), length, maxState, vectors, Arrays.copyOf(eigenEnergy, maxState), vectors ? eigenVector : null);
+	}
+
+	private void compute(String compZ, double length) {
 
 		double delta = n / length;
 		double a = 0.5 * delta * delta / (particle.getMass() * MASS_UNIT_CONVERTER);
@@ -133,6 +171,24 @@ class StationaryStateSolver {
 			if (i < n - 1)
 				e[i] = -a;
 			d[i] = 2 * a + v[i] * ENERGY_UNIT_CONVERTER;
+		}
+
+		if (partialSpectrum) {
+			if (partialSolver == null)
+				partialSolver = new TridiagonalEigenSolver(n);
+			boolean vectors = "I".equalsIgnoreCase(compZ);
+			if (vectors)
+				eigenVector = new double[maxState][n]; // a new array because the old one may be held by the cache
+			partialSolver.solve(d, e, maxState, eigenEnergy, vectors ? eigenVector : null);
+			return;
+		}
+
+		if (z == null) {
+			z = new double[n * n];
+			work = new double[1 + 4 * n + n * n];
+			iwork = new int[3 + 5 * n];
+		}
+		for (int i = 0; i < n; i++) {
 			int in = i * n;
 			for (int j = 0; j < n; j++)
 				z[in + j] = 0;
@@ -4,21 +4,23 @@ import static quantum.qmshared.Boundary.ABSORBING_BOUNDARY_CONDITION;
 import static quantum.qmshared.Boundary.DEFAULT_BOUNDARY_CONDITION;
 import static quantum.qmshared.Constants.ENERGY_UNIT_CONVERTER;
 
-import java.awt.EventQueue;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import quantum.qmevent.VisualizationEvent;
+import quantum.qmevent.VisualizationDispatcher;
 import quantum.qmevent.VisualizationListener;
 import quantum.qmshared.AbsorbingBoundary;
 import quantum.qmshared.Boundary;
+import quantum.qmshared.EngineMetrics;
+import quantum.qmshared.HealthMonitor;
 import quantum.qmshared.Particle;
+import quantum.qmshared.Simulation;
+import quantum.qmshared.StepScheduler;
 
 /**
  * @author Charles Xie
  * 
  */
-abstract class TimePropagator1D {
+abstract class TimePropagator1D implements Simulation {
 
 	final static double VMAX = 5;
 
@@ -36,11 +38,57 @@ abstract class TimePropagator1D {
 	double sum, totE, potE, kinE, position, momentum;
 	volatile boolean running;
 	volatile boolean notifyReset;
+	private final StepScheduler scheduler = new StepScheduler();
+	private final AtomicBoolean looping = new AtomicBoolean(); // true while a loop steps, through run() or runBatch()
+	private boolean scheduled; // true while run() steps in the batches of the scheduler
+	private boolean frameDue; // true at the last step of a batch
 	double mu = 10, sigma = 10;
 	double delta;
 	int initState = -1;
 
-	private List<VisualizationListener> listeners;
+	private VisualizationDispatcher dispatcher = new VisualizationDispatcher(this);
+	final EngineMetrics metrics = new EngineMetrics(getClass().getSimpleName(), dispatcher);
+	private long dispatchTime; // the total time of requestVisualization, in nanoseconds
+	private final HealthMonitor health = new HealthMonitor(new HealthMonitor.Subject() {
+
+		public String getName() {
+			return TimePropagator1D.this.getClass().getSimpleName();
+		}
+
+		public int getStep() {
+			return iStep;
+		}
+
+		public double getTimeStep() {
+			return timeStep;
+		}
+
+		public void setStep(int step, double timeStep) {
+			iStep = step;
+			TimePropagator1D.this.setTimeStep(timeStep);
+		}
+
+		public Object copyWaveFunction(Object copy) {
+			return TimePropagator1D.this.copyWaveFunction(copy);
+		}
+
+		public void setWaveFunction(Object copy) {
+			TimePropagator1D.this.setWaveFunction(copy);
+		}
+
+		public int countNonFiniteCells() {
+			return TimePropagator1D.this.countNonFiniteCells();
+		}
+
+		public int getCellCount() {
+			return n;
+		}
+
+	});
+	private boolean checking; // true during the output of a step, whose norm and energy are checked
+	private boolean healthChecked; // a check has been made during the current step
+	private String violation; // found by the check of the current step, if any
+	private volatile boolean flagged; // the last check has found a violation
 
 	void setBoundaryCondition(String name) {
 		if ("ABC".equalsIgnoreCase(name)) {
@@ -168,23 +216,117 @@ abstract class TimePropagator1D {
 		if (potential != null)
 			potE = calculateExpectation(potential.pot);
 		totE = kinE + potE;
+		metrics.resetDrift();
+		health.reset();
+		flagged = false;
 		requestVisualization();
 	}
 
 	void stop() {
 		running = false;
+		scheduler.wakeUp();
 	}
 
+	/** @return the scheduler that decides how many steps are taken between two frames while running, and how fast */
+	StepScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/** @return the metrics of this propagator, which are published through JMX while it runs */
+	EngineMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** @return the monitor that watches this propagator for a numerical blow-up */
+	HealthMonitor getHealthMonitor() {
+		return health;
+	}
+
+	/** @return true if the last check of the health monitor has found a violation */
+	boolean isFlagged() {
+		return flagged;
+	}
+
+	/* whether the step just taken should output its properties: at the end of each batch while running, or every OUTPUT_INTERVAL steps otherwise */
+	boolean isOutputDue() {
+		return scheduled ? frameDue : iStep % OUTPUT_INTERVAL == 0;
+	}
+
+	/** step until stopped, in the batches of the scheduler, on the calling thread */
 	void run() {
-		if (!running) {
-			running = true;
-			while (running)
-				nextStep();
-			if (notifyReset) {
-				init();
-				notifyReset = false;
+		if (startRunning()) {
+			while (runBatch())
+				scheduler.await(); // returns early when stopped
+		}
+	}
+
+	/**
+	 * Start running, for a caller that steps this propagator batch by batch through runBatch() instead of calling run(), e.g. a SimulationScheduler.
+	 * 
+	 * @return true if the caller should step, false if this propagator is already being stepped, or is being stopped and now goes on
+	 */
+	public boolean startRunning() {
+		running = true;
+		if (!looping.compareAndSet(false, true))
+			return false;
+		scheduler.start();
+		metrics.start(n);
+		health.start();
+		return true;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/** @return true if still running, false if stopped, in which case the last frame has been delivered */
+	public boolean runBatch() {
+		boolean failed = true;
+		try {
+			if (running) {
+				scheduled = true;
+				try {
+					int n = scheduler.nextBatch(timeStep);
+					int i = 0;
+					metrics.beginBatch();
+					while (i < n && running) {
+						frameDue = ++i == n;
+						metrics.beginStep();
+						nextStep();
+						metrics.endStep();
+						if (healthChecked)
+							checkHealth();
+					}
+					metrics.endBatch(i);
+					scheduler.endBatch(i, timeStep);
+				} finally {
+					scheduled = frameDue = false;
+				}
+			}
+			failed = false;
+		} finally {
+			if (failed) {
+				running = false;
+				looping.set(false);
+				metrics.finish();
 			}
 		}
+		if (running)
+			return true;
+		looping.set(false);
+		if (running && looping.compareAndSet(false, true)) // started again while stopping
+			return true;
+		dispatcher.flush();
+		metrics.finish();
+		if (notifyReset) {
+			init();
+			notifyReset = false;
+		}
+		return false;
+	}
+
+	public long getDelay() {
+		return running ? scheduler.getDelay() : 0;
 	}
 
 	void reset() {
@@ -207,28 +349,62 @@ abstract class TimePropagator1D {
 
 	abstract void outputProperties();
 
+	/** @return the dispatcher that delivers the visualization requests, whose executor and frame rate cap can be set */
+	public VisualizationDispatcher getVisualizationDispatcher() {
+		return dispatcher;
+	}
+
 	public void addVisualizationListener(VisualizationListener listener) {
-		if (listeners == null)
-			listeners = new ArrayList<VisualizationListener>();
-		if (!listeners.contains(listener))
-			listeners.add(listener);
+		dispatcher.addListener(listener);
 	}
 
 	public void removeVisualizationListener(VisualizationListener listener) {
-		if (listeners != null)
-			listeners.remove(listener);
+		dispatcher.removeListener(listener);
+	}
+
+	/* compute the properties and request a visualization, recording the time of the output stage apart from that of the dispatch within it */
+	void output() {
+		long t = System.nanoTime();
+		long d = dispatchTime;
+		checking = true;
+		try {
+			outputProperties();
+		} finally {
+			checking = false;
+		}
+		metrics.add(EngineMetrics.OUTPUT, System.nanoTime() - t - (dispatchTime - d));
+	}
+
+	/* let the health monitor act on the check of the last step by its policy */
+	private void checkHealth() {
+		healthChecked = false;
+		if (!health.act(violation, health.isSound()))
+			running = false;
+		violation = null;
 	}
 
+	/* copy the wave function into the given copy, or a new one if null, and return it */
+	abstract Object copyWaveFunction(Object copy);
+
+	abstract void setWaveFunction(Object copy);
+
+	abstract int countNonFiniteCells();
+
 	void requestVisualization() {
-		if (listeners == null || listeners.isEmpty())
-			return;
-		final VisualizationEvent e = new VisualizationEvent(this);
-		EventQueue.invokeLater(new Runnable() {
-			public void run() {
-				for (VisualizationListener x : listeners)
-					x.visualizationRequested(e);
-			}
-		});
+		long t = System.nanoTime();
+		if (checking && health.getPolicy() != HealthMonitor.OFF) {
+			violation = health.checkNorm(sum, true);
+			if (violation == null)
+				violation = health.checkEnergy(totE);
+			flagged = violation != null;
+			healthChecked = true;
+		}
+		metrics.setNorm(sum);
+		metrics.setEnergy(totE);
+		dispatcher.dispatch();
+		t = System.nanoTime() - t;
+		dispatchTime += t;
+		metrics.add(EngineMetrics.DISPATCH, t);
 	}
 
 }
@@ -0,0 +1,365 @@
+package quantum.qm2d;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import quantum.qm2d.model.Checkpoint2D;
+import quantum.qm2d.model.Frame2D;
+import quantum.qm2d.model.FrameRecorder2D;
+import quantum.qm2d.model.OutputDemand;
+import quantum.qm2d.model.TimePropagator2D;
+import quantum.qmevent.VisualizationEvent;
+import quantum.qmevent.VisualizationListener;
+import quantum.qmshared.HealthMonitor;
+
+/**
+ * Run a 2D model from the command line without a display, and write the observables (norm, energies, expectation values of position and momentum) as CSV or JSON. Nothing of the Swing user interface is created, so it can run on a server with -Djava.awt.headless=true. The wall-clock time and the number of steps per second are reported on the standard error.
+ * 
+ * <pre>
+ * java quantum.qm2d.BatchRunner (model.qwb | --restore checkpoint.qwc) [--steps n | --time t] [--interval n] [--threads n] [--health off|flag|halt|backoff] [--format csv|json] [--out file] [--checkpoint file [--checkpoint-interval n] [--compress]] [--record file [--record-interval n] [--record-bits 8|16] [--record-phase]]
+ * </pre>
+ * 
+ * The model is a .qwb file, or the name of a model bundled with the application (e.g. doubleslit.qwb). A run can also continue from a checkpoint (see Checkpoint2D), write checkpoints as it goes and record the frames of the wave function (see FrameRecorder2D). The --health option sets what the health monitor of the propagator does when the run blows up numerically (see HealthMonitor), which is to halt it by default. The JSON output has one object per line. The exit code is 0 on success, 1 for invalid arguments, 2 if the model cannot be read, 3 if the simulation produces a value that is not finite and 4 if the health monitor halts it.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class BatchRunner {
+
+	public final static int OK = 0;
+	public final static int INVALID_ARGUMENTS = 1;
+	public final static int IO_ERROR = 2;
+	public final static int NOT_FINITE = 3;
+	public final static int UNSTABLE = 4;
+
+	private final static String USAGE = "Usage: java quantum.qm2d.BatchRunner (model.qwb | --restore checkpoint.qwc) [--steps n | --time t] [--interval n] [--threads n] [--health off|flag|halt|backoff] [--format csv|json] [--out file] [--checkpoint file [--checkpoint-interval n] [--compress]] [--record file [--record-interval n] [--record-bits 8|16] [--record-phase]]";
+
+	private Model2D model;
+	private PrintStream out;
+	private boolean json;
+	private int rowCount;
+	private volatile boolean notFinite;
+	private volatile boolean lastStep; // the last step of a run is being run, whose row is written whatever the interval
+	private File checkpointFile;
+	private int checkpointInterval;
+	private boolean compressCheckpoint;
+	private List<Future<File>> checkpoints = new ArrayList<Future<File>>();
+
+	public BatchRunner(Model2D model, PrintStream out, boolean json) {
+		this.model = model;
+		this.out = out;
+		this.json = json;
+	}
+
+	/**
+	 * Write a checkpoint to the file at the end of a run and, if the interval is positive, every interval steps during the run. A checkpoint is written in the background, replacing the previous one.
+	 */
+	public void setCheckpoint(File file, int interval, boolean compress) {
+		checkpointFile = file;
+		checkpointInterval = interval;
+		compressCheckpoint = compress;
+	}
+
+	/**
+	 * Wait for the checkpoints of the run to be written.
+	 * 
+	 * @throws IOException
+	 *             if any of them has failed
+	 */
+	public void waitForCheckpoints() throws IOException {
+		try {
+			for (Future<File> f : checkpoints)
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted");
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} finally {
+			checkpoints.clear();
+		}
+	}
+
+	/**
+	 * Run the given number of steps and write a row of observables every interval steps and after the last step. The run stops early if a value is not finite.
+	 * 
+	 * The steps are numbered from 0, and the row of step n holds the state after step n has been taken, labeled with the time at which step n started. A run of n steps from the start therefore writes rows for steps 0, interval, 2 * interval and so on, and ends with a row for step n - 1, which holds the state after the n steps.
+	 * 
+	 * @return the number of steps that have been run
+	 */
+	public int run(int steps, final int interval) {
+		TimePropagator2D propagator = model.getPropagator();
+		OutputDemand demand = new OutputDemand(OutputDemand.AMPLITUDE | OutputDemand.EXPECTATION | OutputDemand.ENERGY, interval);
+		VisualizationListener listener = new VisualizationListener() {
+			public void visualizationRequested(VisualizationEvent e) {
+				Frame2D f = model.getPropagator().getFrame();
+				if (lastStep || f.getStep() % interval == 0) // not a frame published for another consumer, e.g. a recorder
+					writeRow(f);
+			}
+		};
+		propagator.addOutputDemand(demand);
+		propagator.addVisualizationListener(listener);
+		if (!json)
+			out.println("step,time,norm,kinetic,potential,total,x,y,px,py");
+		int done = 0;
+		int nextCheckpoint = checkpointInterval > 0 ? checkpointInterval : Integer.MAX_VALUE;
+		boolean halted = false;
+		try {
+			int n;
+			while (done < steps - 1 && !notFinite) { // the last step is run apart, as its output is due whatever the interval
+				n = Math.min(Math.min(interval, steps - 1 - done), nextCheckpoint - done);
+				propagator.runSteps(n);
+				halted = propagator.getHealthMonitor().isHalted();
+				if (halted)
+					break;
+				done += n;
+				if (done == nextCheckpoint && checkpointFile != null) {
+					checkpoints.add(model.saveCheckpoint(checkpointFile, compressCheckpoint));
+					nextCheckpoint += checkpointInterval;
+				}
+			}
+			if (done == steps - 1 && !notFinite && !halted) {
+				OutputDemand last = new OutputDemand(demand.getQuantities(), 1);
+				propagator.addOutputDemand(last);
+				lastStep = true;
+				try {
+					propagator.runSteps(1);
+				} finally {
+					lastStep = false;
+					propagator.removeOutputDemand(last);
+				}
+				if (!propagator.getHealthMonitor().isHalted())
+					done++;
+			}
+			if (checkpointFile != null && done + checkpointInterval != nextCheckpoint)
+				checkpoints.add(model.saveCheckpoint(checkpointFile, compressCheckpoint));
+		} finally {
+			propagator.removeVisualizationListener(listener);
+			propagator.removeOutputDemand(demand);
+			out.flush();
+		}
+		return done;
+	}
+
+	public boolean isFinite() {
+		return !notFinite;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/* a quantity that the propagator has not computed (e.g. the energies with absorbing boundaries) is left empty in CSV and null in JSON */
+	private void writeRow(Frame2D frame) {
+		boolean e = frame.contains(OutputDemand.ENERGY);
+		boolean x = frame.contains(OutputDemand.EXPECTATION);
+		String[] v = new String[] { format(frame.getTime(), true), format(frame.getSum(), frame.contains(OutputDemand.AMPLITUDE)), format(frame.getKineticEnergy(), e), format(frame.getPotentialEnergy(), e), format(frame.getTotalEnergy(), e), format(frame.getPosition().x, x), format(frame.getPosition().y, x), format(frame.getMomentum().x, x), format(frame.getMomentum().y, x) };
+		int step = Math.round(frame.getTime() / frame.getTimeStep());
+		if (json) {
+			out.printf("{\"step\": %d, \"time\": %s, \"norm\": %s, \"kinetic\": %s, \"potential\": %s, \"total\": %s, \"x\": %s, \"y\": %s, \"px\": %s, \"py\": %s}\n", step, v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8]);
+		} else {
+			out.printf("%d,%s,%s,%s,%s,%s,%s,%s,%s,%s\n", step, v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8]);
+		}
+		rowCount++;
+	}
+
+	private String format(float value, boolean computed) {
+		if (!computed)
+			return json ? "null" : "";
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			notFinite = true;
+			return json ? "null" : Float.toString(value); // JSON has no literal for NaN or infinity
+		}
+		return Float.toString(value);
+	}
+
+	private static InputStream openModel(String name) throws IOException {
+		File file = new File(name);
+		if (file.isFile())
+			return new FileInputStream(file);
+		InputStream is = BatchRunner.class.getResourceAsStream("resources/" + name);
+		if (is == null)
+			throw new IOException("cannot find model " + name);
+		return is;
+	}
+
+	public static void main(String[] args) {
+		System.exit(execute(args));
+	}
+
+	/** @return the exit code */
+	static int execute(String[] args) {
+
+		String modelName = null;
+		String outName = null;
+		int steps = -1;
+		float time = -1;
+		int interval = 10;
+		int threads = -1;
+		int health = -1;
+		boolean json = false;
+		String checkpointName = null;
+		String restoreName = null;
+		int checkpointInterval = 0;
+		boolean compress = false;
+		String recordName = null;
+		int recordInterval = 10;
+		int recordBits = 16;
+		boolean recordPhase = false;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String a = args[i].intern();
+				if (a == "--steps") {
+					steps = Integer.parseInt(args[++i]);
+				} else if (a == "--time") {
+					time = Float.parseFloat(args[++i]);
+				} else if (a == "--interval") {
+					interval = Integer.parseInt(args[++i]);
+				} else if (a == "--threads") {
+					threads = Integer.parseInt(args[++i]);
+				} else if (a == "--health") {
+					health = HealthMonitor.getPolicy(args[++i]);
+					if (health < 0)
+						throw new IllegalArgumentException("unknown health policy " + args[i]);
+				} else if (a == "--format") {
+					String f = args[++i].intern();
+					if (f == "json") {
+						json = true;
+					} else if (f != "csv") {
+						throw new IllegalArgumentException("unknown format " + f);
+					}
+				} else if (a == "--out") {
+					outName = args[++i];
+				} else if (a == "--checkpoint") {
+					checkpointName = args[++i];
+				} else if (a == "--checkpoint-interval") {
+					checkpointInterval = Integer.parseInt(args[++i]);
+				} else if (a == "--compress") {
+					compress = true;
+				} else if (a == "--record") {
+					recordName = args[++i];
+				} else if (a == "--record-interval") {
+					recordInterval = Integer.parseInt(args[++i]);
+				} else if (a == "--record-bits") {
+					recordBits = Integer.parseInt(args[++i]);
+				} else if (a == "--record-phase") {
+					recordPhase = true;
+				} else if (a == "--restore") {
+					restoreName = args[++i];
+				} else if (a.startsWith("--") || modelName != null) {
+					throw new IllegalArgumentException("unknown argument " + a);
+				} else {
+					modelName = a;
+				}
+			}
+			if ((modelName == null) == (restoreName == null))
+				throw new IllegalArgumentException("either a model or a checkpoint to restore is needed");
+			if (checkpointInterval < 0 || (checkpointInterval > 0 && checkpointName == null))
+				throw new IllegalArgumentException("the checkpoint interval must be positive and needs a checkpoint file");
+			if (recordInterval < 1 || (recordBits != 8 && recordBits != 16))
+				throw new IllegalArgumentException("the record interval must be positive and the bits 8 or 16");
+			if (steps >= 0 && time >= 0)
+				throw new IllegalArgumentException("--steps and --time cannot be used together");
+			if (interval < 1 || (threads != -1 && threads < 1))
+				throw new IllegalArgumentException("the interval and the number of threads must be positive");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			System.err.println("Missing value of " + args[args.length - 1]);
+			System.err.println(USAGE);
+			return INVALID_ARGUMENTS;
+		} catch (IllegalArgumentException e) { // including NumberFormatException
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return INVALID_ARGUMENTS;
+		}
+
+		Model2D model = new Model2D();
+		try {
+			if (restoreName != null) {
+				modelName = restoreName;
+				model.restore(Checkpoint2D.read(new File(restoreName)));
+			} else {
+				model.load(openModel(modelName));
+			}
+		} catch (IOException e) {
+			System.err.println("Error in reading " + modelName + ": " + e.getMessage());
+			return IO_ERROR;
+		}
+		if (threads > 0)
+			model.setThreadCount(threads);
+		if (health >= 0)
+			model.setHealthPolicy(health);
+		if (steps < 0)
+			steps = time < 0 ? 1000 : (int) Math.ceil(time / model.getPropagator().getTimeStep());
+
+		PrintStream out = System.out;
+		if (outName != null) {
+			try {
+				out = new PrintStream(new FileOutputStream(outName), false, "UTF-8");
+			} catch (IOException e) {
+				System.err.println("Error in writing " + outName + ": " + e.getMessage());
+				return IO_ERROR;
+			}
+		}
+
+		BatchRunner runner = new BatchRunner(model, out, json);
+		if (checkpointName != null)
+			runner.setCheckpoint(new File(checkpointName), checkpointInterval, compress);
+		FrameRecorder2D recorder = null;
+		if (recordName != null) {
+			recorder = new FrameRecorder2D(new File(recordName));
+			recorder.setInterval(recordInterval);
+			recorder.setBits(recordBits);
+			recorder.setPhaseRecorded(recordPhase);
+			recorder.setXml(model.getXml());
+			try {
+				recorder.start(model.getPropagator());
+			} catch (IOException e) {
+				System.err.println("Error in writing " + recordName + ": " + e.getMessage());
+				return IO_ERROR;
+			}
+		}
+		long t0 = System.nanoTime();
+		int done = runner.run(steps, interval);
+		double seconds = (System.nanoTime() - t0) * 1.0e-9;
+		if (recorder != null) {
+			try {
+				recorder.stop();
+			} catch (IOException e) {
+				System.err.println("Error in writing " + recordName + ": " + e.getMessage());
+				return IO_ERROR;
+			}
+			System.err.printf("%s: %d frames recorded, %d dropped\n", recordName, recorder.getRecordedFrameCount(), recorder.getDroppedFrameCount());
+		}
+		try {
+			runner.waitForCheckpoints();
+		} catch (IOException e) {
+			System.err.println("Error in writing " + checkpointName + ": " + e.getMessage());
+			return IO_ERROR;
+		}
+		if (out != System.out)
+			out.close();
+		if (out.checkError()) {
+			System.err.println("Error in writing the output");
+			return IO_ERROR;
+		}
+		System.err.printf("%s: %d steps (%d x %d grid, %d thread(s)) in %.3f s, %.1f steps/s\n", modelName, done, model.getNx(), model.getNy(), model.getThreadCount(), seconds, done / seconds);
+		if (model.getPropagator().getHealthMonitor().isHalted())
+			return UNSTABLE; // the diagnostic has been printed by the monitor
+		if (!runner.isFinite()) {
+			System.err.println("The simulation produced a value that is not finite at step " + done);
+			return NOT_FINITE;
+		}
+		return OK;
+
+	}
+
+}
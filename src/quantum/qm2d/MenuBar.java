@@ -43,7 +43,7 @@ class MenuBar extends JMenuBar {
 
 	private final static boolean IS_MAC = System.getProperty("os.name").startsWith("Mac");
 
-	private FileChooser qwbFileChooser, htmFileChooser;
+	private FileChooser qwbFileChooser, htmFileChooser, qwcFileChooser, qwrFileChooser;
 
 	private FileFilter qwbFilter = new FileFilter() {
 
@@ -93,6 +93,54 @@ class MenuBar extends JMenuBar {
 
 	};
 
+	private FileFilter qwcFilter = new FileFilter() {
+
+		public boolean accept(File file) {
+			if (file == null)
+				return false;
+			if (file.isDirectory())
+				return true;
+			String filename = file.getName();
+			int index = filename.lastIndexOf('.');
+			if (index == -1)
+				return false;
+			String postfix = filename.substring(index + 1);
+			if ("qwc".equalsIgnoreCase(postfix))
+				return true;
+			return false;
+		}
+
+		@Override
+		public String getDescription() {
+			return "Quantum Leap Checkpoint";
+		}
+
+	};
+
+	private FileFilter qwrFilter = new FileFilter() {
+
+		public boolean accept(File file) {
+			if (file == null)
+				return false;
+			if (file.isDirectory())
+				return true;
+			String filename = file.getName();
+			int index = filename.lastIndexOf('.');
+			if (index == -1)
+				return false;
+			String postfix = filename.substring(index + 1);
+			if ("qwr".equalsIgnoreCase(postfix))
+				return true;
+			return false;
+		}
+
+		@Override
+		public String getDescription() {
+			return "Quantum Leap Recording";
+		}
+
+	};
+
 	private Action openAction;
 	private Action saveAction;
 	private Action saveAsAction;
@@ -106,6 +154,8 @@ class MenuBar extends JMenuBar {
 
 		qwbFileChooser = new FileChooser();
 		htmFileChooser = new FileChooser();
+		qwcFileChooser = new FileChooser();
+		qwrFileChooser = new FileChooser();
 		recentFileMenuItems = new ArrayList<JComponent>();
 
 		// file menu
@@ -242,6 +292,33 @@ class MenuBar extends JMenuBar {
 		fileMenu.add(mi);
 		fileMenuItemCount++;
 
+		mi = new JMenuItem("Save Checkpoint...");
+		mi.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				saveCheckpoint(box, frame);
+			}
+		});
+		fileMenu.add(mi);
+		fileMenuItemCount++;
+
+		mi = new JMenuItem("Open Checkpoint...");
+		mi.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				openCheckpoint(box, frame);
+			}
+		});
+		fileMenu.add(mi);
+		fileMenuItemCount++;
+
+		mi = new JMenuItem("Open Recording...");
+		mi.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				openRecording(box, frame);
+			}
+		});
+		fileMenu.add(mi);
+		fileMenuItemCount++;
+
 		fileMenu.addSeparator();
 		fileMenuItemCount++;
 
@@ -558,6 +635,73 @@ class MenuBar extends JMenuBar {
 		}
 	}
 
+	/* the checkpoint is written in the background, so a running simulation goes on */
+	private void saveCheckpoint(QuantumBox box, JFrame frame) {
+		qwcFileChooser.setAcceptAllFileFilterUsed(false);
+		qwcFileChooser.addChoosableFileFilter(qwcFilter);
+		qwcFileChooser.setDialogType(JFileChooser.SAVE_DIALOG);
+		qwcFileChooser.setDialogTitle("Save Checkpoint");
+		qwcFileChooser.setApproveButtonMnemonic('S');
+		if (qwcFileChooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
+			File file = qwcFileChooser.getSelectedFile();
+			if (!file.toString().toLowerCase().endsWith(".qwc")) {
+				file = new File(file.getParentFile(), MiscUtil.getFileName(file.toString()) + ".qwc");
+			}
+			boolean b = true;
+			if (file.exists()) {
+				if (JOptionPane.showConfirmDialog(frame, "File " + file.getName() + " exists, overwrite?", "File exists", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+					b = false;
+				}
+			}
+			if (b)
+				box.saveCheckpoint(file, true);
+		}
+		qwcFileChooser.resetChoosableFileFilters();
+	}
+
+	private void openCheckpoint(QuantumBox box, JFrame frame) {
+		box.stop();
+		if (!box.askSaveBeforeLoading())
+			return;
+		qwcFileChooser.setAcceptAllFileFilterUsed(false);
+		qwcFileChooser.addChoosableFileFilter(qwcFilter);
+		qwcFileChooser.setDialogType(JFileChooser.OPEN_DIALOG);
+		qwcFileChooser.setDialogTitle("Open Checkpoint");
+		qwcFileChooser.setApproveButtonMnemonic('O');
+		qwcFileChooser.setAccessory(null);
+		if (qwcFileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
+			File file = qwcFileChooser.getSelectedFile();
+			try {
+				box.loadCheckpoint(file);
+			} catch (IOException e) {
+				JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(box), "Error in reading " + file + ": " + e.getMessage(), "Checkpoint not loaded", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+		qwcFileChooser.resetChoosableFileFilters();
+	}
+
+	/* a recording is played back in the view, with the model it was recorded with if it has been stored */
+	private void openRecording(QuantumBox box, JFrame frame) {
+		box.stop();
+		if (!box.askSaveBeforeLoading())
+			return;
+		qwrFileChooser.setAcceptAllFileFilterUsed(false);
+		qwrFileChooser.addChoosableFileFilter(qwrFilter);
+		qwrFileChooser.setDialogType(JFileChooser.OPEN_DIALOG);
+		qwrFileChooser.setDialogTitle("Open Recording");
+		qwrFileChooser.setApproveButtonMnemonic('O');
+		qwrFileChooser.setAccessory(null);
+		if (qwrFileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
+			File file = qwrFileChooser.getSelectedFile();
+			try {
+				box.openRecording(file);
+			} catch (IOException e) {
+				JOptionPane.showMessageDialog(JOptionPane.getFrameForComponent(box), "Error in reading " + file + ": " + e.getMessage(), "Recording not opened", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+		qwrFileChooser.resetChoosableFileFilters();
+	}
+
 	private void saveAsApplet(QuantumBox box, JFrame frame) {
 		htmFileChooser.setAcceptAllFileFilterUsed(false);
 		htmFileChooser.addChoosableFileFilter(htmFilter);
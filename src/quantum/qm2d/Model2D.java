@@ -0,0 +1,320 @@
+package quantum.qm2d;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import quantum.qm2d.model.Checkpoint2D;
+import quantum.qm2d.model.ImaginaryTimePropagator2D;
+import quantum.qm2d.model.PlaneWaveSource;
+import quantum.qm2d.model.PointSource;
+import quantum.qm2d.model.Potential2D;
+import quantum.qm2d.model.PotentialFactory;
+import quantum.qm2d.model.RealTimePropagator2D;
+import quantum.qm2d.model.Source;
+import quantum.qm2d.model.TimePropagator2D;
+import quantum.qm2d.model.WavePacket2D;
+import quantum.qm2d.model.WavePacketFactory;
+import quantum.qmshared.HealthMonitor;
+import quantum.qmshared.Particle;
+
+/**
+ * The part of a 2D model that does not depend on the user interface: the particle, the propagator, the factories of the potentials and the wave packets, the grid and the area. QuantumBox shows a Model2D in a View2D, while a Model2D can also be loaded from a .qwb file and run on its own without a display (see BatchRunner).
+ * 
+ * The elements are created on the calling thread and added to the propagator by commands (see TimePropagator2D.submit), so they can be added while it is running.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class Model2D {
+
+	Particle particle;
+	TimePropagator2D propagator;
+	int nx = 200;
+	int ny = 200;
+	int threadCount = 1;
+	double timeRate; // simulated time per second when running interactively, zero to run flat out
+	int healthPolicy = HealthMonitor.HALT;
+	float xmin = -10;
+	float xmax = 10;
+	float ymin = -10;
+	float ymax = 10;
+	PotentialFactory potentialFactory;
+	WavePacketFactory wavepacketFactory;
+	private String xml; // the model last loaded
+
+	public Model2D() {
+		particle = new Particle();
+		potentialFactory = new PotentialFactory(nx, ny, xmin, xmax, ymin, ymax, particle);
+		wavepacketFactory = new WavePacketFactory(nx, ny, xmin, xmax, ymin, ymax);
+		setPropagator(false);
+	}
+
+	/**
+	 * Load a model from a .qwb stream without a view. The elements that only concern the view (colors, text boxes, rulers and so on) are ignored.
+	 */
+	public void load(InputStream is) throws IOException {
+		if (is == null)
+			return;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte[] b = new byte[8192];
+			int n;
+			while ((n = is.read(b)) != -1)
+				out.write(b, 0, n);
+		} finally {
+			is.close();
+		}
+		propagator.stopAndWait();
+		propagator.clear();
+		try {
+			SAXParserFactory.newInstance().newSAXParser().parse(new InputSource(new ByteArrayInputStream(out.toByteArray())), new XmlDecoder(this, null));
+		} catch (SAXException e) {
+			throw new IOException(e);
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e);
+		}
+		xml = out.toString("UTF-8");
+	}
+
+	/**
+	 * Load the model of the checkpoint and restore the state of the simulation from it.
+	 */
+	public void restore(Checkpoint2D checkpoint) throws IOException {
+		load(new ByteArrayInputStream(checkpoint.getXml().getBytes("UTF-8")));
+		checkpoint.restore(propagator);
+	}
+
+	/**
+	 * Capture the state of the simulation, which may be running, and write it to the file on a background thread. The model in the checkpoint is the one last loaded: changes made through the API since then are not included, except those to the static potentials.
+	 * 
+	 * @return the pending write
+	 */
+	public Future<File> saveCheckpoint(File file, boolean compress) {
+		if (xml == null)
+			throw new IllegalStateException("No model has been loaded.");
+		return Checkpoint2D.save(propagator, xml, file, compress);
+	}
+
+	/** @return the model last loaded in the .qwb format, or null if none has been loaded */
+	public String getXml() {
+		return xml;
+	}
+
+	public Particle getParticle() {
+		return particle;
+	}
+
+	public TimePropagator2D getPropagator() {
+		return propagator;
+	}
+
+	/**
+	 * Make sure the propagator is of the requested kind.
+	 * 
+	 * @return true if a new propagator has been created, which the caller may need to connect to its listeners
+	 */
+	boolean setPropagator(boolean itp) {
+		if (itp) {
+			if (propagator != null && propagator instanceof ImaginaryTimePropagator2D)
+				return false;
+			propagator = new ImaginaryTimePropagator2D(particle, nx, ny, xmin, xmax, ymin, ymax);
+		} else {
+			if (propagator != null && propagator instanceof RealTimePropagator2D)
+				return false;
+			propagator = new RealTimePropagator2D(particle, nx, ny, xmin, xmax, ymin, ymax);
+		}
+		propagator.setWavePacketFactory(wavepacketFactory);
+		propagator.setPotentialFactory(potentialFactory);
+		if (propagator instanceof RealTimePropagator2D)
+			((RealTimePropagator2D) propagator).setThreadCount(threadCount);
+		propagator.getScheduler().setTimeRate(timeRate);
+		propagator.getHealthMonitor().setPolicy(healthPolicy);
+		return true;
+	}
+
+	public void setNx(int nx) {
+		this.nx = nx;
+	}
+
+	public int getNx() {
+		return nx;
+	}
+
+	public void setNy(int ny) {
+		this.ny = ny;
+	}
+
+	public int getNy() {
+		return ny;
+	}
+
+	/** set the number of threads used by the real-time propagator to solve the ADI sweeps */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+		if (propagator instanceof RealTimePropagator2D)
+			((RealTimePropagator2D) propagator).setThreadCount(threadCount);
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/** pace run() to the wall clock at the given simulated time (in femtoseconds) per second, or run flat out if zero (see StepScheduler) */
+	public void setTimeRate(double timeRate) {
+		this.timeRate = timeRate;
+		propagator.getScheduler().setTimeRate(timeRate);
+	}
+
+	public double getTimeRate() {
+		return timeRate;
+	}
+
+	/** set what the propagator does when it blows up numerically: HealthMonitor.OFF, FLAG, HALT or BACK_OFF */
+	public void setHealthPolicy(int healthPolicy) {
+		propagator.getHealthMonitor().setPolicy(healthPolicy);
+		this.healthPolicy = healthPolicy;
+	}
+
+	public int getHealthPolicy() {
+		return healthPolicy;
+	}
+
+	public float getMinX() {
+		return xmin;
+	}
+
+	public float getMaxX() {
+		return xmax;
+	}
+
+	public float getMinY() {
+		return ymin;
+	}
+
+	public float getMaxY() {
+		return ymax;
+	}
+
+	void setArea(final float xmin, final float xmax, final float ymin, final float ymax) {
+		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
+		final TimePropagator2D tp = propagator;
+		tp.submit(new Runnable() {
+			public void run() {
+				tp.setArea(xmin, xmax, ymin, ymax);
+			}
+		});
+	}
+
+	void setMass(final float mass) {
+		final TimePropagator2D tp = propagator;
+		tp.submit(new Runnable() {
+			public void run() {
+				particle.setMass(mass);
+				tp.calculateMassRelatedThings();
+			}
+		});
+	}
+
+	Potential2D addPotential(final int index, Potential2D p) {
+		final Potential2D p2 = potentialFactory.copy(p);
+		final TimePropagator2D tp = propagator;
+		tp.submit(new Runnable() {
+			public void run() {
+				tp.addPotential(index, p2);
+			}
+		});
+		return p2;
+	}
+
+	private void addPotential(final Potential2D p) {
+		final TimePropagator2D tp = propagator;
+		tp.submit(new Runnable() {
+			public void run() {
+				tp.addPotential(p);
+			}
+		});
+	}
+
+	private void addWavePacket(final WavePacket2D w) {
+		final TimePropagator2D tp = propagator;
+		tp.submit(new Runnable() {
+			public void run() {
+				tp.addWavePacket(w);
+			}
+		});
+	}
+
+	private void addSource(final Source s) {
+		if (propagator instanceof RealTimePropagator2D) {
+			final RealTimePropagator2D rtp = (RealTimePropagator2D) propagator;
+			rtp.submit(new Runnable() {
+				public void run() {
+					rtp.addSource(s);
+				}
+			});
+		}
+	}
+
+	void addPlaneWavePacket(float magnitude, float x, float y, float w, float h, float px, float py) {
+		// make sure the wave packet is on the same page about the parameters
+		wavepacketFactory.set(nx, ny, xmin, xmax, ymin, ymax);
+		addWavePacket(wavepacketFactory.createPlaneWave(magnitude, x, y, w, h, px, py));
+	}
+
+	void addGaussianWavePacket(float magnitude, float sigma, float muX, float muY, float px, float py) {
+		wavepacketFactory.set(nx, ny, xmin, xmax, ymin, ymax);
+		addWavePacket(wavepacketFactory.createGaussian(magnitude, sigma, muX, muY, px, py));
+	}
+
+	void addPlaneWaveSource(float period, float magnitude, float x, float y, float w, float h, float px, float py) {
+		if (propagator instanceof RealTimePropagator2D) {
+			PlaneWaveSource s = new PlaneWaveSource(x, y, w, h, nx, ny, xmin, xmax, ymin, ymax);
+			s.setAmplitude(magnitude);
+			s.setPeriod(period);
+			addSource(s);
+		}
+	}
+
+	void addGaussianSource(float period, float magnitude, float sigma, float x, float y, float px, float py) {
+		if (propagator instanceof RealTimePropagator2D) {
+			PointSource s = new PointSource(x, y, nx, ny, xmin, xmax, ymin, ymax);
+			s.setAmplitude(magnitude);
+			s.setSigma(sigma);
+			s.setPeriod(period);
+			addSource(s);
+		}
+	}
+
+	void addIonicPotential(boolean imaginary, float charge, float offset, float xcenter, float ycenter, Color color, boolean visible, boolean movable) {
+		// make sure the potential is on the same page about the parameters
+		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
+		addPotential(potentialFactory.createIonicPotential(imaginary, particle.getCharge(), charge, offset, xcenter, ycenter, color, visible, movable));
+	}
+
+	void addRectangularPotential(boolean imaginary, float energy, float xcenter, float ycenter, float xlength, float ylength, float cornerRadius, Color color, boolean visible, boolean movable) {
+		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
+		addPotential(potentialFactory.createRectangularPotentialArea(imaginary, energy, xcenter, ycenter, xlength, ylength, cornerRadius, color, visible, movable));
+	}
+
+	void addEllipticalPotential(boolean imaginary, float energy, float xcenter, float ycenter, float rx, float ry, Color color, boolean visible, boolean movable) {
+		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
+		addPotential(potentialFactory.createEllipticalPotentialArea(imaginary, energy, xcenter, ycenter, rx, ry, color, visible, movable));
+	}
+
+	void addAnnularPotential(boolean imaginary, float energy, float xcenter, float ycenter, float outerRx, float outerRy, float innerRx, float innerRy, Color color, boolean visible, boolean movable) {
+		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
+		addPotential(potentialFactory.createAnnularPotentialArea(imaginary, energy, xcenter, ycenter, outerRx, outerRy, innerRx, innerRy, color, visible, movable));
+	}
+
+}
@@ -0,0 +1,562 @@
+package quantum.qm2d;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import quantum.qm2d.model.AreaPotential;
+import quantum.qm2d.model.EllipticalPotential;
+import quantum.qm2d.model.Frame2D;
+import quantum.qm2d.model.OutputDemand;
+import quantum.qm2d.model.Potential2D;
+import quantum.qm2d.model.RectangularPotential;
+import quantum.qm2d.model.TimePropagator2D;
+import quantum.qm2d.model.WavePacket2D;
+
+/**
+ * Run a 2D model for every point of a grid of parameters (e.g. the energy or the width of a barrier, the momentum of a wave packet, the mass of the particle) and collect the observables at the end of each run into a table.
+ * 
+ * The points are run in parallel by a number of engines, each a Model2D loaded from the base model and running on its own thread. The number of engines is limited by the number of threads and by a memory budget, from an estimate of the memory an engine needs per grid cell. An engine is reused from one point to the next: only the parameters that differ from its previous point are applied, and a potential that changes is re-rasterized on its own while the others stay as they are. The points are visited with the parameters that change the potentials varying the slowest, so that consecutive points share their potentials as much as possible, and each engine runs a contiguous range of the visit order, so that it re-rasterizes a potential only where the potential values change within its range.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class ParameterSweep {
+
+	/** a rough estimate of the memory of an engine per grid cell, in bytes: the wave function, the frames, the static potentials, the diagonal tables of the propagator and the temporary wave packets */
+	public final static long BYTES_PER_CELL = 160;
+
+	public final static String[] OBSERVABLES = new String[] { "norm", "kinetic", "potential", "total", "x", "y", "px", "py" };
+
+	private final static String USAGE = "Usage: java quantum.qm2d.ParameterSweep model.qwb [--steps n] [--threads n] [--memory MB] [--out file] name=v1,v2,... | name=from:to:count ...\n" + "Parameters: mass, timestep, potential[i].energy|width|height|x|y, packet[i].px|py";
+
+	private byte[] base;
+	private List<Parameter> parameters;
+	private int steps = 1000;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+	private int engineCount;
+
+	/**
+	 * @param model
+	 *            the stream of the base model in the .qwb format, which is read completely and closed
+	 */
+	public ParameterSweep(InputStream model) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] b = new byte[8192];
+		int n;
+		try {
+			while ((n = model.read(b)) != -1)
+				out.write(b, 0, n);
+		} finally {
+			model.close();
+		}
+		base = out.toByteArray();
+		parameters = new ArrayList<Parameter>();
+	}
+
+	public void addParameter(Parameter p) {
+		parameters.add(p);
+	}
+
+	public List<Parameter> getParameters() {
+		return parameters;
+	}
+
+	/** set the number of time steps of each run */
+	public void setSteps(int steps) {
+		if (steps < 1)
+			throw new IllegalArgumentException("steps must be positive: " + steps);
+		this.steps = steps;
+	}
+
+	public int getSteps() {
+		return steps;
+	}
+
+	/** set the maximum number of runs in parallel */
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("thread count must be positive: " + threadCount);
+		this.threadCount = threadCount;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/** set the memory, in bytes, that the engines together may use. At least one engine runs regardless of the budget. */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/** @return the number of engines used by the last run */
+	public int getEngineCount() {
+		return engineCount;
+	}
+
+	public int getPointCount() {
+		int n = 1;
+		for (Parameter p : parameters)
+			n *= p.values.length;
+		return n;
+	}
+
+	/* the order in which the parameters are varied, from the slowest to the fastest: those that change the potentials first */
+	private int[] getVisitOrder() {
+		int[] order = new int[parameters.size()];
+		int k = 0;
+		for (int i = 0; i < order.length; i++) {
+			if (parameters.get(i).potential)
+				order[k++] = i;
+		}
+		for (int i = 0; i < order.length; i++) {
+			if (!parameters.get(i).potential)
+				order[k++] = i;
+		}
+		return order;
+	}
+
+	/* the values of the parameters (in the order they were added) at the given position in the visit order */
+	private float[] getPoint(int index, int[] order) {
+		float[] v = new float[order.length];
+		Parameter p;
+		for (int i = order.length - 1; i >= 0; i--) {
+			p = parameters.get(order[i]);
+			v[order[i]] = p.values[index % p.values.length];
+			index /= p.values.length;
+		}
+		return v;
+	}
+
+	private Model2D createEngine() throws IOException {
+		Model2D m = new Model2D();
+		m.load(new ByteArrayInputStream(base));
+		m.setThreadCount(1); // the parallelism is across the points
+		return m;
+	}
+
+	/**
+	 * Run all the points of the grid.
+	 * 
+	 * @return the results in the order the points were visited
+	 */
+	public Result[] run() throws IOException {
+
+		final int n = getPointCount();
+		final int[] order = getVisitOrder();
+		final Result[] results = new Result[n];
+		final Model2D first = createEngine();
+		long footprint = BYTES_PER_CELL * first.getNx() * first.getNy();
+		engineCount = (int) Math.max(1, Math.min(Math.min(threadCount, n), memoryBudget / footprint));
+
+		List<Callable<Object>> engines = new ArrayList<Callable<Object>>(engineCount);
+		for (int k = 0; k < engineCount; k++) {
+			final boolean reuseFirst = k == 0;
+			// a contiguous range of the visit order, so that the potentials change between two points of an engine no more often than in the visit order
+			final int start = (int) ((long) k * n / engineCount);
+			final int end = (int) ((long) (k + 1) * n / engineCount);
+			engines.add(new Callable<Object>() {
+				public Object call() throws IOException {
+					Model2D m = reuseFirst ? first : createEngine();
+					float[] applied = null;
+					float[] v;
+					for (int index = start; index < end; index++) {
+						v = getPoint(index, order);
+						for (int i = 0; i < v.length; i++) {
+							if (applied == null || applied[i] != v[i])
+								parameters.get(i).apply(m, v[i]);
+						}
+						applied = v;
+						results[index] = runPoint(m, v);
+					}
+					m.getPropagator().destroy();
+					return null;
+				}
+			});
+		}
+
+		ExecutorService service = Executors.newFixedThreadPool(engineCount);
+		try {
+			for (Future<Object> f : service.invokeAll(engines))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			service.shutdown();
+		}
+		return results;
+
+	}
+
+	/* run a point from the beginning and return the observables of the last step, NaN for those not computed */
+	private Result runPoint(Model2D m, float[] values) {
+		TimePropagator2D propagator = m.getPropagator();
+		propagator.reset();
+		if (steps > 1)
+			propagator.runSteps(steps - 1);
+		float[] o = new float[OBSERVABLES.length];
+		if (propagator.getHealthMonitor().isHalted()) { // blown up, so skip the rest of the point
+			Arrays.fill(o, Float.NaN);
+			return new Result(values, o, false);
+		}
+		OutputDemand demand = new OutputDemand(OutputDemand.AMPLITUDE | OutputDemand.EXPECTATION | OutputDemand.ENERGY, 1);
+		propagator.addOutputDemand(demand);
+		propagator.runSteps(1);
+		propagator.removeOutputDemand(demand);
+		Frame2D f = propagator.getFrame();
+		o[0] = f.contains(OutputDemand.AMPLITUDE) ? f.getSum() : Float.NaN;
+		boolean e = f.contains(OutputDemand.ENERGY);
+		o[1] = e ? f.getKineticEnergy() : Float.NaN;
+		o[2] = e ? f.getPotentialEnergy() : Float.NaN;
+		o[3] = e ? f.getTotalEnergy() : Float.NaN;
+		boolean x = f.contains(OutputDemand.EXPECTATION);
+		o[4] = x ? f.getPosition().x : Float.NaN;
+		o[5] = x ? f.getPosition().y : Float.NaN;
+		o[6] = x ? f.getMomentum().x : Float.NaN;
+		o[7] = x ? f.getMomentum().y : Float.NaN;
+		boolean finite = !Float.isNaN(f.getSum()) && !Float.isInfinite(f.getSum());
+		for (float a : o) {
+			if (Float.isInfinite(a))
+				finite = false;
+		}
+		return new Result(values, o, finite);
+	}
+
+	/** write the results as CSV, one row per point. The observables that have not been computed (e.g. the energies with absorbing boundaries) are left empty. */
+	public void write(Result[] results, PrintStream out) {
+		StringBuilder sb = new StringBuilder();
+		for (Parameter p : parameters)
+			sb.append(p.name).append(',');
+		for (int i = 0; i < OBSERVABLES.length; i++) {
+			sb.append(OBSERVABLES[i]);
+			if (i < OBSERVABLES.length - 1)
+				sb.append(',');
+		}
+		out.println(sb);
+		for (Result r : results) {
+			sb.setLength(0);
+			for (float v : r.values)
+				sb.append(v).append(',');
+			for (int i = 0; i < r.observables.length; i++) {
+				if (!Float.isNaN(r.observables[i]))
+					sb.append(r.observables[i]);
+				if (i < r.observables.length - 1)
+					sb.append(',');
+			}
+			out.println(sb);
+		}
+		out.flush();
+	}
+
+	/**
+	 * The values of the parameters of a point and the observables (see OBSERVABLES) at the end of its run.
+	 */
+	public static class Result {
+
+		final float[] values;
+		final float[] observables;
+		final boolean finite;
+
+		Result(float[] values, float[] observables, boolean finite) {
+			this.values = values;
+			this.observables = observables;
+			this.finite = finite;
+		}
+
+		/** @return the values of the parameters, in the order they were added to the sweep */
+		public float[] getValues() {
+			return values;
+		}
+
+		/** @return the observables in the order of OBSERVABLES, NaN for those that have not been computed */
+		public float[] getObservables() {
+			return observables;
+		}
+
+		/** @return false if the run has produced a value that is not finite */
+		public boolean isFinite() {
+			return finite;
+		}
+
+	}
+
+	/**
+	 * A parameter of a model and the values it takes in a sweep. The factory methods create the supported parameters.
+	 */
+	public static abstract class Parameter {
+
+		final String name;
+		final float[] values;
+		final boolean potential; // true if changing this parameter changes the static potentials
+
+		Parameter(String name, float[] values, boolean potential) {
+			if (values.length == 0)
+				throw new IllegalArgumentException("no value for " + name);
+			this.name = name;
+			this.values = values;
+			this.potential = potential;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public float[] getValues() {
+			return values;
+		}
+
+		abstract void apply(Model2D m, float value);
+
+		public static Parameter mass(float... values) {
+			return new Parameter("mass", values, false) {
+				void apply(Model2D m, float value) {
+					m.setMass(value);
+				}
+			};
+		}
+
+		public static Parameter timeStep(float... values) {
+			return new Parameter("timestep", values, false) {
+				void apply(Model2D m, float value) {
+					m.getPropagator().setTimeStep(value);
+				}
+			};
+		}
+
+		/** the momentum in the x (direction='x') or y direction of the wave packet at the given index */
+		public static Parameter packetMomentum(final int index, final char direction, float... values) {
+			return new Parameter("packet[" + index + "].p" + direction, values, false) {
+				void apply(Model2D m, float value) {
+					WavePacket2D w = m.getPropagator().getWavePacket(index);
+					if (w == null)
+						throw new IllegalArgumentException("no wave packet at " + index);
+					if (direction == 'x') {
+						w.setPx(value);
+					} else {
+						w.setPy(value);
+					}
+				}
+			};
+		}
+
+		/**
+		 * A property of the potential at the given index: energy (of an area potential), width or height (of a rectangular or elliptical potential), x or y (of the center).
+		 */
+		public static Parameter potential(final int index, String property, float... values) {
+			final String s = property.intern();
+			if (s != "energy" && s != "width" && s != "height" && s != "x" && s != "y")
+				throw new IllegalArgumentException("unknown property of a potential: " + property);
+			return new Parameter("potential[" + index + "]." + s, values, true) {
+				void apply(Model2D m, float value) {
+					TimePropagator2D propagator = m.getPropagator();
+					if (index < 0 || index >= propagator.getPotentialCount())
+						throw new IllegalArgumentException("no potential at " + index);
+					Potential2D p = propagator.getPotential(index);
+					propagator.removePotentialFunction(p);
+					try {
+						if (s == "x") {
+							p.setXcenter(value);
+						} else if (s == "y") {
+							p.setYcenter(value);
+						} else if (s == "energy" && p instanceof AreaPotential) {
+							((AreaPotential) p).setEnergy(value);
+						} else if (p instanceof RectangularPotential) {
+							if (s == "width") {
+								((RectangularPotential) p).setLx(value);
+							} else {
+								((RectangularPotential) p).setLy(value);
+							}
+						} else if (p instanceof EllipticalPotential && s != "energy") {
+							if (s == "width") {
+								((EllipticalPotential) p).setRx(0.5f * value);
+							} else {
+								((EllipticalPotential) p).setRy(0.5f * value);
+							}
+						} else {
+							throw new IllegalArgumentException(name + " is not supported by " + p.getClass().getSimpleName());
+						}
+					} finally {
+						propagator.addPotentialFunction(p);
+					}
+				}
+			};
+		}
+
+		/** parse a parameter of the form name=v1,v2,... or name=from:to:count (count values evenly spaced) */
+		public static Parameter parse(String s) {
+			int i = s.indexOf('=');
+			if (i < 1)
+				throw new IllegalArgumentException("not a parameter: " + s);
+			String name = s.substring(0, i).trim();
+			String list = s.substring(i + 1).trim();
+			float[] values;
+			String[] t = list.split(":");
+			if (t.length == 3) {
+				float from = Float.parseFloat(t[0]);
+				float to = Float.parseFloat(t[1]);
+				int count = Integer.parseInt(t[2]);
+				if (count < 1)
+					throw new IllegalArgumentException("count must be positive: " + s);
+				values = new float[count];
+				for (int k = 0; k < count; k++)
+					values[k] = count == 1 ? from : from + (to - from) * k / (count - 1);
+			} else {
+				t = list.split(",");
+				values = new float[t.length];
+				for (int k = 0; k < t.length; k++)
+					values[k] = Float.parseFloat(t[k].trim());
+			}
+			if (name.equals("mass"))
+				return mass(values);
+			if (name.equals("timestep"))
+				return timeStep(values);
+			int open = name.indexOf('[');
+			int close = name.indexOf("].");
+			if (open > 0 && close > open) {
+				int index = Integer.parseInt(name.substring(open + 1, close));
+				String kind = name.substring(0, open);
+				String property = name.substring(close + 2);
+				if (kind.equals("potential"))
+					return potential(index, property, values);
+				if (kind.equals("packet") && (property.equals("px") || property.equals("py")))
+					return packetMomentum(index, property.charAt(1), values);
+			}
+			throw new IllegalArgumentException("unknown parameter: " + name);
+		}
+
+	}
+
+	public static void main(String[] args) {
+		System.exit(execute(args));
+	}
+
+	/** @return the exit code, as that of BatchRunner */
+	static int execute(String[] args) {
+
+		String modelName = null;
+		String outName = null;
+		int steps = 1000;
+		int threads = -1;
+		long memory = -1;
+		List<Parameter> list = new ArrayList<Parameter>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String a = args[i].intern();
+				if (a == "--steps") {
+					steps = Integer.parseInt(args[++i]);
+				} else if (a == "--threads") {
+					threads = Integer.parseInt(args[++i]);
+				} else if (a == "--memory") {
+					memory = Long.parseLong(args[++i]) << 20;
+				} else if (a == "--out") {
+					outName = args[++i];
+				} else if (a.startsWith("--")) {
+					throw new IllegalArgumentException("unknown argument " + a);
+				} else if (a.indexOf('=') != -1) {
+					list.add(Parameter.parse(a));
+				} else if (modelName == null) {
+					modelName = a;
+				} else {
+					throw new IllegalArgumentException("unknown argument " + a);
+				}
+			}
+			if (modelName == null)
+				throw new IllegalArgumentException("no model");
+			if (steps < 1 || (threads != -1 && threads < 1))
+				throw new IllegalArgumentException("the number of steps and threads must be positive");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			System.err.println("Missing value of " + args[args.length - 1]);
+			System.err.println(USAGE);
+			return BatchRunner.INVALID_ARGUMENTS;
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return BatchRunner.INVALID_ARGUMENTS;
+		}
+
+		ParameterSweep sweep;
+		try {
+			File file = new File(modelName);
+			InputStream is = file.isFile() ? new FileInputStream(file) : ParameterSweep.class.getResourceAsStream("resources/" + modelName);
+			if (is == null)
+				throw new IOException("cannot find model " + modelName);
+			sweep = new ParameterSweep(is);
+		} catch (IOException e) {
+			System.err.println("Error in reading " + modelName + ": " + e.getMessage());
+			return BatchRunner.IO_ERROR;
+		}
+		for (Parameter p : list)
+			sweep.addParameter(p);
+		sweep.setSteps(steps);
+		if (threads > 0)
+			sweep.setThreadCount(threads);
+		if (memory >= 0)
+			sweep.setMemoryBudget(memory);
+
+		long t0 = System.nanoTime();
+		Result[] results;
+		try {
+			results = sweep.run();
+		} catch (IOException e) {
+			System.err.println("Error in running " + modelName + ": " + e.getMessage());
+			return BatchRunner.IO_ERROR;
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return BatchRunner.INVALID_ARGUMENTS;
+		}
+		double seconds = (System.nanoTime() - t0) * 1.0e-9;
+
+		PrintStream out = System.out;
+		if (outName != null) {
+			try {
+				out = new PrintStream(new FileOutputStream(outName), false, "UTF-8");
+			} catch (IOException e) {
+				System.err.println("Error in writing " + outName + ": " + e.getMessage());
+				return BatchRunner.IO_ERROR;
+			}
+		}
+		sweep.write(results, out);
+		if (out != System.out)
+			out.close();
+		if (out.checkError()) {
+			System.err.println("Error in writing the output");
+			return BatchRunner.IO_ERROR;
+		}
+		System.err.printf("%s: %d points x %d steps on %d engine(s) in %.3f s, %.1f steps/s\n", modelName, results.length, steps, sweep.getEngineCount(), seconds, (double) results.length * steps / seconds);
+		for (Result r : results) {
+			if (!r.finite) {
+				System.err.println("The simulation produced a value that is not finite");
+				return BatchRunner.NOT_FINITE;
+			}
+		}
+		return BatchRunner.OK;
+
+	}
+
+}
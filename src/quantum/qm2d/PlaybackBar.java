@@ -0,0 +1,138 @@
+package quantum.qm2d;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import quantum.qm2d.model.Frame2D;
+import quantum.qm2d.model.FrameListener;
+import quantum.qm2d.model.FramePlayer2D;
+
+/**
+ * The controls to play back a recording in the view: a slider to scrub through the frames, a button to play and pause, and a button to leave the playback. A frame that has been decoded is shown at once; otherwise it is shown when the player delivers it, unless another frame has been asked for in the meantime. Playing advances by one frame per tick only after the current frame has been shown, so a slow disk slows the playback down rather than making it skip.
+ * 
+ * @author Charles Xie
+ * 
+ */
+class PlaybackBar extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+	private final static int FRAME_RATE = 60;
+
+	private QuantumBox box;
+	private FramePlayer2D player;
+	private JSlider slider;
+	private JLabel timeLabel;
+	private JButton playButton;
+	private Timer timer;
+	private int shown = -1; // the frame on the view
+
+	PlaybackBar(QuantumBox qb, FramePlayer2D fp) {
+
+		super(new BorderLayout(5, 0));
+
+		box = qb;
+		player = fp;
+
+		player.setFrameListener(new FrameListener() {
+			public void frameCompleted(final Frame2D frame) {
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						int i = slider.getValue();
+						if (frame.getStep() == player.getRecording().getStep(i))
+							show(i, frame);
+					}
+				});
+			}
+		});
+
+		playButton = new JButton("Play");
+		playButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (timer.isRunning()) {
+					pause();
+				} else {
+					if (slider.getValue() == slider.getMaximum())
+						slider.setValue(0);
+					timer.start();
+					playButton.setText("Pause");
+				}
+			}
+		});
+		add(playButton, BorderLayout.WEST);
+
+		slider = new JSlider(0, Math.max(0, player.getFrameCount() - 1), 0);
+		slider.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				seek(slider.getValue());
+			}
+		});
+		add(slider, BorderLayout.CENTER);
+
+		JPanel p = new JPanel(new BorderLayout(5, 0));
+		timeLabel = new JLabel();
+		timeLabel.setPreferredSize(new Dimension(160, 20));
+		p.add(timeLabel, BorderLayout.CENTER);
+		JButton button = new JButton("Close");
+		button.setToolTipText("Stop playing back the recording");
+		button.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				box.closeRecording();
+			}
+		});
+		p.add(button, BorderLayout.EAST);
+		add(p, BorderLayout.EAST);
+
+		timer = new Timer(1000 / FRAME_RATE, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				int i = slider.getValue();
+				if (shown != i) // wait for the frame to be decoded
+					return;
+				if (i < slider.getMaximum()) {
+					slider.setValue(i + 1);
+				} else {
+					pause();
+				}
+			}
+		});
+
+		if (player.getFrameCount() > 0)
+			seek(0);
+
+	}
+
+	private void pause() {
+		timer.stop();
+		playButton.setText("Play");
+	}
+
+	private void seek(int i) {
+		if (i >= player.getFrameCount())
+			return;
+		timeLabel.setText(String.format("t = %.1f fs (step %d)", player.getRecording().getTime(i), player.getRecording().getStep(i)));
+		Frame2D frame = player.seek(i);
+		if (frame != null)
+			show(i, frame);
+	}
+
+	private void show(int i, Frame2D frame) {
+		shown = i;
+		box.showFrame(frame);
+	}
+
+	void destroy() {
+		timer.stop();
+		player.setFrameListener(null);
+	}
+
+}
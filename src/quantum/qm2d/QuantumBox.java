@@ -6,6 +6,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -15,9 +16,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Future;
 import java.util.prefs.Preferences;
 
 import javax.swing.AbstractAction;
@@ -35,22 +34,23 @@ import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import quantum.qm2d.model.AnnularPotential;
+import quantum.qm2d.model.Checkpoint2D;
 import quantum.qm2d.model.EllipticalPotential;
-import quantum.qm2d.model.ImaginaryTimePropagator2D;
-import quantum.qm2d.model.PlaneWaveSource;
-import quantum.qm2d.model.PointSource;
+import quantum.qm2d.model.Frame2D;
+import quantum.qm2d.model.FramePlayer2D;
+import quantum.qm2d.model.FrameRecording2D;
+import quantum.qm2d.model.OutputDemand;
 import quantum.qm2d.model.Potential2D;
-import quantum.qm2d.model.PotentialFactory;
-import quantum.qm2d.model.RealTimePropagator2D;
 import quantum.qm2d.model.RectangularPotential;
 import quantum.qm2d.model.TimePropagator2D;
-import quantum.qm2d.model.WavePacketFactory;
 import quantum.qm2d.view.View2D;
 import quantum.qmevent.IOEvent;
 import quantum.qmevent.IOListener;
 import quantum.qmevent.VisualizationEvent;
 import quantum.qmevent.VisualizationListener;
-import quantum.qmshared.Particle;
+import quantum.qmshared.SimulationScheduler;
+import quantum.qmutil.MiscUtil;
+import quantum.qmutil.VisibilityTracker;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -71,28 +71,25 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 
 	public final static String BRAND_NAME = "Quantum Modeler";
 
+	private final static float MAXIMUM_FRAME_RATE = 60; // no need to paint faster than the screen refreshes
+
 	static byte logLevel = 0;
 
-	Particle particle;
-	TimePropagator2D propagator;
-	private int nx = 200;
-	private int ny = 200;
-	float xmin = -10;
-	float xmax = 10;
-	float ymin = -10;
-	float ymax = 10;
+	final Model2D model;
 	boolean editable;
 	private boolean requestRebuildingWaveFunction;
-	private final Lock lock = new ReentrantLock();
 
 	private ExecutorService threadService;
+	private VisibilityTracker visibility;
 	View2D view2D;
+	private final OutputDemand viewDemand = new OutputDemand(OutputDemand.AMPLITUDE | OutputDemand.PHASE, OutputDemand.EVERY_FRAME);
 	private Scripter2D scripter;
-	PotentialFactory potentialFactory;
-	WavePacketFactory wavepacketFactory;
 
 	Runnable clickRun, clickStop, clickReset, clickReload;
 	private JButton buttonRun, buttonStop, buttonReset, buttonReload;
+	private JPanel southPanel;
+	private FramePlayer2D player;
+	private PlaybackBar playbackBar;
 	private List<IOListener> ioListeners;
 	private static Preferences preferences;
 
@@ -114,11 +111,9 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 			e.printStackTrace();
 		}
 
-		particle = new Particle();
-		potentialFactory = new PotentialFactory(nx, ny, xmin, xmax, ymin, ymax, particle);
-		wavepacketFactory = new WavePacketFactory(nx, ny, xmin, xmax, ymin, ymax);
+		model = new Model2D();
 		encoder = new XmlEncoder(this);
-		saxHandler = new XmlDecoder(this);
+		saxHandler = new XmlDecoder(model, this);
 		try {
 			saxParser = SAXParserFactory.newInstance().newSAXParser();
 		} catch (SAXException e) {
@@ -126,12 +121,12 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		}
-		setPropagator(false);
+		connectPropagator();
 
 		scripter = new Scripter2D(this);
 		view2D = new View2D(this);
 		view2D.setBackground(Color.black);
-		view2D.setPotential(propagator.getPotentials());
+		view2D.setPotential(model.propagator.getPotentials());
 		add(view2D, BorderLayout.CENTER);
 
 		createActions();
@@ -170,39 +165,76 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	}
 
 	public TimePropagator2D getPropagator() {
-		return propagator;
+		return model.propagator;
+	}
+
+	/** @return the output that the view needs from the propagator, which changes with what the view draws */
+	public OutputDemand getOutputDemand() {
+		return viewDemand;
+	}
+
+	/** @return the part of the model that does not depend on the user interface */
+	public Model2D getModel() {
+		return model;
 	}
 
 	public void setNx(int nx) {
-		this.nx = nx;
+		model.setNx(nx);
 	}
 
 	public int getNx() {
-		return nx;
+		return model.getNx();
 	}
 
 	public void setNy(int ny) {
-		this.ny = ny;
+		model.setNy(ny);
 	}
 
 	public int getNy() {
-		return ny;
+		return model.getNy();
+	}
+
+	/** set the number of threads used by the real-time propagator to solve the ADI sweeps */
+	public void setThreadCount(int threadCount) {
+		model.setThreadCount(threadCount);
+	}
+
+	public int getThreadCount() {
+		return model.getThreadCount();
+	}
+
+	/** pace the simulation at the given simulated time (in femtoseconds) per second of wall-clock time, or run flat out if zero */
+	public void setTimeRate(double timeRate) {
+		model.setTimeRate(timeRate);
+	}
+
+	public double getTimeRate() {
+		return model.getTimeRate();
+	}
+
+	/** set what the simulation does when it blows up numerically: HealthMonitor.OFF, FLAG, HALT or BACK_OFF */
+	public void setHealthPolicy(int healthPolicy) {
+		model.setHealthPolicy(healthPolicy);
+	}
+
+	public int getHealthPolicy() {
+		return model.getHealthPolicy();
 	}
 
 	public float getMinX() {
-		return xmin;
+		return model.xmin;
 	}
 
 	public float getMaxX() {
-		return xmax;
+		return model.xmax;
 	}
 
 	public float getMinY() {
-		return ymin;
+		return model.ymin;
 	}
 
 	public float getMaxY() {
-		return ymax;
+		return model.ymax;
 	}
 
 	public static byte getLogLevel() {
@@ -218,70 +250,80 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	}
 
 	void clear() {
-		propagator.clear();
+		final TimePropagator2D tp = model.propagator;
+		tp.submit(new Runnable() {
+			public void run() {
+				tp.clear();
+			}
+		});
 		view2D.clear();
 	}
 
 	void setMass(float mass) {
-		particle.setMass(mass);
-		propagator.calculateMassRelatedThings();
+		model.setMass(mass);
 	}
 
 	public void translatePotentialBy(Potential2D p, float dx, float dy) {
 		translatePotentialTo(p, p.getXcenter() + dx, p.getYcenter() + dy);
 	}
 
-	public void translatePotentialTo(Potential2D p, float x, float y) {
-		Potential2D oldP = potentialFactory.copy(p);
-		p.setXcenter(x);
-		p.setYcenter(y);
-		propagator.removePotentialFunction(oldP.isImaginary(), oldP.getPotential());
-		Potential2D newP = potentialFactory.copy(p);
-		propagator.addPotentialFunction(newP.isImaginary(), newP.getPotential());
-	}
-
-	public void resizePotentialTo(Potential2D p, float x, float y, float w, float h) {
-		Potential2D oldP = potentialFactory.copy(p);
-		p.setXcenter(x + 0.5f * w);
-		p.setYcenter(y + 0.5f * h);
-		if (p instanceof RectangularPotential) {
-			RectangularPotential rp = (RectangularPotential) p;
-			rp.setLx(w);
-			rp.setLy(h);
-		} else if (p instanceof EllipticalPotential) {
-			EllipticalPotential ep = (EllipticalPotential) p;
-			ep.setRx(w * 0.5f);
-			ep.setRy(h * 0.5f);
-		} else if (p instanceof AnnularPotential) {
-			AnnularPotential ap = (AnnularPotential) p;
-			ap.setOuterRx(w * 0.5f);
-			ap.setOuterRy(h * 0.5f);
-		}
-		propagator.removePotentialFunction(oldP.isImaginary(), oldP.getPotential());
-		Potential2D newP = potentialFactory.copy(p);
-		propagator.addPotentialFunction(newP.isImaginary(), newP.getPotential());
+	public void translatePotentialTo(final Potential2D p, final float x, final float y) {
+		model.propagator.changePotential(p, new Runnable() {
+			public void run() {
+				p.setXcenter(x);
+				p.setYcenter(y);
+			}
+		});
+	}
+
+	public void resizePotentialTo(final Potential2D p, final float x, final float y, final float w, final float h) {
+		model.propagator.changePotential(p, new Runnable() {
+			public void run() {
+				p.setXcenter(x + 0.5f * w);
+				p.setYcenter(y + 0.5f * h);
+				if (p instanceof RectangularPotential) {
+					RectangularPotential rp = (RectangularPotential) p;
+					rp.setLx(w);
+					rp.setLy(h);
+				} else if (p instanceof EllipticalPotential) {
+					EllipticalPotential ep = (EllipticalPotential) p;
+					ep.setRx(w * 0.5f);
+					ep.setRy(h * 0.5f);
+				} else if (p instanceof AnnularPotential) {
+					AnnularPotential ap = (AnnularPotential) p;
+					ap.setOuterRx(w * 0.5f);
+					ap.setOuterRy(h * 0.5f);
+				}
+			}
+		});
 	}
 
-	public void reshapeRectangularPotential(RectangularPotential p, float r) {
-		Potential2D oldP = potentialFactory.copy(p);
-		p.setCornerRadius(r);
-		propagator.removePotentialFunction(oldP.isImaginary(), oldP.getPotential());
-		Potential2D newP = potentialFactory.copy(p);
-		propagator.addPotentialFunction(newP.isImaginary(), newP.getPotential());
+	public void reshapeRectangularPotential(final RectangularPotential p, final float r) {
+		model.propagator.changePotential(p, new Runnable() {
+			public void run() {
+				p.setCornerRadius(r);
+			}
+		});
 	}
 
 	public Potential2D addPotential(int index, Potential2D p) {
-		Potential2D p2 = potentialFactory.copy(p);
-		propagator.addPotential(index, p2);
-		return p2;
+		return model.addPotential(index, p);
 	}
 
-	public int removePotential(Potential2D p) {
-		return propagator.removePotential(p);
+	/** remove the potential and wait until it is gone, after which it can be changed freely */
+	public int removePotential(final Potential2D p) {
+		final TimePropagator2D tp = model.propagator;
+		final int[] index = new int[1];
+		tp.invokeAndWait(new Runnable() {
+			public void run() {
+				index[0] = tp.removePotential(p);
+			}
+		});
+		return index[0];
 	}
 
 	public int indexOfPotential(Potential2D p) {
-		return propagator.indexOfPotential(p);
+		return model.propagator.indexOfPotential(p);
 	}
 
 	public void requestRebuildingWaveFunction(boolean b) {
@@ -289,90 +331,61 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	}
 
 	void addPlaneWavePacket(float magnitude, float x, float y, float w, float h, float px, float py) {
-		// make sure the wave packet is on the same page about the parameters
-		wavepacketFactory.set(nx, ny, xmin, xmax, ymin, ymax);
-		propagator.addWavePacket(wavepacketFactory.createPlaneWave(magnitude, x, y, w, h, px, py));
+		model.addPlaneWavePacket(magnitude, x, y, w, h, px, py);
 	}
 
 	void addGaussianWavePacket(float magnitude, float sigma, float muX, float muY, float px, float py) {
-		wavepacketFactory.set(nx, ny, xmin, xmax, ymin, ymax);
-		propagator.addWavePacket(wavepacketFactory.createGaussian(magnitude, sigma, muX, muY, px, py));
+		model.addGaussianWavePacket(magnitude, sigma, muX, muY, px, py);
 	}
 
 	void addPlaneWaveSource(float period, float magnitude, float x, float y, float w, float h, float px, float py) {
-		if (propagator instanceof RealTimePropagator2D) {
-			RealTimePropagator2D rtp = (RealTimePropagator2D) propagator;
-			PlaneWaveSource s = new PlaneWaveSource(x, y, w, h, nx, ny, xmin, xmax, ymin, ymax);
-			s.setAmplitude(magnitude);
-			s.setPeriod(period);
-			rtp.addSource(s);
-		}
+		model.addPlaneWaveSource(period, magnitude, x, y, w, h, px, py);
 	}
 
 	void addGaussianSource(float period, float magnitude, float sigma, float x, float y, float px, float py) {
-		if (propagator instanceof RealTimePropagator2D) {
-			RealTimePropagator2D rtp = (RealTimePropagator2D) propagator;
-			PointSource s = new PointSource(x, y, nx, ny, xmin, xmax, ymin, ymax);
-			s.setAmplitude(magnitude);
-			s.setSigma(sigma);
-			s.setPeriod(period);
-			rtp.addSource(s);
-		}
+		model.addGaussianSource(period, magnitude, sigma, x, y, px, py);
 	}
 
 	void addIonicPotential(boolean imaginary, float charge, float offset, float xcenter, float ycenter, Color color, boolean visible, boolean movable) {
-		// make sure the potential is on the same page about the parameters
-		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
-		propagator.addPotential(potentialFactory.createIonicPotential(imaginary, particle.getCharge(), charge, offset, xcenter, ycenter, color, visible, movable));
+		model.addIonicPotential(imaginary, charge, offset, xcenter, ycenter, color, visible, movable);
 		view2D.repaint();
 	}
 
 	void addRectangularPotential(boolean imaginary, float energy, float xcenter, float ycenter, float xlength, float ylength, float cornerRadius, Color color, boolean visible, boolean movable) {
-		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
-		propagator.addPotential(potentialFactory.createRectangularPotentialArea(imaginary, energy, xcenter, ycenter, xlength, ylength, cornerRadius, color, visible, movable));
+		model.addRectangularPotential(imaginary, energy, xcenter, ycenter, xlength, ylength, cornerRadius, color, visible, movable);
 		view2D.repaint();
 	}
 
 	void addEllipticalPotential(boolean imaginary, float energy, float xcenter, float ycenter, float rx, float ry, Color color, boolean visible, boolean movable) {
-		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
-		propagator.addPotential(potentialFactory.createEllipticalPotentialArea(imaginary, energy, xcenter, ycenter, rx, ry, color, visible, movable));
+		model.addEllipticalPotential(imaginary, energy, xcenter, ycenter, rx, ry, color, visible, movable);
 		view2D.repaint();
 	}
 
 	void addAnnularPotential(boolean imaginary, float energy, float xcenter, float ycenter, float outerRx, float outerRy, float innerRx, float innerRy, Color color, boolean visible, boolean movable) {
-		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
-		propagator.addPotential(potentialFactory.createAnnularPotentialArea(imaginary, energy, xcenter, ycenter, outerRx, outerRy, innerRx, innerRy, color, visible, movable));
+		model.addAnnularPotential(imaginary, energy, xcenter, ycenter, outerRx, outerRy, innerRx, innerRy, color, visible, movable);
 		view2D.repaint();
 	}
 
 	void setArea(float xmin, float xmax, float ymin, float ymax) {
-		potentialFactory.set(nx, ny, xmin, xmax, ymin, ymax);
-		propagator.setArea(xmin, xmax, ymin, ymax);
+		model.setArea(xmin, xmax, ymin, ymax);
 		view2D.setPreferredSize(new Dimension((int) (500 * (xmax - xmin) / (ymax - ymin)), 500));
 		view2D.setArea(xmin, xmax, ymin, ymax);
 	}
 
 	void setPropagator(boolean itp) {
-		boolean created = false;
-		if (itp) {
-			if (propagator == null || propagator instanceof RealTimePropagator2D) {
-				propagator = new ImaginaryTimePropagator2D(particle, nx, ny, xmin, xmax, ymin, ymax);
-				created = true;
-			}
-		} else {
-			if (propagator == null || propagator instanceof ImaginaryTimePropagator2D) {
-				propagator = new RealTimePropagator2D(particle, nx, ny, xmin, xmax, ymin, ymax);
-				created = true;
-			}
-		}
-		if (created) {
-			propagator.setLock(lock);
-			propagator.addVisualizationListener(this);
-			propagator.setWavePacketFactory(wavepacketFactory);
-			propagator.setPotentialFactory(potentialFactory);
-			if (view2D != null)
-				view2D.setPotential(propagator.getPotentials());
-		}
+		if (model.setPropagator(itp))
+			connectPropagator();
+	}
+
+	/* connect a new propagator to this box, which shows its output */
+	private void connectPropagator() {
+		TimePropagator2D propagator = model.propagator;
+		propagator.getVisualizationDispatcher().setExecutor(MiscUtil.EVENT_QUEUE);
+		propagator.getVisualizationDispatcher().setMaximumFrameRate(MAXIMUM_FRAME_RATE);
+		propagator.addVisualizationListener(this);
+		propagator.addOutputDemand(viewDemand);
+		if (view2D != null)
+			view2D.setPotential(propagator.getPotentials());
 	}
 
 	@Override
@@ -399,7 +412,7 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	}
 
 	public void stop() {
-		propagator.stop();
+		model.propagator.stop();
 		if (buttonRun != null) {
 			EventQueue.invokeLater(new Runnable() {
 				public void run() {
@@ -411,18 +424,9 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	}
 
 	public void reset() {
-		// should call this first, or reset() may have some residual effect
 		stop();
-		try {
-			Thread.sleep(200); // wait 200 ms for the current cycle of calculation to finish
-		} catch (InterruptedException e) {
-		}
-		EventQueue.invokeLater(new Runnable() {
-			public void run() {
-				propagator.reset();
-				view2D.repaint();
-			}
-		});
+		model.propagator.reset(); // done after the current step, if any, which the stepping thread finishes first
+		view2D.repaint();
 	}
 
 	public void reload() {
@@ -446,13 +450,23 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	}
 
 	public void run() {
+		closeRecording();
 		if (threadService == null)
-			threadService = Executors.newFixedThreadPool(1);
-		threadService.execute(new Runnable() {
-			public void run() {
-				propagator.run();
+			threadService = SimulationScheduler.getShared();
+		if (threadService instanceof SimulationScheduler) {
+			// time-sliced with the other simulations of the scheduler, at the priority that the visibility of the view deserves
+			if (model.propagator.startRunning()) {
+				if (visibility == null)
+					visibility = new VisibilityTracker(view2D);
+				visibility.track(((SimulationScheduler) threadService).schedule(model.propagator, visibility.getPriority()));
 			}
-		});
+		} else {
+			threadService.execute(new Runnable() {
+				public void run() {
+					model.propagator.run();
+				}
+			});
+		}
 		if (buttonRun != null) {
 			EventQueue.invokeLater(new Runnable() {
 				public void run() {
@@ -465,17 +479,19 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 
 	public void runSteps(final int n) {
 		if (threadService == null)
-			threadService = Executors.newFixedThreadPool(1);
+			threadService = SimulationScheduler.getShared();
 		threadService.execute(new Runnable() {
 			public void run() {
-				propagator.runSteps(n);
+				model.propagator.runSteps(n);
 			}
 		});
 	}
 
 	private void createButtonPanel() {
 		JPanel p = new JPanel();
-		add(p, BorderLayout.SOUTH);
+		southPanel = new JPanel(new BorderLayout());
+		southPanel.add(p, BorderLayout.CENTER);
+		add(southPanel, BorderLayout.SOUTH);
 		buttonRun = new JButton("Run");
 		buttonRun.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -534,8 +550,11 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	@Override
 	public void destroy() {
 		stop();
-		propagator.destroy();
-		if (threadService != null && !threadService.isShutdown()) {
+		closeRecording();
+		model.propagator.destroy();
+		if (visibility != null)
+			visibility.dispose();
+		if (threadService != null && !(threadService instanceof SimulationScheduler) && !threadService.isShutdown()) { // a scheduler is shared with other simulations
 			threadService.shutdownNow();
 		}
 	}
@@ -551,8 +570,14 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	public String runNativeScript(final String script) {
 		requestRebuildingWaveFunction = false;
 		scripter.executeScript(script);
-		if (requestRebuildingWaveFunction)
-			propagator.rebuildWaveFunction();
+		if (requestRebuildingWaveFunction) {
+			final TimePropagator2D tp = model.propagator;
+			tp.submit(new Runnable() {
+				public void run() {
+					tp.rebuildWaveFunction();
+				}
+			});
+		}
 		return null;
 	}
 
@@ -562,6 +587,8 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 
 	private void loadStateApp(InputStream is) throws IOException {
 		stop();
+		model.propagator.stopAndWait(); // the model is rebuilt directly, so the stepping thread must have let go of it
+		closeRecording();
 		reset();
 		clear();
 		loadState(is);
@@ -592,6 +619,88 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 		}
 	}
 
+	/**
+	 * Capture the state of the simulation, which may be running, and write it to the file on a background thread.
+	 * 
+	 * @return the pending write
+	 */
+	public Future<File> saveCheckpoint(File file, boolean compress) {
+		return Checkpoint2D.save(model.propagator, encoder.encode(), file, compress);
+	}
+
+	/**
+	 * Load the model of a checkpoint and continue from the state in it.
+	 */
+	public void loadCheckpoint(File file) throws IOException {
+		Checkpoint2D c = Checkpoint2D.read(file);
+		loadStateApp(new ByteArrayInputStream(c.getXml().getBytes("UTF-8")));
+		// loading stops the propagator and resets it, which rebuilds the wave function from the wave packets at once. The state is restored over it.
+		c.restore(model.propagator);
+		view2D.repaint();
+		notifyIOListeners(new IOEvent(IOEvent.FILE_INPUT, this));
+	}
+
+	/**
+	 * Stop the simulation and play back a recording made by FrameRecorder2D in the view. The model stored in the recording, if any, is loaded first, so that the frames are shown with their potentials.
+	 */
+	public void openRecording(File file) throws IOException {
+		FrameRecording2D r = new FrameRecording2D(file);
+		try {
+			if (r.getXml() != null) {
+				loadStateApp(new ByteArrayInputStream(r.getXml().getBytes("UTF-8")));
+			} else {
+				stop();
+				closeRecording();
+			}
+			if (r.getNx() != model.getNx() || r.getNy() != model.getNy())
+				throw new IOException("The grid of the recording is " + r.getNx() + "x" + r.getNy() + ", not " + model.getNx() + "x" + model.getNy() + ".");
+		} catch (IOException e) {
+			r.close();
+			throw e;
+		}
+		player = new FramePlayer2D(r, model.propagator);
+		// the observables are not recorded
+		view2D.setEnergies(0, 0, 0);
+		view2D.setExpectationPosition(null);
+		view2D.setExpectationMomentum(null);
+		playbackBar = new PlaybackBar(this, player);
+		if (southPanel != null) {
+			southPanel.add(playbackBar, BorderLayout.NORTH);
+		} else {
+			add(playbackBar, BorderLayout.SOUTH);
+		}
+		validate();
+		if (r.getXml() != null)
+			notifyIOListeners(new IOEvent(IOEvent.FILE_INPUT, this));
+	}
+
+	/**
+	 * Leave the playback of a recording, if any, and show the simulation again.
+	 */
+	public void closeRecording() {
+		if (!EventQueue.isDispatchThread()) {
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					closeRecording();
+				}
+			});
+			return;
+		}
+		if (player == null)
+			return;
+		playbackBar.destroy();
+		playbackBar.getParent().remove(playbackBar);
+		validate();
+		try {
+			player.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		player = null;
+		playbackBar = null;
+		showFrame(model.propagator.getFrame());
+	}
+
 	void loadFile(File file) {
 		setReloadButtonEnabled(true);
 		if (file == null)
@@ -703,24 +812,35 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 	}
 
 	public void visualizationRequested(VisualizationEvent e) {
-		if (view2D == null)
+		if (view2D == null || player != null) // the view shows a recording
 			return;
-		view2D.setTimeInfo(propagator.getTime(), propagator.getTimeStep());
-		if (propagator.getElectricField() != null)
-			view2D.setElectricField(propagator.getElectricField());
-		if (propagator.getMagneticField() != null)
-			view2D.setMagneticField(propagator.getMagneticField());
-		view2D.setProbability(propagator.getAmplitude());
-		view2D.setPhase(propagator.getPhase());
-		if (view2D.getDrawEnergy()) {
-			view2D.setEnergies(propagator.getKineticEnergy(), propagator.getPotentialEnergy(), propagator.getTotalEnergy());
+		Frame2D frame = model.propagator.getFrame(); // a consistent snapshot that the engine will not touch while we paint it
+		showFrame(frame);
+		if (frame.isFlagged() && !model.propagator.isRunning() && buttonRun != null) { // halted by the health monitor
+			buttonRun.setEnabled(true);
+			buttonStop.setEnabled(false);
+		}
+	}
+
+	/* show a frame of the propagator or of a recording, which has only the density, and possibly the phase and the current */
+	void showFrame(Frame2D frame) {
+		view2D.setTimeInfo(frame.getTime(), frame.getTimeStep());
+		view2D.setWarning(frame.isFlagged() ? "Numerically unstable: try a smaller time step" : null);
+		if (model.propagator.getElectricField() != null)
+			view2D.setElectricField(model.propagator.getElectricField());
+		if (model.propagator.getMagneticField() != null)
+			view2D.setMagneticField(model.propagator.getMagneticField());
+		view2D.setProbability(frame.getAmplitude());
+		view2D.setPhase(frame.getPhase());
+		if (view2D.getDrawEnergy() && frame.contains(OutputDemand.ENERGY)) {
+			view2D.setEnergies(frame.getKineticEnergy(), frame.getPotentialEnergy(), frame.getTotalEnergy());
 		}
-		if (view2D.getDrawExpectation()) {
-			view2D.setExpectationPosition(propagator.getPosition());
-			view2D.setExpectationMomentum(propagator.getMomentum());
+		if (view2D.getDrawExpectation() && frame.contains(OutputDemand.EXPECTATION)) {
+			view2D.setExpectationPosition(frame.getPosition());
+			view2D.setExpectationMomentum(frame.getMomentum());
 		}
 		if (view2D.getDrawCurrent()) {
-			view2D.setCurrent(propagator.getCurrent());
+			view2D.setCurrent(frame.getCurrentX(), frame.getCurrentY());
 		}
 		view2D.repaint();
 	}
@@ -794,10 +914,10 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 		final QuantumBox box = new QuantumBox();
 		logLevel = 1;
 		box.owner = frame;
-		box.setArea(box.xmin, box.xmax, box.ymin, box.ymax);
+		box.setArea(box.model.xmin, box.model.xmax, box.model.ymin, box.model.ymax);
 		box.addGaussianWavePacket(.1f, 1f, 0, 0, 0, 0);
-		box.propagator.buildWaveFunction();
-		box.propagator.setTimeStep(0.5f);
+		box.model.propagator.buildWaveFunction();
+		box.model.propagator.setTimeStep(0.5f);
 		box.createButtonPanel();
 		box.view2D.setIntensityScale(5f);
 
@@ -822,6 +942,14 @@ public class QuantumBox extends JApplet implements VisualizationListener {
 				if (a != null)
 					a.actionPerformed(null);
 			}
+
+			public void windowIconified(WindowEvent e) {
+				box.viewDemand.setActive(false); // nobody sees the view, so the engine need not compute anything for it
+			}
+
+			public void windowDeiconified(WindowEvent e) {
+				box.viewDemand.setActive(true);
+			}
 		});
 
 		menuBar.setLatestPath(preferences.get("Latest QWB Path", null), "qwb");
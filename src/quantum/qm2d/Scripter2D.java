@@ -32,6 +32,7 @@ import quantum.qm2d.view.TextBox;
 import quantum.qmevent.ScriptEvent;
 import quantum.qmevent.ScriptListener;
 import quantum.qmshared.AbsorbingBoundary;
+import quantum.qmshared.HealthMonitor;
 import quantum.qmshared.Scripter;
 import quantum.qmutil.MiscUtil;
 
@@ -111,7 +112,7 @@ class Scripter2D extends Scripter {
 
 	protected void evalCommand(String ci) {
 
-		propagator = box.propagator;
+		propagator = box.model.propagator;
 
 		Matcher matcher = RESET.matcher(ci);
 		if (matcher.find()) {
@@ -258,13 +259,23 @@ class Scripter2D extends Scripter {
 		matcher = EFIELD.matcher(ci);
 		if (matcher.find()) {
 			String s = ci.substring(matcher.end()).trim();
-			propagator.setElectricField("on".equalsIgnoreCase(s) ? new ElectricField2D() : null);
+			final ElectricField2D field = "on".equalsIgnoreCase(s) ? new ElectricField2D() : null;
+			propagator.submit(new Runnable() {
+				public void run() {
+					propagator.setElectricField(field);
+				}
+			});
 		}
 
 		matcher = BFIELD.matcher(ci);
 		if (matcher.find()) {
 			String s = ci.substring(matcher.end()).trim();
-			propagator.setMagneticField("on".equalsIgnoreCase(s) ? new MagneticField2D() : null);
+			final MagneticField2D field = "on".equalsIgnoreCase(s) ? new MagneticField2D() : null;
+			propagator.submit(new Runnable() {
+				public void run() {
+					propagator.setMagneticField(field);
+				}
+			});
 		}
 
 		matcher = WAVEPACKET.matcher(ci);
@@ -521,49 +532,17 @@ class Scripter2D extends Scripter {
 					box.view2D.setCurrentScale(scale);
 					box.view2D.repaint();
 				} else if (t[0].equalsIgnoreCase("xboundary")) {
-					propagator.setBoundaryCondition('x', t[1]);
+					setBoundary('x', null, t[1]);
 				} else if (t[0].equalsIgnoreCase("xboundarylayerlength")) {
-					if (propagator.getBoundary('x') == null)
-						propagator.setBoundaryCondition('x', "ABC");
-					float layerLength = 0;
-					try {
-						layerLength = Float.parseFloat(t[1]);
-					} catch (NumberFormatException e) {
-						return;
-					}
-					((AbsorbingBoundary) propagator.getBoundary('x')).setLengthPercentage(layerLength);
+					setBoundary('x', "length", t[1]);
 				} else if (t[0].equalsIgnoreCase("xboundarylayerabsorption")) {
-					if (propagator.getBoundary('x') == null)
-						propagator.setBoundaryCondition('x', "ABC");
-					float absorption = 0;
-					try {
-						absorption = Float.parseFloat(t[1]);
-					} catch (NumberFormatException e) {
-						return;
-					}
-					((AbsorbingBoundary) propagator.getBoundary('x')).setAbsorption(absorption);
+					setBoundary('x', "absorption", t[1]);
 				} else if (t[0].equalsIgnoreCase("yboundary")) {
-					propagator.setBoundaryCondition('y', t[1]);
+					setBoundary('y', null, t[1]);
 				} else if (t[0].equalsIgnoreCase("yboundarylayerlength")) {
-					if (propagator.getBoundary('y') == null)
-						propagator.setBoundaryCondition('y', "ABC");
-					float layerLength = 0;
-					try {
-						layerLength = Float.parseFloat(t[1]);
-					} catch (NumberFormatException e) {
-						return;
-					}
-					((AbsorbingBoundary) propagator.getBoundary('y')).setLengthPercentage(layerLength);
+					setBoundary('y', "length", t[1]);
 				} else if (t[0].equalsIgnoreCase("yboundarylayerabsorption")) {
-					if (propagator.getBoundary('y') == null)
-						propagator.setBoundaryCondition('y', "ABC");
-					float absorption = 0;
-					try {
-						absorption = Float.parseFloat(t[1]);
-					} catch (NumberFormatException e) {
-						return;
-					}
-					((AbsorbingBoundary) propagator.getBoundary('y')).setAbsorption(absorption);
+					setBoundary('y', "absorption", t[1]);
 				} else if (t[0].equalsIgnoreCase("efield_intensity")) {
 					float intensity = 0;
 					try {
@@ -634,7 +613,33 @@ class Scripter2D extends Scripter {
 					} catch (NumberFormatException e) {
 						return;
 					}
-					propagator.setTimeStep(timestep);
+					final float dt = timestep;
+					propagator.submit(new Runnable() {
+						public void run() {
+							propagator.setTimeStep(dt);
+						}
+					});
+				} else if (t[0].equalsIgnoreCase("threads")) {
+					int threads = 1;
+					try {
+						threads = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						return;
+					}
+					box.setThreadCount(threads);
+				} else if (t[0].equalsIgnoreCase("timerate")) {
+					double timeRate = 0;
+					try {
+						timeRate = Double.parseDouble(t[1]);
+					} catch (NumberFormatException e) {
+						return;
+					}
+					if (timeRate >= 0)
+						box.setTimeRate(timeRate);
+				} else if (t[0].equalsIgnoreCase("health")) {
+					int policy = HealthMonitor.getPolicy(t[1]);
+					if (policy >= 0)
+						box.setHealthPolicy(policy);
 				} else if (t[0].equalsIgnoreCase("probcolor")) {
 					final Color c = MiscUtil.parseRGBColor(t[1]);
 					if (c != null) {
@@ -735,6 +740,34 @@ class Scripter2D extends Scripter {
 
 	}
 
+	/* set the type of the boundary in the direction, or the length or the absorption of its layer, which makes it absorbing */
+	private void setBoundary(final char direction, final String attribute, final String value) {
+		float z = 0;
+		if (attribute != null) {
+			try {
+				z = Float.parseFloat(value);
+			} catch (NumberFormatException e) {
+				return;
+			}
+		}
+		final float v = z;
+		propagator.submit(new Runnable() {
+			public void run() {
+				if (attribute == null) {
+					propagator.setBoundaryCondition(direction, value);
+					return;
+				}
+				if (propagator.getBoundary(direction) == null)
+					propagator.setBoundaryCondition(direction, "ABC");
+				AbsorbingBoundary boundary = (AbsorbingBoundary) propagator.getBoundary(direction);
+				if (attribute == "length")
+					boundary.setLengthPercentage(v);
+				else
+					boundary.setAbsorption(v);
+			}
+		});
+	}
+
 	private void setPotentialField(String str1, String str2, String str3) {
 		int lb = str1.indexOf("[");
 		int rb = str1.indexOf("]");
@@ -771,9 +804,18 @@ class Scripter2D extends Scripter {
 				return;
 			}
 		}
-		String s = str2.toLowerCase().intern();
-		Potential2D potential = propagator.getPotential(i);
-		Potential2D oldP = box.potentialFactory.copy(potential);
+		final String s = str2.toLowerCase().intern();
+		final Potential2D potential = propagator.getPotential(i);
+		final float value = z;
+		propagator.changePotential(potential, new Runnable() {
+			public void run() {
+				setPotentialField(potential, s, value);
+			}
+		});
+		box.view2D.repaint();
+	}
+
+	private static void setPotentialField(Potential2D potential, String s, float z) {
 		if (potential instanceof RectangularPotential) {
 			RectangularPotential p = (RectangularPotential) potential;
 			if (s == "width") {
@@ -837,10 +879,6 @@ class Scripter2D extends Scripter {
 				p.setColor(new Color((int) z));
 			}
 		}
-		box.propagator.removePotentialFunction(oldP.isImaginary(), oldP.getPotential());
-		Potential2D newP = box.potentialFactory.copy(potential);
-		box.propagator.addPotentialFunction(newP.isImaginary(), newP.getPotential());
-		box.view2D.repaint();
 	}
 
 	private void setWavePacketField(String str1, String str2, String str3) {
@@ -912,8 +950,17 @@ class Scripter2D extends Scripter {
 			e.printStackTrace();
 			return;
 		}
-		String s = str2.toLowerCase().intern();
-		Source source = rtp.getSource(i);
+		final String s = str2.toLowerCase().intern();
+		final Source source = rtp.getSource(i);
+		final float value = z;
+		rtp.submit(new Runnable() {
+			public void run() {
+				setSourceField(source, s, value);
+			}
+		});
+	}
+
+	private static void setSourceField(Source source, String s, float z) {
 		if (s == "magnitude")
 			source.setAmplitude(z);
 		else if (s == "period")
@@ -18,7 +18,8 @@ import org.xml.sax.helpers.DefaultHandler;
  */
 class XmlDecoder extends DefaultHandler {
 
-	private QuantumBox box;
+	private Model2D model;
+	private QuantumBox box; // null when a model is loaded without a view
 	private String str;
 	private int nx = 200, ny = 200;
 	private float xmin = -10, xmax = 10, ymin = -10, ymax = 10;
@@ -37,10 +38,13 @@ class XmlDecoder extends DefaultHandler {
 	private boolean drawExpectation;
 	private boolean frank = true;
 	private float timeStep = 2;
+	private int threads = 1;
+	private double timeRate;
 	private int bgColor = 0x000000;
 	private int probColor = 0x0099ff;
 
-	XmlDecoder(QuantumBox box) {
+	XmlDecoder(Model2D model, QuantumBox box) {
+		this.model = model;
 		this.box = box;
 	}
 
@@ -54,6 +58,8 @@ class XmlDecoder extends DefaultHandler {
 		nx = 200;
 		ny = 200;
 		timeStep = 2;
+		threads = 1;
+		timeRate = 0;
 		ruler = false;
 		grid = false;
 		contour = false;
@@ -74,12 +80,25 @@ class XmlDecoder extends DefaultHandler {
 	}
 
 	public void endDocument() {
+		if (box == null) {
+			model.setNx(nx);
+			model.setNy(ny);
+			model.setArea(xmin, xmax, ymin, ymax);
+			model.propagator.setTimeStep(timeStep);
+			model.setThreadCount(threads);
+			model.setTimeRate(timeRate);
+			model.propagator.reset();
+			resetGlobalVariables();
+			return;
+		}
 		box.visualizationRequested(null);
 		box.view2D.setFrank(frank);
 		box.setNx(nx);
 		box.setNy(ny);
 		box.setArea(xmin, xmax, ymin, ymax);
-		box.propagator.setTimeStep(timeStep);
+		model.propagator.setTimeStep(timeStep);
+		box.setThreadCount(threads);
+		box.setTimeRate(timeRate);
 		box.view2D.setRulerOn(ruler);
 		box.view2D.setGridOn(grid);
 		box.view2D.setContourShown(contour);
@@ -102,8 +121,8 @@ class XmlDecoder extends DefaultHandler {
 				}
 			});
 		}
-		box.propagator.reset();
-		// box.propagator.buildWaveFunction();
+		model.propagator.reset();
+		// model.propagator.buildWaveFunction();
 		box.view2D.repaint();
 		resetGlobalVariables();
 	}
@@ -149,7 +168,7 @@ class XmlDecoder extends DefaultHandler {
 						color = new Color(Integer.parseInt(attribValue, 16));
 					}
 				}
-				box.addRectangularPotential(imaginary, energy, xcenter, ycenter, width, height, corner, color, visible, draggable);
+				model.addRectangularPotential(imaginary, energy, xcenter, ycenter, width, height, corner, color, visible, draggable);
 			}
 		} else if (qName == "elliptical") {
 			if (attrib != null) {
@@ -185,7 +204,7 @@ class XmlDecoder extends DefaultHandler {
 						color = new Color(Integer.parseInt(attribValue, 16));
 					}
 				}
-				box.addEllipticalPotential(imaginary, energy, xcenter, ycenter, rx, ry, color, visible, draggable);
+				model.addEllipticalPotential(imaginary, energy, xcenter, ycenter, rx, ry, color, visible, draggable);
 			}
 		} else if (qName == "annular") {
 			if (attrib != null) {
@@ -227,7 +246,7 @@ class XmlDecoder extends DefaultHandler {
 						color = new Color(Integer.parseInt(attribValue, 16));
 					}
 				}
-				box.addAnnularPotential(imaginary, energy, xcenter, ycenter, outerRx, outerRy, innerRx, innerRy, color, visible, draggable);
+				model.addAnnularPotential(imaginary, energy, xcenter, ycenter, outerRx, outerRy, innerRx, innerRy, color, visible, draggable);
 			}
 		} else if (qName == "ionic") {
 			if (attrib != null) {
@@ -260,7 +279,7 @@ class XmlDecoder extends DefaultHandler {
 						color = new Color(Integer.parseInt(attribValue, 16));
 					}
 				}
-				box.addIonicPotential(imaginary, charge, offset, xcenter, ycenter, color, visible, draggable);
+				model.addIonicPotential(imaginary, charge, offset, xcenter, ycenter, color, visible, draggable);
 			}
 		} else if (qName == "point") {// point source
 			if (attrib != null) {
@@ -290,7 +309,7 @@ class XmlDecoder extends DefaultHandler {
 						sigma = Float.parseFloat(attribValue);
 					}
 				}
-				box.addGaussianSource(period, amplitude, sigma, xcenter, ycenter, px, py);
+				model.addGaussianSource(period, amplitude, sigma, xcenter, ycenter, px, py);
 			}
 		} else if (qName == "planewave") {// plane wave source
 			if (attrib != null) {
@@ -323,7 +342,7 @@ class XmlDecoder extends DefaultHandler {
 						height = Float.parseFloat(attribValue);
 					}
 				}
-				box.addPlaneWaveSource(period, amplitude, xcenter, ycenter, width, height, px, py);
+				model.addPlaneWaveSource(period, amplitude, xcenter, ycenter, width, height, px, py);
 			}
 		} else if (qName == "gaussian") {// gaussian wave packet
 			if (attrib != null) {
@@ -350,7 +369,7 @@ class XmlDecoder extends DefaultHandler {
 						py = Float.parseFloat(attribValue);
 					}
 				}
-				box.addGaussianWavePacket(magnitude, sigma, rx, ry, px, py);
+				model.addGaussianWavePacket(magnitude, sigma, rx, ry, px, py);
 			}
 		} else if (qName == "uniform_rectangle") {// uniform rectangular wave packet
 			if (attrib != null) {
@@ -380,7 +399,7 @@ class XmlDecoder extends DefaultHandler {
 						py = Float.parseFloat(attribValue);
 					}
 				}
-				box.addPlaneWavePacket(magnitude, x, y, w, h, px, py);
+				model.addPlaneWavePacket(magnitude, x, y, w, h, px, py);
 			}
 		} else if (qName == "efield") {
 			if (attrib != null) {
@@ -401,10 +420,10 @@ class XmlDecoder extends DefaultHandler {
 						angle = Float.parseFloat(attribValue);
 					}
 				}
-				ElectricField2D eField = box.propagator.getElectricField();
+				ElectricField2D eField = model.propagator.getElectricField();
 				if (eField == null) {
 					eField = new ElectricField2D();
-					box.propagator.setElectricField(eField);
+					model.propagator.setElectricField(eField);
 				}
 				eField.setAngle(angle);
 				eField.setFrequency(frequency);
@@ -427,10 +446,10 @@ class XmlDecoder extends DefaultHandler {
 						phase = Float.parseFloat(attribValue);
 					}
 				}
-				MagneticField2D bField = box.propagator.getMagneticField();
+				MagneticField2D bField = model.propagator.getMagneticField();
 				if (bField == null) {
 					bField = new MagneticField2D();
-					box.propagator.setMagneticField(bField);
+					model.propagator.setMagneticField(bField);
 				}
 				bField.setFrequency(frequency);
 				bField.setIntensity(intensity);
@@ -449,8 +468,8 @@ class XmlDecoder extends DefaultHandler {
 						charge = Float.parseFloat(attribValue);
 					}
 				}
-				box.particle.setCharge(charge);
-				box.setMass(mass);
+				model.particle.setCharge(charge);
+				model.setMass(mass);
 			}
 		} else if (qName == "absorbing_boundary") {
 			if (attrib != null) {
@@ -468,14 +487,15 @@ class XmlDecoder extends DefaultHandler {
 						absorption = Float.parseFloat(attribValue);
 					}
 				}
-				box.propagator.setBoundaryCondition(direction, "ABC");
-				AbsorbingBoundary b = (AbsorbingBoundary) box.propagator.getBoundary(direction);
+				model.propagator.setBoundaryCondition(direction, "ABC");
+				AbsorbingBoundary b = (AbsorbingBoundary) model.propagator.getBoundary(direction);
 				b.setLengthPercentage(lengthPercentage);
 				b.setAbsorption(absorption);
-				box.view2D.setBoundary(direction, b);
+				if (box != null)
+					box.view2D.setBoundary(direction, b);
 			}
 		} else if (qName == "textbox") {// text box
-			if (attrib != null) {
+			if (attrib != null && box != null) {
 				float x = 0;
 				float y = 0;
 				int rgb = Color.black.getRGB();
@@ -518,25 +538,33 @@ class XmlDecoder extends DefaultHandler {
 
 		if (qName == "itp") {
 			itp = Boolean.parseBoolean(str);
-			box.setPropagator(itp);
+			if (box != null) {
+				box.setPropagator(itp);
+			} else {
+				model.setPropagator(itp);
+			}
 		} else if (qName == "xmin") {
 			xmin = Float.parseFloat(str);
-			box.xmin = xmin;
+			model.xmin = xmin;
 		} else if (qName == "xmax") {
 			xmax = Float.parseFloat(str);
-			box.xmax = xmax;
+			model.xmax = xmax;
 		} else if (qName == "ymin") {
 			ymin = Float.parseFloat(str);
-			box.ymin = ymin;
+			model.ymin = ymin;
 		} else if (qName == "ymax") {
 			ymax = Float.parseFloat(str);
-			box.ymax = ymax;
+			model.ymax = ymax;
 		} else if (qName == "nx") {
 			nx = Integer.parseInt(str);
 		} else if (qName == "ny") {
 			ny = Integer.parseInt(str);
 		} else if (qName == "timestep") {
 			timeStep = Float.parseFloat(str);
+		} else if (qName == "threads") {
+			threads = Integer.parseInt(str);
+		} else if (qName == "timerate") {
+			timeRate = Double.parseDouble(str);
 		} else if (qName == "ruler") {
 			ruler = Boolean.parseBoolean(str);
 		} else if (qName == "contour") {
@@ -23,20 +23,24 @@ class XmlEncoder {
 		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
 		sb.append("<model>\n");
 		sb.append("<engine>\n");
-		sb.append("<itp>" + (box.propagator instanceof ImaginaryTimePropagator2D) + "</itp>\n");
+		sb.append("<itp>" + (box.model.propagator instanceof ImaginaryTimePropagator2D) + "</itp>\n");
 		sb.append("<nx>" + box.getNx() + "</nx>\n");
 		sb.append("<ny>" + box.getNy() + "</ny>\n");
-		sb.append("<timestep>" + box.propagator.getTimeStep() + "</timestep>\n");
+		sb.append("<timestep>" + box.model.propagator.getTimeStep() + "</timestep>\n");
+		if (box.getThreadCount() > 1)
+			sb.append("<threads>" + box.getThreadCount() + "</threads>\n");
+		if (box.getTimeRate() > 0)
+			sb.append("<timerate>" + box.getTimeRate() + "</timerate>\n");
 		sb.append("</engine>\n");
 		sb.append("<state>\n");
-		sb.append("<xmin>" + box.xmin + "</xmin>\n");
-		sb.append("<xmax>" + box.xmax + "</xmax>\n");
-		sb.append("<ymin>" + box.ymin + "</ymin>\n");
-		sb.append("<ymax>" + box.ymax + "</ymax>\n");
-		Boundary b = box.propagator.getBoundary('x');
+		sb.append("<xmin>" + box.model.xmin + "</xmin>\n");
+		sb.append("<xmax>" + box.model.xmax + "</xmax>\n");
+		sb.append("<ymin>" + box.model.ymin + "</ymin>\n");
+		sb.append("<ymax>" + box.model.ymax + "</ymax>\n");
+		Boundary b = box.model.propagator.getBoundary('x');
 		if (b != null)
 			sb.append(b.toXml());
-		b = box.propagator.getBoundary('y');
+		b = box.model.propagator.getBoundary('y');
 		if (b != null)
 			sb.append(b.toXml());
 		sb.append("<frank>" + box.view2D.isFrank() + "</frank>\n");
@@ -54,10 +58,10 @@ class XmlEncoder {
 		if (!box.view2D.getBackground().equals(Color.black))
 			sb.append("<bgcolor>" + Integer.toHexString(0x00ffffff & box.view2D.getBackground().getRGB()) + "</bgcolor>\n");
 		sb.append("<probcolor>" + Integer.toHexString(0x00ffffff & box.view2D.getProbColor().getRGB()) + "</probcolor>\n");
-		sb.append(box.propagator.getParticle().toXml());
+		sb.append(box.model.propagator.getParticle().toXml());
 		sb.append("\n");
-		if (box.propagator.getElectricField() != null) {
-			sb.append(box.propagator.getElectricField().toXml());
+		if (box.model.propagator.getElectricField() != null) {
+			sb.append(box.model.propagator.getElectricField().toXml());
 			sb.append("\n");
 		}
 		int textCount = box.view2D.getTextBoxCount();
@@ -68,24 +72,24 @@ class XmlEncoder {
 			}
 			sb.append("</textboxes>\n");
 		}
-		int pCount = box.propagator.getPotentialCount();
+		int pCount = box.model.propagator.getPotentialCount();
 		if (pCount > 0) {
 			sb.append("<potentials>\n");
 			for (int i = 0; i < pCount; i++) {
-				sb.append(box.propagator.getPotential(i).toXml());
+				sb.append(box.model.propagator.getPotential(i).toXml());
 			}
 			sb.append("</potentials>\n");
 		}
-		int waveCount = box.propagator.getWavePacketCount();
+		int waveCount = box.model.propagator.getWavePacketCount();
 		if (waveCount > 0) {
 			sb.append("<wavepackets>\n");
 			for (int i = 0; i < waveCount; i++) {
-				sb.append(box.propagator.getWavePacket(i).toXml());
+				sb.append(box.model.propagator.getWavePacket(i).toXml());
 			}
 			sb.append("</wavepackets>\n");
 		}
-		if (box.propagator instanceof RealTimePropagator2D) {
-			RealTimePropagator2D rtp = (RealTimePropagator2D) box.propagator;
+		if (box.model.propagator instanceof RealTimePropagator2D) {
+			RealTimePropagator2D rtp = (RealTimePropagator2D) box.model.propagator;
 			int sCount = rtp.getSourceCount();
 			if (sCount > 0) {
 				sb.append("<sources>\n");
@@ -13,6 +13,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 
 import quantum.qmshared.Boundary;
 
@@ -32,25 +33,18 @@ public class AnnularPotential extends AreaPotential {
 		this.outerRy = outerRy;
 		this.innerRx = innerRx;
 		this.innerRy = innerRy;
-		float dx = (xmax - xmin) / nx;
-		float dy = (ymax - ymin) / ny;
-		float x, y;
-		float outerAx, outerAy, innerAx, innerAy;
-		for (int i = 0; i < nx; i++) {
-			x = xmin + i * dx;
-			outerAx = (x - xcenter) / outerRx;
-			outerAx *= outerAx;
-			innerAx = (x - xcenter) / innerRx;
-			innerAx *= innerAx;
-			for (int j = 0; j < ny; j++) {
-				y = ymin + j * dy;
-				outerAy = (y - ycenter) / outerRy;
-				innerAy = (y - ycenter) / innerRy;
-				if (outerAx + outerAy * outerAy < 1 && innerAx + innerAy * innerAy > 1) {
-					pot[i][j] = energy;
-				}
-			}
-		}
+	}
+
+	public float getValue(float x, float y) {
+		float outerAx = (x - xcenter) / outerRx;
+		float outerAy = (y - ycenter) / outerRy;
+		float innerAx = (x - xcenter) / innerRx;
+		float innerAy = (y - ycenter) / innerRy;
+		return outerAx * outerAx + outerAy * outerAy < 1 && innerAx * innerAx + innerAy * innerAy > 1 ? energy : 0;
+	}
+
+	public Rectangle2D.Float getBoundingBox() {
+		return new Rectangle2D.Float(xcenter - outerRx, ycenter - outerRy, 2 * outerRx, 2 * outerRy);
 	}
 
 	public void setRects(Rectangle[] rect, Polygon[] handle, Dimension d, Boundary bx, Boundary by) {
@@ -1,10 +1,9 @@
 package quantum.qm2d.model;
 
-import quantum.math.FloatComplex;
 import quantum.math.Tdma;
 
 /**
- * This is a fast and stable (norm-preserving) solver based on Cayley's form.
+ * This is a fast and stable (norm-preserving) solver based on Cayley's form. The complex numbers are stored in split real and imaginary arrays so that a step does not allocate any object.
  * 
  * @author Charles Xie
  * 
@@ -12,43 +11,61 @@ import quantum.math.Tdma;
 class CayleySolver2D {
 
 	private int n;
-	private FloatComplex[] a, b, c, d;
+	private float[] aRe, aIm, bRe, bIm, cRe, cIm, dRe, dIm;
 
 	CayleySolver2D(int n) {
 		this.n = n;
-		a = new FloatComplex[n];
-		b = new FloatComplex[n];
-		c = new FloatComplex[n];
-		d = new FloatComplex[n];
-		a[0] = new FloatComplex();
-		c[n - 1] = new FloatComplex();
+		aRe = new float[n];
+		aIm = new float[n];
+		bRe = new float[n];
+		bIm = new float[n];
+		cRe = new float[n];
+		cIm = new float[n];
+		dRe = new float[n];
+		dIm = new float[n];
 	}
 
-	FloatComplex[] nextStep(FloatComplex[] phi, FloatComplex[] subDiagonal, FloatComplex[] diagonal, FloatComplex[] supDiagonal) {
+	/* The solution overwrites phiRe and phiIm. */
+	void nextStep(float[] phiRe, float[] phiIm, float[] subRe, float[] subIm, float[] diagRe, float[] diagIm, float[] supRe, float[] supIm) {
+
+		float pr, pi;
 
 		for (int i = 0; i < n; i++) {
 
+			pr = phiRe[i];
+			pi = phiIm[i];
+
 			// compute the rhs vector
-			d[i] = phi[i].add(diagonal[i].multiply(phi[i]));
+			dRe[i] = pr + diagRe[i] * pr - diagIm[i] * pi;
+			dIm[i] = pi + diagRe[i] * pi + diagIm[i] * pr;
 
 			if (i > 0) {
 				// compute the subdiagonal elements
-				a[i] = subDiagonal[i - 1].negative();
-				d[i] = d[i].add(subDiagonal[i - 1].multiply(phi[i - 1]));
+				aRe[i] = -subRe[i - 1];
+				aIm[i] = -subIm[i - 1];
+				pr = phiRe[i - 1];
+				pi = phiIm[i - 1];
+				dRe[i] += subRe[i - 1] * pr - subIm[i - 1] * pi;
+				dIm[i] += subRe[i - 1] * pi + subIm[i - 1] * pr;
 			}
 
 			// compute the diagonal elements
-			b[i] = new FloatComplex(1, 0).subtract(diagonal[i]);
+			bRe[i] = 1 - diagRe[i];
+			bIm[i] = -diagIm[i];
 
 			if (i < n - 1) {
 				// compute the superdiagonal elements
-				c[i] = supDiagonal[i + 1].negative();
-				d[i] = d[i].add(supDiagonal[i + 1].multiply(phi[i + 1]));
+				cRe[i] = -supRe[i + 1];
+				cIm[i] = -supIm[i + 1];
+				pr = phiRe[i + 1];
+				pi = phiIm[i + 1];
+				dRe[i] += supRe[i + 1] * pr - supIm[i + 1] * pi;
+				dIm[i] += supRe[i + 1] * pi + supIm[i + 1] * pr;
 			}
 
 		}
 
-		return Tdma.solve(a, b, c, d);
+		Tdma.solve(n, aRe, aIm, bRe, bIm, cRe, cIm, dRe, dIm, phiRe, phiIm);
 
 	}
 
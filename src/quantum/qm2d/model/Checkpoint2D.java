@@ -0,0 +1,314 @@
+package quantum.qm2d.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A snapshot of the full state of a 2D simulation, from which a run can be continued: the model in XML (the potentials, wave packets, sources, fields and boundaries), the evolved wave function, the step count, the time step and the static potentials. The sources and the fields depend only on the step count, so they are restored by the XML and the step count.
+ * 
+ * A checkpoint is captured by a command that the propagator runs between two steps, which costs no more than copying its arrays. It is written to a file through a FileChannel, deflated if compressed, usually on a background thread (see save). The file is not memory-mapped, as a mapped file cannot be replaced or deleted on Windows until the mapping has been garbage-collected. The file starts with a header in big-endian order: the magic number, the version, the flags, nx, ny, the step count, the time step, the length of the XML and the length of the body. The body holds the XML in UTF-8 followed by the arrays of floats.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class Checkpoint2D {
+
+	private final static int MAGIC = 0x51574350; // QWCP
+	private final static int VERSION = 1;
+	private final static int COMPRESSED = 1;
+	private final static int IMAGINARY_TIME = 2;
+	private final static int HEADER_LENGTH = 40;
+
+	private static ExecutorService writer;
+
+	private String xml;
+	private boolean imaginaryTime;
+	private int nx, ny;
+	private int step;
+	private float timeStep;
+	private float[] psiRe, psiIm; // psiIm is null for a real wave function
+	private float[] staticRealPotential, staticImaginaryPotential;
+
+	private Checkpoint2D() {
+	}
+
+	/**
+	 * Capture the state of the propagator. If the propagator is running, this waits for the current step to finish and holds up the next one only for the time of copying the arrays.
+	 * 
+	 * @param xml
+	 *            the model in the .qwb format, which the propagator is restored from before its state
+	 */
+	public static Checkpoint2D capture(final TimePropagator2D propagator, String xml) {
+		final Checkpoint2D c = new Checkpoint2D();
+		c.xml = xml;
+		c.imaginaryTime = propagator instanceof ImaginaryTimePropagator2D;
+		c.nx = propagator.nx;
+		c.ny = propagator.ny;
+		int n = c.nx * c.ny;
+		c.psiRe = new float[n];
+		c.psiIm = c.imaginaryTime ? null : new float[n];
+		c.staticRealPotential = new float[n];
+		c.staticImaginaryPotential = new float[n];
+		propagator.invokeAndWait(new Runnable() {
+			public void run() {
+				c.step = propagator.iStep;
+				c.timeStep = propagator.timeStep;
+				propagator.copyWaveFunction(c.psiRe, c.psiIm);
+				System.arraycopy(propagator.staticRealPotential, 0, c.staticRealPotential, 0, c.staticRealPotential.length);
+				System.arraycopy(propagator.staticImaginaryPotential, 0, c.staticImaginaryPotential, 0, c.staticImaginaryPotential.length);
+			}
+		});
+		return c;
+	}
+
+	/**
+	 * Capture the state of the propagator now and write it to the file on a background thread.
+	 * 
+	 * @return the pending write, which delivers the file when done or the IOException that has occurred
+	 */
+	public static Future<File> save(TimePropagator2D propagator, String xml, final File file, final boolean compress) {
+		final Checkpoint2D c = capture(propagator, xml);
+		synchronized (Checkpoint2D.class) {
+			if (writer == null) {
+				writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Checkpoint writer");
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				});
+			}
+		}
+		return writer.submit(new Callable<File>() {
+			public File call() throws IOException {
+				try {
+					c.write(file, compress);
+				} catch (IOException e) {
+					e.printStackTrace(); // in case no one asks the future
+					throw e;
+				}
+				return file;
+			}
+		});
+	}
+
+	public String getXml() {
+		return xml;
+	}
+
+	public boolean isImaginaryTime() {
+		return imaginaryTime;
+	}
+
+	public int getNx() {
+		return nx;
+	}
+
+	public int getNy() {
+		return ny;
+	}
+
+	public int getStep() {
+		return step;
+	}
+
+	public float getTime() {
+		return step * timeStep;
+	}
+
+	/**
+	 * Restore the state into a propagator of the same kind and grid, which should have been set up from getXml() and must not be running. The output of the restored wave function is published to the visualization listeners.
+	 */
+	public void restore(final TimePropagator2D propagator) {
+		if (imaginaryTime != propagator instanceof ImaginaryTimePropagator2D)
+			throw new IllegalArgumentException("The checkpoint is of " + (imaginaryTime ? "an imaginary" : "a real") + "-time propagator.");
+		if (nx != propagator.nx || ny != propagator.ny)
+			throw new IllegalArgumentException("The grid of the checkpoint is " + nx + "x" + ny + ", not " + propagator.nx + "x" + propagator.ny + ".");
+		propagator.invokeAndWait(new Runnable() {
+			public void run() {
+				propagator.iStep = step;
+				propagator.setTimeStep(timeStep);
+				System.arraycopy(staticRealPotential, 0, propagator.staticRealPotential, 0, staticRealPotential.length);
+				System.arraycopy(staticImaginaryPotential, 0, propagator.staticImaginaryPotential, 0, staticImaginaryPotential.length);
+				propagator.staticPotentialChanged = true;
+				propagator.setWaveFunction(psiRe, psiIm);
+				propagator.outputProperties(OutputDemand.AMPLITUDE | OutputDemand.PHASE);
+			}
+		});
+	}
+
+	private int getBodyLength(byte[] text) {
+		return text.length + 4 * (psiRe.length + (psiIm != null ? psiIm.length : 0) + staticRealPotential.length + staticImaginaryPotential.length);
+	}
+
+	private void putBody(ByteBuffer b, byte[] text) {
+		b.put(text);
+		b.asFloatBuffer().put(psiRe);
+		b.position(b.position() + 4 * psiRe.length);
+		if (psiIm != null) {
+			b.asFloatBuffer().put(psiIm);
+			b.position(b.position() + 4 * psiIm.length);
+		}
+		b.asFloatBuffer().put(staticRealPotential);
+		b.position(b.position() + 4 * staticRealPotential.length);
+		b.asFloatBuffer().put(staticImaginaryPotential);
+		b.position(b.position() + 4 * staticImaginaryPotential.length);
+	}
+
+	/**
+	 * Write this checkpoint to the file. It is first written to a temporary file next to it, which then replaces the file in an atomic move where the file system supports it, so that an interrupted write does not destroy an earlier checkpoint.
+	 */
+	public void write(File file, boolean compress) throws IOException {
+		byte[] text = xml.getBytes("UTF-8");
+		int bodyLength = getBodyLength(text);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt((compress ? COMPRESSED : 0) | (imaginaryTime ? IMAGINARY_TIME : 0));
+		header.putInt(nx);
+		header.putInt(ny);
+		header.putInt(step);
+		header.putFloat(timeStep);
+		header.putInt(text.length);
+		header.putLong(bodyLength);
+		header.flip();
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			if (compress) {
+				channel.write(header);
+				ByteBuffer body = ByteBuffer.allocate(bodyLength);
+				putBody(body, text);
+				Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				try {
+					deflater.setInput(body.array());
+					deflater.finish();
+					byte[] buffer = new byte[65536];
+					int n;
+					while (!deflater.finished()) {
+						n = deflater.deflate(buffer);
+						ByteBuffer b = ByteBuffer.wrap(buffer, 0, n);
+						while (b.hasRemaining())
+							channel.write(b);
+					}
+				} finally {
+					deflater.end();
+				}
+			} else {
+				ByteBuffer b = ByteBuffer.allocate(HEADER_LENGTH + bodyLength);
+				b.put(header);
+				putBody(b, text);
+				b.flip();
+				while (b.hasRemaining())
+					channel.write(b);
+			}
+			channel.force(false);
+		} finally {
+			raf.close();
+		}
+		Path source = tmp.toPath(), target = file.toPath();
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public static Checkpoint2D read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_LENGTH)
+				throw new IOException(file + " is not a checkpoint.");
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large.");
+			ByteBuffer b = ByteBuffer.allocate((int) size);
+			while (b.hasRemaining()) {
+				if (channel.read(b) < 0)
+					throw new IOException(file + " is truncated.");
+			}
+			b.flip();
+			if (b.getInt() != MAGIC)
+				throw new IOException(file + " is not a checkpoint.");
+			int version = b.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version of checkpoint: " + version);
+			int flags = b.getInt();
+			Checkpoint2D c = new Checkpoint2D();
+			c.imaginaryTime = (flags & IMAGINARY_TIME) != 0;
+			c.nx = b.getInt();
+			c.ny = b.getInt();
+			c.step = b.getInt();
+			c.timeStep = b.getFloat();
+			int textLength = b.getInt();
+			long bodyLength = b.getLong();
+			int n = c.nx * c.ny;
+			if (c.nx < 1 || c.ny < 1 || textLength < 0 || bodyLength != textLength + 4L * n * (c.imaginaryTime ? 3 : 4))
+				throw new IOException(file + " is corrupted.");
+			ByteBuffer body;
+			if ((flags & COMPRESSED) != 0) {
+				byte[] input = new byte[b.remaining()];
+				b.get(input);
+				body = ByteBuffer.allocate((int) bodyLength);
+				Inflater inflater = new Inflater();
+				try {
+					inflater.setInput(input);
+					while (body.hasRemaining() && !inflater.finished()) {
+						int k = inflater.inflate(body.array(), body.position(), body.remaining());
+						if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+							break;
+						body.position(body.position() + k);
+					}
+				} catch (DataFormatException e) {
+					throw new IOException(e);
+				} finally {
+					inflater.end();
+				}
+				if (body.hasRemaining())
+					throw new IOException(file + " is truncated.");
+				body.flip();
+			} else {
+				if (b.remaining() < bodyLength)
+					throw new IOException(file + " is truncated.");
+				body = b;
+			}
+			byte[] text = new byte[textLength];
+			body.get(text);
+			c.xml = new String(text, "UTF-8");
+			c.psiRe = getFloats(body, n);
+			c.psiIm = c.imaginaryTime ? null : getFloats(body, n);
+			c.staticRealPotential = getFloats(body, n);
+			c.staticImaginaryPotential = getFloats(body, n);
+			return c;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static float[] getFloats(ByteBuffer b, int n) {
+		float[] a = new float[n];
+		b.asFloatBuffer().get(a);
+		b.position(b.position() + 4 * n);
+		return a;
+	}
+
+}
@@ -13,6 +13,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 
 import quantum.qmshared.Boundary;
 
@@ -30,22 +31,16 @@ public class EllipticalPotential extends AreaPotential {
 		this.ycenter = ycenter;
 		this.rx = rx;
 		this.ry = ry;
-		float dx = (xmax - xmin) / nx;
-		float dy = (ymax - ymin) / ny;
-		float x, y;
-		float ax, ay;
-		for (int i = 0; i < nx; i++) {
-			x = xmin + i * dx;
-			ax = (x - xcenter) / rx;
-			ax *= ax;
-			for (int j = 0; j < ny; j++) {
-				y = ymin + j * dy;
-				ay = (y - ycenter) / ry;
-				if (ax + ay * ay < 1) {
-					pot[i][j] = energy;
-				}
-			}
-		}
+	}
+
+	public float getValue(float x, float y) {
+		float ax = (x - xcenter) / rx;
+		float ay = (y - ycenter) / ry;
+		return ax * ax + ay * ay < 1 ? energy : 0;
+	}
+
+	public Rectangle2D.Float getBoundingBox() {
+		return new Rectangle2D.Float(xcenter - rx, ycenter - ry, 2 * rx, 2 * ry);
 	}
 
 	public void setRects(Rectangle[] rect, Polygon[] handle, Dimension d, Boundary bx, Boundary by) {
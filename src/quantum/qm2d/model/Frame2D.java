@@ -0,0 +1,108 @@
+package quantum.qm2d.model;
+
+import quantum.math.Vector2D;
+
+/**
+ * A snapshot of the output of a 2D propagator at one step: the probability density, the phase, the probability current and the scalar observables. The propagator fills a frame that no reader can see and then publishes it as a whole through a FrameBuffer2D, so a renderer that holds a frame always sees the values of one and the same step. A reader must treat the arrays of a frame as read-only.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class Frame2D {
+
+	int quantities;
+	boolean flagged;
+	int step;
+	float[][] amplitude, phase;
+	float[][] currentX, currentY;
+	float time, timeStep;
+	float sum, kinE, potE, totE;
+	Vector2D position, momentum;
+
+	Frame2D(int nx, int ny) {
+		amplitude = new float[nx][ny];
+		phase = new float[nx][ny];
+		position = new Vector2D();
+		momentum = new Vector2D();
+	}
+
+	/* copy the probability current of the propagator, reusing the arrays of this frame whenever possible */
+	void setCurrent(float[][] cx, float[][] cy) {
+		if (currentX == null || currentX.length != cx.length || currentX[0].length != cx[0].length) {
+			currentX = new float[cx.length][cx[0].length];
+			currentY = new float[cy.length][cy[0].length];
+		}
+		for (int i = 0; i < cx.length; i++) {
+			System.arraycopy(cx[i], 0, currentX[i], 0, cx[i].length);
+			System.arraycopy(cy[i], 0, currentY[i], 0, cy[i].length);
+		}
+	}
+
+	/**
+	 * @return true if the quantity (one of the constants of OutputDemand) was computed for this frame. The values of a quantity that was not computed are stale.
+	 */
+	public boolean contains(int quantity) {
+		return (quantities & quantity) != 0;
+	}
+
+	/** @return true if the health monitor of the propagator has found the values of this frame suspect (see HealthMonitor) */
+	public boolean isFlagged() {
+		return flagged;
+	}
+
+	public float[][] getAmplitude() {
+		return amplitude;
+	}
+
+	public float[][] getPhase() {
+		return phase;
+	}
+
+	/** @return the x component of the probability current, sampled every few cells, or null if it has never been computed */
+	public float[][] getCurrentX() {
+		return currentX;
+	}
+
+	/** @return the y component of the probability current, sampled every few cells, or null if it has never been computed */
+	public float[][] getCurrentY() {
+		return currentY;
+	}
+
+	/** @return the number of the time step of this frame */
+	public int getStep() {
+		return step;
+	}
+
+	public float getTime() {
+		return time;
+	}
+
+	public float getTimeStep() {
+		return timeStep;
+	}
+
+	public float getSum() {
+		return sum;
+	}
+
+	public float getKineticEnergy() {
+		return kinE;
+	}
+
+	public float getPotentialEnergy() {
+		return potE;
+	}
+
+	public float getTotalEnergy() {
+		return totE;
+	}
+
+	public Vector2D getPosition() {
+		return position;
+	}
+
+	public Vector2D getMomentum() {
+		return momentum;
+	}
+
+}
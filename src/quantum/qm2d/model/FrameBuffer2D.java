@@ -0,0 +1,44 @@
+package quantum.qm2d.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free triple buffer that hands the frames of a propagator over to the renderers. The writer (the propagator) owns the back frame, the readers own the front frame and the third frame sits in the middle. Publishing swaps the back frame with the middle one and marks it fresh; acquiring swaps the front frame with the middle one if a fresh frame is waiting. Both swaps are a single atomic exchange, so the writer never waits for a renderer and a renderer never sees a frame that is being written.
+ * 
+ * There must be at most one writer at a time. Readers may be on any thread, but since they share the front frame, a frame returned by acquire() stays valid only until the next call of acquire().
+ * 
+ * @author Charles Xie
+ * 
+ */
+class FrameBuffer2D {
+
+	private final static int FRESH = 4;
+	private final static int INDEX = 3;
+
+	private Frame2D[] frames;
+	private int back = 0;
+	private int front = 1;
+	private AtomicInteger middle = new AtomicInteger(2);
+
+	FrameBuffer2D(int nx, int ny) {
+		frames = new Frame2D[] { new Frame2D(nx, ny), new Frame2D(nx, ny), new Frame2D(nx, ny) };
+	}
+
+	/** @return the frame that the writer fills now */
+	Frame2D getBackFrame() {
+		return frames[back];
+	}
+
+	/** make the back frame the latest frame and give the writer a free one */
+	void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX;
+	}
+
+	/** @return the latest published frame */
+	synchronized Frame2D acquire() {
+		if ((middle.get() & FRESH) != 0)
+			front = middle.getAndSet(front) & INDEX;
+		return frames[front];
+	}
+
+}
@@ -0,0 +1,15 @@
+package quantum.qm2d.model;
+
+/**
+ * A listener that is given every frame a 2D propagator publishes, on the thread of the propagator and before the frame becomes visible to the renderers. The frame is valid only during the call, and the propagator waits for the call to return, so a listener should copy what it needs and leave anything slow to another thread.
+ * 
+ * A FramePlayer2D gives its listener the frames it has decoded on the thread of its prefetcher instead. Those frames are not reused and may be kept.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public interface FrameListener {
+
+	public void frameCompleted(Frame2D frame);
+
+}
@@ -0,0 +1,204 @@
+package quantum.qm2d.model;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Play back a FrameRecording2D as a sequence of Frame2D, which a view can show exactly as the frames of a live propagator. Frames are decoded on a background thread, which reads ahead in the direction of the last seek, and the decoded frames are kept in a small cache of the least recently used ones, so that scrubbing back and forth over the same range does not decode again.
+ * 
+ * If a propagator of the same grid is given, the probability current is derived from the recorded density and phase with the mass and the grid spacing of its particle, sampled like the current of a live real-time propagator.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class FramePlayer2D {
+
+	private FrameRecording2D recording;
+	private TimePropagator2D propagator;
+	private FrameListener listener;
+	private Map<Integer, Frame2D> cache;
+	private int readAhead = 8;
+
+	private int target = -1; // the frame last asked for
+	private int direction = 1;
+	private int generation; // incremented by every seek, so that the prefetcher knows when to change its plan
+	private boolean closed;
+	private Thread prefetcher;
+
+	/**
+	 * @param propagator
+	 *            the propagator whose particle and grid are used to derive the current, or null
+	 */
+	public FramePlayer2D(FrameRecording2D recording, TimePropagator2D propagator) {
+		this.recording = recording;
+		if (propagator != null && propagator.nx == recording.getNx() && propagator.ny == recording.getNy())
+			this.propagator = propagator;
+		// the cache takes no more than an eighth of the heap
+		long frameBytes = 8L * recording.getNx() * recording.getNy();
+		final int cacheSize = (int) Math.max(readAhead + 2, Math.min(64, Runtime.getRuntime().maxMemory() / 8 / frameBytes));
+		cache = new LinkedHashMap<Integer, Frame2D>(cacheSize, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Integer, Frame2D> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		prefetcher = new Thread(new Runnable() {
+			public void run() {
+				prefetch();
+			}
+		}, "Frame prefetcher");
+		prefetcher.setDaemon(true);
+		prefetcher.start();
+	}
+
+	public FrameRecording2D getRecording() {
+		return recording;
+	}
+
+	/** set the listener that is given a frame, on the thread of the prefetcher, when the frame last asked for has been decoded */
+	public void setFrameListener(FrameListener listener) {
+		this.listener = listener;
+	}
+
+	/** set the number of frames decoded ahead of the frame last asked for */
+	public synchronized void setReadAhead(int readAhead) {
+		if (readAhead < 0)
+			throw new IllegalArgumentException("read-ahead must not be negative: " + readAhead);
+		this.readAhead = readAhead;
+	}
+
+	public int getFrameCount() {
+		return recording.getFrameCount();
+	}
+
+	/**
+	 * Ask for a frame, which also sets the direction of reading ahead.
+	 * 
+	 * @return the frame if it has been decoded, or null if it is being decoded, in which case the frame listener will be given it
+	 */
+	public synchronized Frame2D seek(int frame) {
+		if (frame < 0 || frame >= recording.getFrameCount())
+			throw new IndexOutOfBoundsException("frame " + frame + " of " + recording.getFrameCount());
+		if (target >= 0 && frame != target)
+			direction = frame > target ? 1 : -1;
+		target = frame;
+		generation++;
+		notifyAll();
+		return cache.get(frame);
+	}
+
+	/** stop the prefetcher and close the recording */
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			prefetcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		recording.close();
+	}
+
+	private void prefetch() {
+		int g = 0, t, d, ahead, f; // nothing to do before the first seek
+		Frame2D frame;
+		while (true) {
+			synchronized (this) {
+				while (!closed && g == generation) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (closed)
+					return;
+				g = generation;
+				t = target;
+				d = direction;
+				ahead = readAhead;
+			}
+			// the frame asked for comes first, then the frames ahead of it, in increasing order within the recording, which is the order they are decoded fastest in
+			int first = d > 0 ? t + 1 : Math.max(0, t - ahead);
+			int last = d > 0 ? Math.min(recording.getFrameCount() - 1, t + ahead) : t - 1;
+			for (int i = -1; i <= last - first; i++) {
+				f = i < 0 ? t : first + i;
+				synchronized (this) {
+					if (closed || g != generation) // asked for another frame: start over
+						break;
+					if (cache.containsKey(f))
+						continue;
+				}
+				try {
+					frame = decode(f);
+				} catch (IOException e) {
+					e.printStackTrace();
+					break;
+				}
+				synchronized (this) {
+					cache.put(f, frame);
+					if (f != target || closed)
+						continue;
+				}
+				if (listener != null)
+					listener.frameCompleted(frame);
+			}
+		}
+	}
+
+	private Frame2D decode(int f) throws IOException {
+		int nx = recording.getNx(), ny = recording.getNy();
+		Frame2D frame = new Frame2D(nx, ny);
+		recording.readFrame(f, frame.amplitude, frame.phase);
+		frame.quantities = OutputDemand.AMPLITUDE | (recording.isPhaseRecorded() ? OutputDemand.PHASE : 0);
+		frame.step = recording.getStep(f);
+		frame.time = recording.getTime(f);
+		if (propagator != null) {
+			frame.timeStep = propagator.timeStep;
+		} else if (frame.step > 0) {
+			frame.timeStep = frame.time / frame.step;
+		}
+		if (recording.isPhaseRecorded() && propagator instanceof RealTimePropagator2D) {
+			computeCurrent(frame, ((RealTimePropagator2D) propagator).currentSteps);
+			frame.quantities |= OutputDemand.CURRENT;
+		}
+		return frame;
+	}
+
+	/*
+	 * Derive the probability current sampled like RealTimePropagator2D does from psi. With psi = sqrt(a) exp(i p), the term Re(psi[k]) Im(psi[m]) - Im(psi[k]) Re(psi[m]) of the central difference is sqrt(a[k] a[m]) sin(p[m] - p[k]).
+	 */
+	private void computeCurrent(Frame2D frame, int steps) {
+		int nx = recording.getNx(), ny = recording.getNy();
+		int mx = Math.round((float) nx / (float) steps);
+		int my = Math.round((float) ny / (float) steps);
+		frame.currentX = new float[mx][my];
+		frame.currentY = new float[mx][my];
+		float cx = 0.5f / (propagator.deltaX * propagator.particle.getMass());
+		float cy = 0.5f / (propagator.deltaY * propagator.particle.getMass());
+		float inv = 1f / steps;
+		float[][] a = frame.amplitude, p = frame.phase;
+		float[] jx, jy;
+		for (int i = 0; i < nx; i++) {
+			if ((i - 1) % steps == 0 && i < nx - 1) {
+				jx = frame.currentX[Math.round(i * inv)];
+				for (int j = 0; j < ny; j += steps)
+					jx[Math.round(j * inv)] = (flux(a[i][j], a[i + 1][j], p[i + 1][j] - p[i][j]) - flux(a[i][j], a[i - 1][j], p[i - 1][j] - p[i][j])) * cx;
+			}
+			if (i % steps == 0) {
+				jy = frame.currentY[Math.round(i * inv)];
+				for (int j = 1; j < ny - 1; j += steps)
+					jy[Math.round(j * inv)] = (flux(a[i][j], a[i][j + 1], p[i][j + 1] - p[i][j]) - flux(a[i][j], a[i][j - 1], p[i][j - 1] - p[i][j])) * cy;
+			}
+		}
+	}
+
+	private static float flux(float a1, float a2, float dp) {
+		return (float) (Math.sqrt(a1 * a2) * Math.sin(dp));
+	}
+
+}
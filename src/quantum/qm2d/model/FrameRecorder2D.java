@@ -0,0 +1,392 @@
+package quantum.qm2d.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Record the probability density, and optionally the phase, of a 2D propagator every few steps to a file, to be read back by FrameRecording2D.
+ * 
+ * The propagator only copies a frame into a free buffer and queues it. A writer thread quantizes it, the density on a logarithmic scale (with a dynamic range of a number of decades below the maximum of the frame) and the phase on a uniform scale, to 8 or 16 bits. The frames are grouped into chunks: the first frame of a chunk is stored as it is and each of the others as its difference from the previous one, and a chunk is deflated as a whole. The propagator never waits for the disk: when all the buffers are in the queue, the frame is dropped and counted.
+ * 
+ * The file starts with a header (the magic number, the version, nx, ny, the flags, the number of frames per chunk, the dynamic range and the length of the model in XML), followed by the model in UTF-8 (if given, see setXml), the chunks, an index (the offset and the length of each chunk, the step, the time and the maximum density of each frame), and a trailer (the offset of the index and the magic number). All numbers are big-endian.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class FrameRecorder2D implements FrameListener {
+
+	final static int MAGIC = 0x51574652; // QWFR
+	final static int VERSION = 2;
+	final static int PHASE = 1;
+	final static int SIXTEEN_BITS = 2;
+	final static int HEADER_LENGTH = 32;
+	final static int TRAILER_LENGTH = 12;
+
+	private final static Sample END = new Sample(0, false);
+
+	private File file;
+	private String xml;
+	private int interval = 10;
+	private boolean phaseRecorded;
+	private int bits = 16;
+	private float dynamicRange = 8;
+	private int chunkSize = 16;
+	private int capacity = 8;
+
+	private TimePropagator2D propagator;
+	private OutputDemand demand;
+	private int nx, ny;
+	private int lastStep;
+	private volatile int recordedCount, droppedCount;
+	private BlockingQueue<Sample> queue, free;
+	private Thread writer;
+	private volatile IOException error;
+
+	public FrameRecorder2D(File file) {
+		this.file = file;
+	}
+
+	/** set the model in the .qwb format that is stored with the frames, so that a player can show them with the model */
+	public void setXml(String xml) {
+		this.xml = xml;
+	}
+
+	/** set the number of time steps between two recorded frames */
+	public void setInterval(int interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("interval must be positive: " + interval);
+		this.interval = interval;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/** record the phase as well, so that the complex wave function can be reconstructed */
+	public void setPhaseRecorded(boolean b) {
+		phaseRecorded = b;
+	}
+
+	public boolean isPhaseRecorded() {
+		return phaseRecorded;
+	}
+
+	/** set the number of bits of a quantized value, 8 or 16 */
+	public void setBits(int bits) {
+		if (bits != 8 && bits != 16)
+			throw new IllegalArgumentException("bits must be 8 or 16: " + bits);
+		this.bits = bits;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	/** set the number of decades below the maximum of a frame that the logarithmic scale of the density covers. Smaller densities are recorded as zero. */
+	public void setDynamicRange(float decades) {
+		if (decades <= 0)
+			throw new IllegalArgumentException("dynamic range must be positive: " + decades);
+		dynamicRange = decades;
+	}
+
+	public float getDynamicRange() {
+		return dynamicRange;
+	}
+
+	/** set the number of frames compressed together. A larger chunk compresses better, but a frame takes longer to read back. */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	/** set the number of frames that can wait for the writer before a new one is dropped */
+	public void setCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		this.capacity = capacity;
+	}
+
+	public int getRecordedFrameCount() {
+		return recordedCount;
+	}
+
+	/** @return the number of frames dropped because the writer could not keep up */
+	public int getDroppedFrameCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Open the file and start recording the frames of the propagator.
+	 */
+	public void start(TimePropagator2D propagator) throws IOException {
+		if (this.propagator != null)
+			throw new IllegalStateException("The recorder has already been started.");
+		this.propagator = propagator;
+		nx = propagator.nx;
+		ny = propagator.ny;
+		lastStep = -1;
+		recordedCount = droppedCount = 0;
+		error = null;
+		queue = new ArrayBlockingQueue<Sample>(capacity + 1); // one more for END
+		free = new ArrayBlockingQueue<Sample>(capacity);
+		for (int i = 0; i < capacity; i++)
+			free.add(new Sample(nx * ny, phaseRecorded));
+		final Encoder encoder = new Encoder(file);
+		writer = new Thread(new Runnable() {
+			public void run() {
+				Sample s;
+				try {
+					while ((s = queue.take()) != END) {
+						if (error == null) {
+							try {
+								encoder.add(s);
+							} catch (IOException e) {
+								error = e;
+							}
+						}
+						free.add(s);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				try {
+					encoder.close(error == null);
+				} catch (IOException e) {
+					if (error == null)
+						error = e;
+				}
+			}
+		}, "Frame recorder");
+		writer.setPriority(Thread.MIN_PRIORITY);
+		writer.start();
+		demand = new OutputDemand(OutputDemand.AMPLITUDE | (phaseRecorded ? OutputDemand.PHASE : 0), interval);
+		propagator.addFrameListener(this);
+		propagator.addOutputDemand(demand);
+	}
+
+	/**
+	 * Stop recording, wait for the queued frames to be written and close the file.
+	 * 
+	 * @throws IOException
+	 *             if writing the file has failed
+	 */
+	public void stop() throws IOException {
+		if (propagator == null)
+			return;
+		propagator.removeOutputDemand(demand);
+		propagator.removeFrameListener(this);
+		propagator = null;
+		try {
+			queue.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted");
+		}
+		if (error != null)
+			throw error;
+	}
+
+	public void frameCompleted(Frame2D frame) {
+		if (!frame.contains(OutputDemand.AMPLITUDE) || (phaseRecorded && !frame.contains(OutputDemand.PHASE)))
+			return;
+		if (frame.step % interval != 0 || frame.step == lastStep) // the frame of a reset has the same step as the next one
+			return;
+		lastStep = frame.step;
+		Sample s = free.poll();
+		if (s == null) {
+			droppedCount++;
+			return;
+		}
+		for (int i = 0; i < nx; i++) {
+			System.arraycopy(frame.amplitude[i], 0, s.amplitude, i * ny, ny);
+			if (s.phase != null)
+				System.arraycopy(frame.phase[i], 0, s.phase, i * ny, ny);
+		}
+		s.step = frame.step;
+		s.time = frame.time;
+		queue.add(s);
+		recordedCount++;
+	}
+
+	/* a frame waiting in the queue */
+	private static class Sample {
+
+		final float[] amplitude, phase;
+		int step;
+		float time;
+
+		Sample(int n, boolean phase) {
+			amplitude = new float[n];
+			this.phase = phase ? new float[n] : null;
+		}
+
+	}
+
+	/* quantize, delta-encode and deflate the frames on the writer thread */
+	private class Encoder {
+
+		private RandomAccessFile raf;
+		private FileChannel channel;
+		private int n;
+		private int maxQ;
+		private int[] q, previous;
+		private byte[] chunk;
+		private int chunkLength, chunkFrames;
+		private byte[] buffer = new byte[65536];
+		private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private ByteArrayOutputStream chunkIndex = new ByteArrayOutputStream(), frameIndex = new ByteArrayOutputStream();
+		private DataOutputStream chunkIndexOut = new DataOutputStream(chunkIndex), frameIndexOut = new DataOutputStream(frameIndex);
+		private int frameCount, chunkCount;
+
+		Encoder(File file) throws IOException {
+			n = nx * ny;
+			maxQ = (1 << bits) - 1;
+			q = new int[n];
+			previous = new int[phaseRecorded ? 2 * n : n];
+			chunk = new byte[chunkSize * previous.length * bits / 8];
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+			channel = raf.getChannel();
+			byte[] text = xml != null ? xml.getBytes("UTF-8") : new byte[0];
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + text.length);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(nx);
+			header.putInt(ny);
+			header.putInt((phaseRecorded ? PHASE : 0) | (bits == 16 ? SIXTEEN_BITS : 0));
+			header.putInt(chunkSize);
+			header.putFloat(dynamicRange);
+			header.putInt(text.length);
+			header.put(text);
+			header.flip();
+			write(header);
+		}
+
+		void add(Sample s) throws IOException {
+			float max = 0;
+			for (int k = 0; k < n; k++) {
+				if (s.amplitude[k] > max)
+					max = s.amplitude[k];
+			}
+			quantizeAmplitude(s.amplitude, max);
+			put(0);
+			if (s.phase != null) {
+				quantizePhase(s.phase);
+				put(n);
+			}
+			frameIndexOut.writeInt(s.step);
+			frameIndexOut.writeFloat(s.time);
+			frameIndexOut.writeFloat(max);
+			frameCount++;
+			if (++chunkFrames == chunkSize)
+				flushChunk();
+		}
+
+		private void quantizeAmplitude(float[] a, float max) {
+			if (max <= 0) {
+				for (int k = 0; k < n; k++)
+					q[k] = 0;
+				return;
+			}
+			double logMax = Math.log(max);
+			double span = dynamicRange * Math.log(10);
+			double logMin = logMax - span;
+			double f = (maxQ - 1) / span;
+			for (int k = 0; k < n; k++) {
+				// zero is reserved for the values below the range
+				if (a[k] <= 0) {
+					q[k] = 0;
+				} else {
+					double x = Math.log(a[k]) - logMin;
+					q[k] = x < 0 ? 0 : 1 + (int) Math.round(x * f);
+				}
+			}
+		}
+
+		private void quantizePhase(float[] p) {
+			double f = (maxQ + 1) / (2 * Math.PI);
+			for (int k = 0; k < n; k++)
+				q[k] = (int) Math.round((p[k] + Math.PI) * f) & maxQ;
+		}
+
+		/* append the values of q, as differences from the previous frame except for the first frame of a chunk. The high bytes of 16-bit values are grouped before the low bytes, which deflate better. */
+		private void put(int offset) {
+			int d;
+			boolean first = chunkFrames == 0;
+			int low = chunkLength + (bits == 16 ? n : 0);
+			for (int k = 0; k < n; k++) {
+				d = first ? q[k] : (q[k] - previous[offset + k]) & maxQ;
+				previous[offset + k] = q[k];
+				if (bits == 16) {
+					chunk[chunkLength + k] = (byte) (d >> 8);
+					chunk[low + k] = (byte) d;
+				} else {
+					chunk[chunkLength + k] = (byte) d;
+				}
+			}
+			chunkLength += n * bits / 8;
+		}
+
+		private void flushChunk() throws IOException {
+			if (chunkFrames == 0)
+				return;
+			long offset = channel.position();
+			deflater.reset();
+			deflater.setInput(chunk, 0, chunkLength);
+			deflater.finish();
+			int length = 0, k;
+			while (!deflater.finished()) {
+				k = deflater.deflate(buffer);
+				write(ByteBuffer.wrap(buffer, 0, k));
+				length += k;
+			}
+			chunkIndexOut.writeLong(offset);
+			chunkIndexOut.writeInt(length);
+			chunkCount++;
+			chunkLength = 0;
+			chunkFrames = 0;
+		}
+
+		/* write the last chunk, the index and the trailer, and close the file. An incomplete file is left without an index. */
+		void close(boolean complete) throws IOException {
+			try {
+				if (complete) {
+					flushChunk();
+					long indexOffset = channel.position();
+					ByteBuffer b = ByteBuffer.allocate(8);
+					b.putInt(frameCount);
+					b.putInt(chunkCount);
+					b.flip();
+					write(b);
+					write(ByteBuffer.wrap(chunkIndex.toByteArray()));
+					write(ByteBuffer.wrap(frameIndex.toByteArray()));
+					b = ByteBuffer.allocate(TRAILER_LENGTH);
+					b.putLong(indexOffset);
+					b.putInt(MAGIC);
+					b.flip();
+					write(b);
+				}
+			} finally {
+				deflater.end();
+				raf.close();
+			}
+		}
+
+		private void write(ByteBuffer b) throws IOException {
+			while (b.hasRemaining())
+				channel.write(b);
+		}
+
+	}
+
+}
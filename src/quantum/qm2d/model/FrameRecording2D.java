@@ -0,0 +1,265 @@
+package quantum.qm2d.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A file written by FrameRecorder2D, whose frames can be read in any order. Reading a frame inflates its chunk, which is kept for the next frames of the same chunk, and adds up the differences from the first frame of the chunk. The file is memory-mapped when it fits in a single mapping, so reading a chunk costs no system call once its pages are cached. The quantized values are converted back through lookup tables.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class FrameRecording2D {
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer map; // null if the file is too large to be mapped at once
+	private String xml;
+	private int nx, ny;
+	private boolean phaseRecorded;
+	private int bits;
+	private int chunkSize;
+	private float dynamicRange;
+	private int frameCount;
+	private long[] chunkOffset;
+	private int[] chunkLength;
+	private int[] step;
+	private float[] time, max;
+
+	private int cachedChunk = -1;
+	private byte[] chunk, compressed;
+	private int[] amplitudeQ, phaseQ;
+	private int decodedFrame = -1; // the frame of the chunk that amplitudeQ and phaseQ hold
+	private float[] amplitudeTable, phaseTable; // the values of the quantized amplitude relative to the maximum, and of the quantized phase
+
+	public FrameRecording2D(File file) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		try {
+			channel = raf.getChannel();
+			long size = channel.size();
+			if (size <= Integer.MAX_VALUE)
+				map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (size < 8 + FrameRecorder2D.TRAILER_LENGTH)
+				throw new IOException(file + " is not a recording.");
+			ByteBuffer b = read(0, 8);
+			if (b.getInt() != FrameRecorder2D.MAGIC)
+				throw new IOException(file + " is not a recording.");
+			int version = b.getInt();
+			if (version != 1 && version != FrameRecorder2D.VERSION)
+				throw new IOException("Unsupported version of recording: " + version);
+			int headerLength = version == 1 ? 28 : FrameRecorder2D.HEADER_LENGTH; // the first version has no model
+			if (size < headerLength + FrameRecorder2D.TRAILER_LENGTH)
+				throw new IOException(file + " is not a recording.");
+			b = read(8, headerLength - 8);
+			nx = b.getInt();
+			ny = b.getInt();
+			int flags = b.getInt();
+			phaseRecorded = (flags & FrameRecorder2D.PHASE) != 0;
+			bits = (flags & FrameRecorder2D.SIXTEEN_BITS) != 0 ? 16 : 8;
+			chunkSize = b.getInt();
+			dynamicRange = b.getFloat();
+			if (version > 1) {
+				int textLength = b.getInt();
+				if (textLength < 0 || headerLength + (long) textLength > size - FrameRecorder2D.TRAILER_LENGTH)
+					throw new IOException(file + " is corrupted.");
+				if (textLength > 0)
+					xml = new String(read(headerLength, textLength).array(), "UTF-8");
+				headerLength += textLength;
+			}
+			if (nx < 1 || ny < 1 || chunkSize < 1)
+				throw new IOException(file + " is corrupted.");
+			b = read(size - FrameRecorder2D.TRAILER_LENGTH, FrameRecorder2D.TRAILER_LENGTH);
+			long indexOffset = b.getLong();
+			if (b.getInt() != FrameRecorder2D.MAGIC || indexOffset < headerLength || indexOffset > size - FrameRecorder2D.TRAILER_LENGTH - 8)
+				throw new IOException(file + " is incomplete: the recording was not stopped properly.");
+			b = read(indexOffset, (int) (size - FrameRecorder2D.TRAILER_LENGTH - indexOffset));
+			frameCount = b.getInt();
+			int chunkCount = b.getInt();
+			if (b.remaining() != 12L * chunkCount + 12L * frameCount)
+				throw new IOException(file + " is corrupted.");
+			chunkOffset = new long[chunkCount];
+			chunkLength = new int[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				chunkOffset[i] = b.getLong();
+				chunkLength[i] = b.getInt();
+			}
+			step = new int[frameCount];
+			time = new float[frameCount];
+			max = new float[frameCount];
+			for (int i = 0; i < frameCount; i++) {
+				step[i] = b.getInt();
+				time[i] = b.getFloat();
+				max[i] = b.getFloat();
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		int n = nx * ny;
+		chunk = new byte[chunkSize * n * (phaseRecorded ? 2 : 1) * bits / 8];
+		amplitudeQ = new int[n];
+		if (phaseRecorded)
+			phaseQ = new int[n];
+		int maxQ = (1 << bits) - 1;
+		double span = dynamicRange * Math.log(10);
+		double d = span / (maxQ - 1);
+		amplitudeTable = new float[maxQ + 1];
+		for (int q = 1; q <= maxQ; q++)
+			amplitudeTable[q] = (float) Math.exp((q - 1) * d - span);
+		if (phaseRecorded) {
+			d = 2 * Math.PI / (maxQ + 1);
+			phaseTable = new float[maxQ + 1];
+			for (int q = 0; q <= maxQ; q++)
+				phaseTable[q] = (float) (q * d - Math.PI);
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		read(position, b.array(), length);
+		return b;
+	}
+
+	private void read(long position, byte[] a, int length) throws IOException {
+		if (map != null) {
+			ByteBuffer b = map.duplicate();
+			b.position((int) position);
+			b.get(a, 0, length);
+			return;
+		}
+		ByteBuffer b = ByteBuffer.wrap(a, 0, length);
+		while (b.hasRemaining()) {
+			if (channel.read(b, position + b.position()) < 0)
+				throw new IOException("Unexpected end of file");
+		}
+	}
+
+	public void close() throws IOException {
+		map = null;
+		raf.close();
+	}
+
+	/** @return the model in the .qwb format that the frames were recorded with, or null if it was not stored */
+	public String getXml() {
+		return xml;
+	}
+
+	public int getNx() {
+		return nx;
+	}
+
+	public int getNy() {
+		return ny;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public boolean isPhaseRecorded() {
+		return phaseRecorded;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	/** @return the number of the time step of the frame */
+	public int getStep(int frame) {
+		return step[frame];
+	}
+
+	public float getTime(int frame) {
+		return time[frame];
+	}
+
+	/**
+	 * Read a frame into the arrays (nx by ny). The phase is read only if it has been recorded and the array is not null.
+	 */
+	public synchronized void readFrame(int frame, float[][] amplitude, float[][] phase) throws IOException {
+		if (frame < 0 || frame >= frameCount)
+			throw new IndexOutOfBoundsException("frame " + frame + " of " + frameCount);
+		int c = frame / chunkSize;
+		if (c != cachedChunk) {
+			cachedChunk = -1;
+			inflate(c);
+			cachedChunk = c;
+			decodedFrame = -1;
+		}
+		int f = frame % chunkSize;
+		if (f < decodedFrame)
+			decodedFrame = -1;
+		for (int i = decodedFrame + 1; i <= f; i++)
+			decode(i);
+		decodedFrame = f;
+
+		float m = max[frame];
+		float[] a;
+		int k = 0;
+		for (int i = 0; i < nx; i++) {
+			a = amplitude[i];
+			for (int j = 0; j < ny; j++, k++)
+				a[j] = m * amplitudeTable[amplitudeQ[k]];
+		}
+		if (phaseRecorded && phase != null) {
+			k = 0;
+			for (int i = 0; i < nx; i++) {
+				a = phase[i];
+				for (int j = 0; j < ny; j++, k++)
+					a[j] = phaseTable[phaseQ[k]];
+			}
+		}
+	}
+
+	private void inflate(int c) throws IOException {
+		if (compressed == null || compressed.length < chunkLength[c])
+			compressed = new byte[chunkLength[c]];
+		read(chunkOffset[c], compressed, chunkLength[c]);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed, 0, chunkLength[c]);
+			int length = 0, k;
+			while (!inflater.finished()) {
+				k = inflater.inflate(chunk, length, chunk.length - length);
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Chunk " + c + " is truncated.");
+				length += k;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/* apply the values of the f-th frame of the cached chunk to the quantized arrays */
+	private void decode(int f) {
+		int n = nx * ny;
+		int bytes = n * bits / 8;
+		int offset = f * bytes * (phaseRecorded ? 2 : 1);
+		decode(f == 0, offset, amplitudeQ);
+		if (phaseRecorded)
+			decode(f == 0, offset + bytes, phaseQ);
+	}
+
+	private void decode(boolean first, int offset, int[] q) {
+		int n = q.length;
+		int maxQ = (1 << bits) - 1;
+		int d;
+		for (int k = 0; k < n; k++) {
+			if (bits == 16) {
+				d = ((chunk[offset + k] & 0xff) << 8) | (chunk[offset + n + k] & 0xff);
+			} else {
+				d = chunk[offset + k] & 0xff;
+			}
+			q[k] = first ? d : (q[k] + d) & maxQ;
+		}
+	}
+
+}
@@ -7,6 +7,7 @@ import java.util.Arrays;
 
 import quantum.math.FloatComplex;
 import quantum.qm2d.QuantumBox;
+import quantum.qmshared.EngineMetrics;
 import quantum.qmshared.Particle;
 
 /**
@@ -24,6 +25,7 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 	private float[] hxSubDiagonal, hxDiagonal, hxSupDiagonal;
 	private float[] hySubDiagonal, hyDiagonal, hySupDiagonal;
 	private float[][] psi;
+	private float[][] diagonal; // V dt/2 of the static potential, rebuilt only when it changes
 	private float[] phix, phiy;
 
 	public ImaginaryTimePropagator2D(Particle particle, int nx, int ny, float xmin, float xmax, float ymin, float ymax) {
@@ -40,20 +42,16 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 	}
 
 	public void destroy() {
-		lock.lock();
-		try {
-			super.destroy();
-			phase = null;
-			psi = null;
-			hxSubDiagonal = null;
-			hySubDiagonal = null;
-			hxDiagonal = null;
-			hyDiagonal = null;
-			hxSupDiagonal = null;
-			hySupDiagonal = null;
-		} finally {
-			lock.unlock();
-		}
+		super.destroy();
+		phase = null;
+		psi = null;
+		diagonal = null;
+		hxSubDiagonal = null;
+		hySubDiagonal = null;
+		hxDiagonal = null;
+		hyDiagonal = null;
+		hxSupDiagonal = null;
+		hySupDiagonal = null;
 	}
 
 	/*
@@ -61,39 +59,26 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 	 */
 	private void solveXTridiagMatrix(int j) {
 		float p = timeStep * ax;
-		if (iStep < 1) {
-			Arrays.fill(hxSubDiagonal, -p);
-			Arrays.fill(hxSupDiagonal, -p);
-		}
 		// when we split the d^2/dx^2 operator, we also split the potential energy operator
 		// into half to go with it. The reason that it is half is because x and y direction
 		// should be completely equivalent--we should not create a biased division for the
 		// potential.
-		float p2;
-		float xi;
-		float yj = ymin + j * deltaY;
-		float time = timeStep * iStep;
-		float bterm = 0;
-		if (bField != null) {
-			bterm = bField.getValue(time) * particle.getCharge();
-			bterm *= bterm;
-			bterm *= 0.125f / particle.getMass();
-		}
+		float h = 0.5f * timeStep; // 0.5 is due to potential splitting cited above
+		float c = -2 * p;
+		if (eField != null)
+			c += eFieldY[j] * h;
 		for (int i = 0; i < nx; i++) {
-			p2 = staticRealPotential[i][j];
-			if (eField != null) {
-				xi = xmin + i * deltaX;
-				p2 += particle.getCharge() * eField.getPotential(xi, yj, time);
-			}
-			if (bField != null) {
-				xi = xmin + i * deltaX;
-				p2 += bterm * xi * xi * ENERGY_UNIT_CONVERTER;
-			}
-			p2 *= 0.5f * timeStep; // 0.5 is due to potential splitting cited above
-			p2 -= 2 * p;
-			hxDiagonal[i] = p2;
+			hxDiagonal[i] = diagonal[i][j] + c;
 			phix[i] = psi[i][j];
 		}
+		if (eField != null) {
+			for (int i = 0; i < nx; i++)
+				hxDiagonal[i] += eFieldX[i] * h;
+		}
+		if (bField != null) {
+			for (int i = 0; i < nx; i++)
+				hxDiagonal[i] += bFieldX[i] * h;
+		}
 		phix = nextStep(phix, hxSubDiagonal, hxDiagonal, hxSupDiagonal);
 		for (int i = 0; i < nx; i++) {
 			psi[i][j] += phix[i];
@@ -116,39 +101,26 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 	 */
 	private void solveYTridiagMatrix(int i) {
 		float p = timeStep * ay;
-		if (iStep < 1) {
-			Arrays.fill(hySubDiagonal, -p);
-			Arrays.fill(hySupDiagonal, -p);
-		}
 		// when we split the d^2/dy^2 operator, we also split the potential energy operator
 		// into half to go with it. The reason that it is half is because x and y direction
 		// should be completely equivalent--we should not create a biased division for the
 		// potential.
-		float p2;
-		float xi = xmin + i * deltaX;
-		float yj;
-		float time = timeStep * iStep;
-		float bterm = 0;
-		if (bField != null) {
-			bterm = bField.getValue(time) * particle.getCharge();
-			bterm *= bterm;
-			bterm *= 0.125f / particle.getMass();
-		}
+		float h = 0.5f * timeStep; // 0.5 is due to potential splitting cited above
+		float c = -2 * p;
+		if (eField != null)
+			c += eFieldX[i] * h;
 		for (int j = 0; j < ny; j++) {
-			p2 = staticRealPotential[i][j];
-			if (eField != null) {
-				yj = ymin + j * deltaY;
-				p2 += particle.getCharge() * eField.getPotential(xi, yj, time);
-			}
-			if (bField != null) {
-				yj = ymin + j * deltaY;
-				p2 += bterm * yj * yj * ENERGY_UNIT_CONVERTER;
-			}
-			p2 *= 0.5f * timeStep; // 0.5 is due to potential splitting cited above
-			p2 -= 2 * p;
-			hyDiagonal[j] = p2;
+			hyDiagonal[j] = diagonal[i][j] + c;
 			phiy[j] = psi[i][j];
 		}
+		if (eField != null) {
+			for (int j = 0; j < ny; j++)
+				hyDiagonal[j] += eFieldY[j] * h;
+		}
+		if (bField != null) {
+			for (int j = 0; j < ny; j++)
+				hyDiagonal[j] += bFieldY[j] * h;
+		}
 		phiy = nextStep(phiy, hySubDiagonal, hyDiagonal, hySupDiagonal);
 		for (int j = 0; j < ny; j++) {
 			psi[i][j] += phiy[j];
@@ -170,17 +142,17 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 				amplitude[i][j] = psi[i][j] * psi[i][j];
 			}
 		}
-		requestVisualization();
+		requestVisualization(OutputDemand.AMPLITUDE);
 	}
 
 	void normalizePsi() {
-		sum = 0;
+		double s = 0;
 		for (int i = 0; i < nx; i++) {
 			for (int j = 0; j < ny; j++) {
-				sum += psi[i][j] * psi[i][j];
+				s += psi[i][j] * psi[i][j];
 			}
 		}
-		sum = (float) (1.0 / Math.sqrt(sum));
+		sum = (float) (1.0 / Math.sqrt(s));
 		for (int i = 0; i < nx; i++) {
 			for (int j = 0; j < ny; j++) {
 				psi[i][j] *= sum;
@@ -188,6 +160,16 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 		}
 	}
 
+	void copyWaveFunction(float[] re, float[] im) {
+		for (int i = 0; i < nx; i++)
+			System.arraycopy(psi[i], 0, re, i * ny, ny);
+	}
+
+	void setWaveFunction(float[] re, float[] im) {
+		for (int i = 0; i < nx; i++)
+			System.arraycopy(re, i * ny, psi[i], 0, ny);
+	}
+
 	void addWaveFunction(FloatComplex[][] wf) {
 		for (int i = 0; i < nx; i++) {
 			for (int j = 0; j < ny; j++) {
@@ -196,45 +178,73 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 		}
 	}
 
-	void nextStep() {
-		lock.lock();
-		try {
-			for (int j = 0; j < ny; j++) {
-				solveXTridiagMatrix(j);
-			}
+	/* rebuild the table of the static potential if needed and compute the per-row and per-column terms of this step */
+	private void updateDiagonals() {
+		if (staticPotentialChanged) {
+			staticPotentialChanged = false;
+			if (diagonal == null)
+				diagonal = new float[nx][ny];
+			float h = 0.5f * timeStep;
+			int k = 0;
 			for (int i = 0; i < nx; i++) {
-				solveYTridiagMatrix(i);
-			}
-			normalizePsi();
-			if (iStep % OUTPUT_INTERVAL == 0) {
-				outputProperties();
+				for (int j = 0; j < ny; j++, k++) {
+					diagonal[i][j] = staticRealPotential[k] * h;
+				}
 			}
-			iStep++;
-		} finally {
-			lock.unlock();
+			// the off-diagonals depend only on the time step and the mass, whose changes also set the flag
+			Arrays.fill(hxSubDiagonal, -timeStep * ax);
+			Arrays.fill(hxSupDiagonal, -timeStep * ax);
+			Arrays.fill(hySubDiagonal, -timeStep * ay);
+			Arrays.fill(hySupDiagonal, -timeStep * ay);
 		}
+		if (eField != null || bField != null)
+			calculateFieldTerms(timeStep * iStep);
 	}
 
-	void outputProperties() {
-		sum = 0;
+	void nextStep() {
+		long t = System.nanoTime();
+		updateDiagonals();
+		t = metrics.lap(EngineMetrics.PREPARE, t);
+		for (int j = 0; j < ny; j++) {
+			solveXTridiagMatrix(j);
+		}
+		t = metrics.lap(EngineMetrics.X_SWEEP, t);
 		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				amplitude[i][j] = psi[i][j] * psi[i][j];
-				sum += amplitude[i][j];
+			solveYTridiagMatrix(i);
+		}
+		t = metrics.lap(EngineMetrics.Y_SWEEP, t);
+		normalizePsi();
+		metrics.lap(EngineMetrics.PREPARE, t);
+		int output = getDemandedOutput(iStep);
+		if (output != 0)
+			output(output);
+		iStep++;
+	}
+
+	void outputProperties(int quantities) {
+		quantities &= ~(OutputDemand.PHASE | OutputDemand.CURRENT); // a real wave function has neither
+		if ((quantities & OutputDemand.AMPLITUDE) != 0) {
+			double s = 0;
+			for (int i = 0; i < nx; i++) {
+				for (int j = 0; j < ny; j++) {
+					amplitude[i][j] = psi[i][j] * psi[i][j];
+					s += amplitude[i][j];
+				}
 			}
+			sum = (float) s;
 		}
 		if (xBoundary == null && yBoundary == null) {
-			if (computeExpectation) {
+			if ((quantities & OutputDemand.EXPECTATION) != 0) {
 				calculatePosition();
 				calculateMomentum();
 			}
-			if (computeEnergy) {
+			if ((quantities & OutputDemand.ENERGY) != 0) {
 				calculateKineticEnergy();
 				calculatePotentialEnergy();
 				totE = kinE + potE;
 			}
 		}
-		requestVisualization();
+		requestVisualization(quantities);
 		if (QuantumBox.getLogLevel() == 1) {
 			if (iStep % 20 == 0) {
 				System.out.printf(">>> %5.0f = %10.5f, %10.5f, %10.5f, %10.5f, %10.5f, %10.5f, %10.5f, %10.5f\n", iStep * timeStep, sum, totE, kinE, potE, position.x, position.y, momentum.x, momentum.y);
@@ -243,38 +253,35 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 	}
 
 	void calculatePosition() {
-		position.x = position.y = 0;
+		double x = 0, y = 0;
 		float c;
 		for (int i = 0; i < nx; i++) {
 			for (int j = 0; j < ny; j++) {
 				c = psi[i][j];
-				position.x += c * c * i;
-				position.y += c * c * j;
+				x += c * c * i;
+				y += c * c * j;
 			}
 		}
-		position.x = xmin + deltaX * position.x;
-		position.y = ymin + deltaY * position.y;
+		position.x = (float) (xmin + deltaX * x);
+		position.y = (float) (ymin + deltaY * y);
 	}
 
 	void calculateMomentum() {
 	}
 
 	void resetCurrent() {
-
-	}
-
-	void calculateCurrent() {
 	}
 
 	void calculatePotentialEnergy() {
-		potE = 0;
+		double e = 0;
 		float p;
 		float time = timeStep * iStep;
 		float x, y;
+		int k = 0;
 		for (int i = 0; i < nx; i++) {
 			x = xmin + deltaX * i;
-			for (int j = 0; j < ny; j++) {
-				p = staticRealPotential[i][j];
+			for (int j = 0; j < ny; j++, k++) {
+				p = staticRealPotential[k];
 				if (eField != null) {
 					y = ymin + deltaY * j;
 					p += particle.getCharge() * eField.getPotential(x, y, time);
@@ -283,28 +290,27 @@ public class ImaginaryTimePropagator2D extends TimePropagator2D {
 					y = ymin + deltaY * j;
 					p += 0.125f * particle.getCharge() * particle.getCharge() * bField.getValue(time) * bField.getValue(time) * (x * x + y * y) / particle.getMass();
 				}
-				potE += psi[i][j] * p * psi[i][j];
+				e += psi[i][j] * p * psi[i][j];
 			}
 		}
+		potE = (float) e;
 	}
 
 	void calculateKineticEnergy() {
-		kinE = 0;
-		float kex = 0;
+		double kex = 0;
 		for (int j = 0; j < ny; j++) {
 			for (int i = 1; i < nx - 1; i++) {
 				kex += psi[i][j] * (psi[i + 1][j] - 2 * psi[i][j] + psi[i - 1][j]);
 			}
 		}
-		float key = 0;
+		double key = 0;
 		for (int i = 0; i < nx; i++) {
 			for (int j = 1; j < ny - 1; j++) {
 				key += psi[i][j] * ((psi[i][j + 1] - 2 * psi[i][j] + psi[i][j - 1]));
 			}
 		}
 		float k = -2 * particle.getMass() * MASS_UNIT_CONVERTER * ENERGY_UNIT_CONVERTER;
-		kinE = kex / (deltaX * deltaX) + key / (deltaY * deltaY);
-		kinE /= k;
+		kinE = (float) ((kex / (deltaX * deltaX) + key / (deltaY * deltaY)) / k);
 	}
 
 }
@@ -3,6 +3,7 @@ package quantum.qm2d.model;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
 
 import quantum.qmshared.Boundary;
 
@@ -20,6 +21,7 @@ public class IonicPotential extends PointPotential {
 
 	private final static float COULOMB_CONSTANT_OVER_EVNM = 2.30708f / 1.6f;
 	private float charge, offset;
+	private float e; // the charge of the particle
 
 	public IonicPotential(boolean imaginary, float e, float charge, float offset, float xcenter, float ycenter, int nx, int ny, float xmin, float xmax, float ymin, float ymax) {
 		super(imaginary, nx, ny, xmin, xmax, ymin, ymax);
@@ -27,32 +29,25 @@ public class IonicPotential extends PointPotential {
 		this.ycenter = ycenter;
 		this.charge = charge;
 		this.offset = offset;
-		float dx = (xmax - xmin) / nx;
-		float dy = (ymax - ymin) / ny;
-		float dx2, dy2;
-		float rSq;
-		if (charge != 0) {
-			float k = COULOMB_CONSTANT_OVER_EVNM * e * charge;
-			for (int i = 0; i < nx; i++) {
-				dx2 = xmin + i * dx - xcenter;
-				dx2 *= dx2;
-				for (int j = 0; j < ny; j++) {
-					dy2 = ymin + j * dy - ycenter;
-					rSq = dx2 + dy2 * dy2;
-					pot[i][j] = (float) (k * Math.sqrt(rSq) / (rSq + offset));
-				}
-			}
-		} else {
-			for (int i = 0; i < nx; i++) {
-				dx2 = xmin + i * dx - xcenter;
-				dx2 *= dx2;
-				for (int j = 0; j < ny; j++) {
-					dy2 = ymin + j * dy - ycenter;
-					rSq = dx2 + dy2 * dy2;
-					pot[i][j] = rSq > offset * offset ? 0 : 1;
-				}
-			}
-		}
+		this.e = e;
+	}
+
+	public float getValue(float x, float y) {
+		float dx = x - xcenter;
+		float dy = y - ycenter;
+		float rSq = dx * dx + dy * dy;
+		if (charge != 0)
+			return (float) (COULOMB_CONSTANT_OVER_EVNM * e * charge * Math.sqrt(rSq) / (rSq + offset));
+		return rSq > offset * offset ? 0 : 1;
+	}
+
+	/*
+	 * The Coulombic tail extends over the whole box, so a charged ion is not truncated at a cutoff radius, which would change the physics. An uncharged ion is a disk with the radius of the offset.
+	 */
+	public Rectangle2D.Float getBoundingBox() {
+		if (charge != 0)
+			return new Rectangle2D.Float(xmin, ymin, xmax - xmin, ymax - ymin);
+		return new Rectangle2D.Float(xcenter - offset, ycenter - offset, 2 * offset, 2 * offset);
 	}
 
 	public void setHalo(Ellipse2D.Float halo, Dimension d, Boundary bx, Boundary by) {
@@ -0,0 +1,85 @@
+package quantum.qm2d.model;
+
+/**
+ * The output that a consumer (a view, a script, a recorder) needs from a 2D propagator: which quantities and how often. A propagator computes at each step only the union of the quantities demanded by the consumers that are due at that step, and skips its output stage entirely when none is due. A consumer can change its demand at any time; the change takes effect at the next step.
+ * 
+ * A consumer that only shows the latest state, such as a view, demands its output at EVERY_FRAME instead of a fixed interval: it is then due at the last step of each batch of the StepScheduler while the propagator runs, and every TimePropagator2D.OUTPUT_INTERVAL steps otherwise.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class OutputDemand {
+
+	public final static int AMPLITUDE = 1;
+	public final static int PHASE = 2;
+	public final static int EXPECTATION = 4;
+	public final static int ENERGY = 8;
+	public final static int CURRENT = 16;
+	public final static int ALL = AMPLITUDE | PHASE | EXPECTATION | ENERGY | CURRENT;
+
+	/** the interval of a demand that is due whenever the propagator publishes a frame */
+	public final static int EVERY_FRAME = 0;
+
+	private volatile int quantities;
+	private volatile int interval;
+	private volatile boolean active = true;
+
+	/**
+	 * @param quantities
+	 *            a combination of AMPLITUDE, PHASE, EXPECTATION, ENERGY and CURRENT
+	 * @param interval
+	 *            the number of time steps between two outputs, or EVERY_FRAME
+	 */
+	public OutputDemand(int quantities, int interval) {
+		this.quantities = quantities;
+		setInterval(interval);
+	}
+
+	public void setQuantities(int quantities) {
+		this.quantities = quantities;
+	}
+
+	public int getQuantities() {
+		return quantities;
+	}
+
+	/** add the quantity to, or remove it from, this demand */
+	public synchronized void setQuantity(int quantity, boolean b) {
+		if (b) {
+			quantities |= quantity;
+		} else {
+			quantities &= ~quantity;
+		}
+	}
+
+	public boolean isDemanded(int quantity) {
+		return (quantities & quantity) != 0;
+	}
+
+	public void setInterval(int interval) {
+		if (interval < 0)
+			throw new IllegalArgumentException("interval must not be negative: " + interval);
+		this.interval = interval;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	/** an inactive demand (e.g. that of a view in a minimized window) is ignored by the propagator */
+	public void setActive(boolean b) {
+		active = b;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	/* frame tells whether the step ends a frame */
+	boolean isDueAt(int step, boolean frame) {
+		if (!active)
+			return false;
+		return interval == EVERY_FRAME ? frame : step % interval == 0;
+	}
+
+}
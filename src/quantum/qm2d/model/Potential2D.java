@@ -1,22 +1,68 @@
 package quantum.qm2d.model;
 
+import java.awt.geom.Rectangle2D;
+
 /**
+ * A potential is an analytic function that knows its value at any point and a bounding box outside which it is zero. It does not keep a grid of its own: it is rasterized directly into the static potentials of TimePropagator2D, visiting only the cells within the bounding box, when it is added, removed, moved or reshaped.
+ * 
  * @author Charles Xie
  * 
  */
-public abstract class Potential2D extends Shape2D {
+public abstract class Potential2D extends Shape2D implements Cloneable {
 
-	protected float[][] pot;
 	protected boolean imaginary;
+	protected int nx, ny;
 
 	public Potential2D(boolean imaginary, int nx, int ny, float xmin, float xmax, float ymin, float ymax) {
 		super(xmin, xmax, ymin, ymax);
-		pot = new float[nx][ny];
+		this.nx = nx;
+		this.ny = ny;
 		this.imaginary = imaginary;
 	}
 
-	public float[][] getPotential() {
-		return pot;
+	/** @return the value of the potential at (x, y) */
+	public abstract float getValue(float x, float y);
+
+	/** @return the smallest rectangle outside which the potential is zero */
+	public abstract Rectangle2D.Float getBoundingBox();
+
+	/**
+	 * Add sign * scale * V to the cells of the target that lie within the bounding box. The target is an nx by ny grid over the area of this potential, stored row by row: the value of cell (i, j) is at i * ny + j. Since a potential is both added and removed through this method, removing it exactly undoes adding it, up to rounding.
+	 * 
+	 * @param target
+	 *            the grid to accumulate into
+	 * @param scale
+	 *            the factor to multiply the values with
+	 * @param sign
+	 *            1 to add, -1 to subtract
+	 */
+	public void rasterize(float[] target, float scale, float sign) {
+		float dx = (xmax - xmin) / nx;
+		float dy = (ymax - ymin) / ny;
+		Rectangle2D.Float r = getBoundingBox();
+		// one cell of margin on each side absorbs rounding; the values there are zero anyway
+		int i0 = Math.max(0, (int) Math.floor((r.x - xmin) / dx) - 1);
+		int i1 = Math.min(nx, (int) Math.ceil((r.x + r.width - xmin) / dx) + 2);
+		int j0 = Math.max(0, (int) Math.floor((r.y - ymin) / dy) - 1);
+		int j1 = Math.min(ny, (int) Math.ceil((r.y + r.height - ymin) / dy) + 2);
+		float x;
+		int k;
+		for (int i = i0; i < i1; i++) {
+			x = xmin + i * dx;
+			k = i * ny + j0;
+			for (int j = j0; j < j1; j++, k++) {
+				target[k] += sign * (getValue(x, ymin + j * dy) * scale);
+			}
+		}
+	}
+
+	/** @return a copy of this potential as it is now, which stays the same when this potential is moved or reshaped */
+	public Potential2D snapshot() {
+		try {
+			return (Potential2D) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError(e.toString());
+		}
 	}
 
 	public void setImaginary(boolean imaginary) {
@@ -27,8 +73,4 @@ public abstract class Potential2D extends Shape2D {
 		return imaginary;
 	}
 
-	void destroy() {
-		pot = null;
-	}
-
 }
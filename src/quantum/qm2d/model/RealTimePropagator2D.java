@@ -7,11 +7,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import quantum.math.FloatComplex;
-import quantum.math.Vector2D;
+import quantum.math.TdmaFactorization;
 import quantum.qm2d.QuantumBox;
 import quantum.qmshared.AbsorbingBoundary;
+import quantum.qmshared.Boundary;
+import quantum.qmshared.EngineMetrics;
 import quantum.qmshared.Particle;
 
 /**
@@ -19,17 +25,33 @@ import quantum.qmshared.Particle;
  * 
  * The time evolution of a particle in a box is found to be identical to the result obtained using the spectral method of Paul Falstad, which needs to find the eigenvalues and eigenvectors.
  * 
+ * The wave function and the tridiagonal coefficients are stored as split real and imaginary float arrays. The wave function is a single row-major block in which psi(i, j) is at index i * ny + j. All the kernels work in place, so a step does not allocate any object.
+ * 
+ * The parts of the diagonals that come from the static potentials are precomputed into tables that are rebuilt only when the potentials, the boundaries, the time step, the area or the mass change. The absorbing layers and the time-dependent fields are added to them as per-row and per-column corrections.
+ * 
+ * In Suzuki mode without a magnetic field, every row of a sweep has the same kinetic-energy matrix. Its LU factorization is cached and reused from step to step until the time step, the mass or the grid changes, and all the rows of a sweep are back-substituted as one batch. The batch of the x-sweep is laid out as a structure of arrays, as the systems are contiguous in psi.
+ * 
+ * The x-sweep of the alternating-direction step solves ny independent tridiagonal systems and the y-sweep solves nx of them. When the thread count is greater than one, the rows (or columns) are partitioned into contiguous blocks that are solved concurrently in a ForkJoinPool, each block with its own solver and scratch buffers. The y-sweep does not start until all the blocks of the x-sweep have finished.
+ * 
  * @author Charles Xie
  * 
  */
 public class RealTimePropagator2D extends TimePropagator2D {
 
-	private FloatComplex[] hxSubDiagonal, hxDiagonal, hxSupDiagonal;
-	private FloatComplex[] hySubDiagonal, hyDiagonal, hySupDiagonal;
-	private FloatComplex[][] psi;
-	private FloatComplex[] phix, phiy;
-	private CayleySolver2D csx, csy;
-	private int currentSteps = 4;
+	private float[] psiRe, psiIm;
+	private float[] rhsRe, rhsIm; // right-hand sides of the batched Suzuki sweeps
+	private float[] diagRe, diagIm; // -iV dt/2 of the static potentials
+	private float[] rotRe, rotIm; // exp(-iV dt/2) of the static potentials for Suzuki's splitting
+	private float[] absorptionX, absorptionY;
+	private TdmaFactorization luX, luY;
+	private float luXp = Float.NaN, luYp = Float.NaN;
+	private Sweeper[] sweepers;
+	private List<Callable<Object>> xSweeps, ySweeps, reductions;
+	private int outputQuantities; // the quantities computed by the current reduction
+	private float[] fieldTermY; // the field terms of the potential energy per column, in the units of the potential energy
+	private ForkJoinPool pool;
+	private int threadCount = 1;
+	int currentSteps = 4; // the probability current is sampled every few cells
 	private List<Source> sources;
 
 	/*
@@ -39,20 +61,83 @@ public class RealTimePropagator2D extends TimePropagator2D {
 
 	public RealTimePropagator2D(Particle particle, int nx, int ny, float xmin, float xmax, float ymin, float ymax) {
 		super(particle, nx, ny, xmin, xmax, ymin, ymax);
-		hxDiagonal = new FloatComplex[nx];
-		hyDiagonal = new FloatComplex[ny];
-		hxSubDiagonal = new FloatComplex[nx];
-		hySubDiagonal = new FloatComplex[ny];
-		hxSupDiagonal = new FloatComplex[nx];
-		hySupDiagonal = new FloatComplex[ny];
-		psi = new FloatComplex[nx][ny];
-		phix = new FloatComplex[nx];
-		phiy = new FloatComplex[ny];
-		csx = new CayleySolver2D(nx);
-		csy = new CayleySolver2D(ny);
+		psiRe = new float[nx * ny];
+		psiIm = new float[nx * ny];
+		sweepers = new Sweeper[] { new Sweeper(0, ny, 0, nx) };
 		sources = Collections.synchronizedList(new ArrayList<Source>());
 	}
 
+	/**
+	 * Set the number of threads used to solve the tridiagonal systems of the x- and y-sweeps. One (the default) means that the sweeps run serially on the calling thread.
+	 */
+	public void setThreadCount(int n) {
+		if (n < 1)
+			n = 1;
+		final int count = n;
+		submit(new Runnable() {
+			public void run() {
+				if (count != threadCount)
+					createSweepers(count);
+			}
+		});
+	}
+
+	private void createSweepers(int n) {
+		threadCount = n;
+		shutdownPool();
+		sweepers = new Sweeper[n];
+		xSweeps = new ArrayList<Callable<Object>>(n);
+		ySweeps = new ArrayList<Callable<Object>>(n);
+		reductions = new ArrayList<Callable<Object>>(n);
+		for (int k = 0; k < n; k++) {
+			final Sweeper w = new Sweeper(k * ny / n, (k + 1) * ny / n, k * nx / n, (k + 1) * nx / n);
+			sweepers[k] = w;
+			xSweeps.add(new Callable<Object>() {
+				public Object call() {
+					sweepX(w);
+					return null;
+				}
+			});
+			ySweeps.add(new Callable<Object>() {
+				public Object call() {
+					sweepY(w);
+					return null;
+				}
+			});
+			reductions.add(new Callable<Object>() {
+				public Object call() {
+					reduce(w);
+					return null;
+				}
+			});
+		}
+		if (n > 1)
+			pool = new ForkJoinPool(n);
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Use Suzuki's exponential product to split off the potential energy operator, which leaves the same kinetic-energy tridiagonal matrix for every row and every step. The imaginary potentials and absorbing boundaries are not applied in this mode.
+	 */
+	public void setSuzukiFlag(boolean b) {
+		suzukiFlag = b;
+		staticPotentialChanged = true;
+	}
+
+	public boolean getSuzukiFlag() {
+		return suzukiFlag;
+	}
+
+	private void shutdownPool() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
 	public void addSource(Source s) {
 		sources.add(s);
 	}
@@ -76,270 +161,398 @@ public class RealTimePropagator2D extends TimePropagator2D {
 	}
 
 	private void initCurrentArray() {
-		if (current != null)
+		if (currentX != null)
 			return;
 		int mx = Math.round((float) nx / (float) currentSteps);
 		int my = Math.round((float) ny / (float) currentSteps);
-		current = new Vector2D[mx][my];
-		for (int i = 0; i < mx; i++) {
-			for (int j = 0; j < my; j++) {
-				current[i][j] = new Vector2D();
+		currentX = new float[mx][my];
+		currentY = new float[mx][my];
+	}
+
+	public void destroy() {
+		super.destroy();
+		sources.clear();
+		phase = null;
+		shutdownPool();
+		sweepers = null;
+		xSweeps = ySweeps = reductions = null;
+		psiRe = psiIm = null;
+		rhsRe = rhsIm = null;
+		diagRe = diagIm = null;
+		rotRe = rotIm = null;
+		luX = luY = null;
+		currentX = currentY = null;
+		fieldTermY = null;
+	}
+
+	private void rotatePhase() {
+		float re;
+		for (int k = 0, n = psiRe.length; k < n; k++) {
+			re = psiRe[k];
+			psiRe[k] = re * rotRe[k] - psiIm[k] * rotIm[k];
+			psiIm[k] = re * rotIm[k] + psiIm[k] * rotRe[k];
+		}
+	}
+
+	/* rebuild the tables of the static potentials if needed and compute the per-row and per-column terms of this step */
+	private void updateDiagonals() {
+		if (staticPotentialChanged) {
+			staticPotentialChanged = false; // cleared first so that a concurrent change is picked up by the next step
+			float h = 0.5f * timeStep;
+			if (suzukiFlag) {
+				if (rotRe == null) {
+					rotRe = new float[nx * ny];
+					rotIm = new float[nx * ny];
+				}
+				float angle;
+				for (int k = 0; k < rotRe.length; k++) {
+					angle = staticRealPotential[k] * h;
+					rotRe[k] = (float) Math.cos(angle);
+					rotIm[k] = -(float) Math.sin(angle);
+				}
+			} else {
+				if (diagRe == null) {
+					diagRe = new float[nx * ny];
+					diagIm = new float[nx * ny];
+				}
+				for (int k = 0; k < diagRe.length; k++) {
+					diagRe[k] = -staticImaginaryPotential[k] * h;
+					diagIm[k] = -staticRealPotential[k] * h;
+				}
 			}
 		}
+		if (!suzukiFlag) {
+			// cheap enough to redo every step, which also picks up changes made directly to the AbsorbingBoundary objects
+			absorptionX = calculateAbsorption(xBoundary, nx, absorptionX);
+			absorptionY = calculateAbsorption(yBoundary, ny, absorptionY);
+		}
+		if (eField != null || bField != null)
+			calculateFieldTerms(timeStep * iStep);
 	}
 
-	public void destroy() {
-		lock.lock();
-		try {
-			super.destroy();
-			sources.clear();
-			phase = null;
-			hxSubDiagonal = null;
-			hxDiagonal = null;
-			hxSupDiagonal = null;
-			hySubDiagonal = null;
-			hyDiagonal = null;
-			hySupDiagonal = null;
-			psi = null;
-			phix = null;
-			phiy = null;
-			current = null;
-		} finally {
-			lock.unlock();
+	private static float[] calculateAbsorption(Boundary b, int n, float[] a) {
+		if (a == null)
+			a = new float[n];
+		if (b instanceof AbsorbingBoundary) {
+			AbsorbingBoundary ab = (AbsorbingBoundary) b;
+			int lg = (int) (ab.getLengthPercentage() * n);
+			for (int i = 0; i < n; i++) {
+				if (i < lg) {
+					a[i] = ab.getAbsorption() * (lg - i);
+				} else if (i > n - lg) {
+					a[i] = ab.getAbsorption() * (lg - n + i);
+				} else {
+					a[i] = 0;
+				}
+			}
+		} else {
+			Arrays.fill(a, 0);
 		}
+		return a;
 	}
 
-	private void rotatePhase() {
-		float angle;
+	private void sweepX(Sweeper w) {
+		if (suzukiFlag && bField == null) {
+			solveXBatch(w.jStart, w.jEnd);
+		} else {
+			for (int j = w.jStart; j < w.jEnd; j++)
+				solveXTridiagMatrix(j, w);
+		}
+	}
+
+	private void sweepY(Sweeper w) {
+		if (suzukiFlag && bField == null) {
+			for (int i = w.iStart; i < w.iEnd; i++)
+				solveYRow(i);
+		} else {
+			for (int i = w.iStart; i < w.iEnd; i++)
+				solveYTridiagMatrix(i, w);
+		}
+	}
+
+	/* (re)factorize the kinetic-energy matrices of the Suzuki mode if the time step, the mass or the grid has changed */
+	private void factorize() {
+		if (rhsRe == null) {
+			rhsRe = new float[nx * ny];
+			rhsIm = new float[nx * ny];
+			luX = new TdmaFactorization(nx);
+			luY = new TdmaFactorization(ny);
+		}
+		float p = timeStep * ax;
+		if (p != luXp) {
+			luX.factorize(0, -p, 1, 2 * p, 0, -p);
+			luXp = p;
+		}
+		p = timeStep * ay;
+		if (p != luYp) {
+			luY.factorize(0, -p, 1, 2 * p, 0, -p);
+			luYp = p;
+		}
+	}
+
+	/*
+	 * Suzuki mode: the right-hand sides (1 + iH dt/2) psi of the x-sweep for columns j0 to j1 - 1 are computed and then solved as one batch with the cached factorization. The systems are contiguous (system stride 1) and the elements are ny apart.
+	 */
+	private void solveXBatch(int j0, int j1) {
+		float p = luXp;
+		float re, im, sr, si;
+		boolean prev, next;
+		int k;
 		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				angle = staticRealPotential[i][j] * 0.5f * timeStep;
-				psi[i][j] = psi[i][j].multiply(new FloatComplex((float) Math.cos(angle), -(float) Math.sin(angle)));
+			prev = i > 0;
+			next = i < nx - 1;
+			k = i * ny + j0;
+			for (int j = j0; j < j1; j++, k++) {
+				re = psiRe[k];
+				im = psiIm[k];
+				sr = (prev ? psiRe[k - ny] : 0) + (next ? psiRe[k + ny] : 0);
+				si = (prev ? psiIm[k - ny] : 0) + (next ? psiIm[k + ny] : 0);
+				rhsRe[k] = re + 2 * p * im - p * si;
+				rhsIm[k] = im - 2 * p * re + p * sr;
 			}
 		}
+		luX.solve(rhsRe, rhsIm, psiRe, psiIm, j0, j1 - j0, 1, ny);
+	}
+
+	/* Suzuki mode: the y-sweep of row i with the cached factorization */
+	private void solveYRow(int i) {
+		float p = luYp;
+		float re, im, sr, si;
+		int offset = i * ny;
+		int k = offset;
+		for (int j = 0; j < ny; j++, k++) {
+			re = psiRe[k];
+			im = psiIm[k];
+			sr = (j > 0 ? psiRe[k - 1] : 0) + (j < ny - 1 ? psiRe[k + 1] : 0);
+			si = (j > 0 ? psiIm[k - 1] : 0) + (j < ny - 1 ? psiIm[k + 1] : 0);
+			rhsRe[k] = re + 2 * p * im - p * si;
+			rhsIm[k] = im - 2 * p * re + p * sr;
+		}
+		luY.solve(rhsRe, rhsIm, psiRe, psiIm, offset, 1, ny, 1);
 	}
 
 	/*
 	 * generate the tridiagonal matrix of the second order differential operator d^2/dx^2 for psi[.][j] (dimension=nx). The caller will iterate from 0 to ny-1 and obtain psi[.][.] (nx by ny).
 	 */
-	private void solveXTridiagMatrix(int j) {
+	private void solveXTridiagMatrix(int j, Sweeper w) {
 		float p = timeStep * ax;
-		if (iStep < 1 && bField == null) {
-			FloatComplex c = new FloatComplex(0, p);
-			Arrays.fill(hxSubDiagonal, c);
-			Arrays.fill(hxSupDiagonal, c);
-		} else {
-			if (bField != null) {
-				float k = 0.25f * bField.getValue(timeStep * iStep) * particle.getCharge() * (ymin + j * deltaY) / (deltaX * particle.getMass());
-				k *= timeStep;
-				Arrays.fill(hxSubDiagonal, new FloatComplex(k, p));
-				Arrays.fill(hxSupDiagonal, new FloatComplex(-k, p));
-			}
+		if (bField != null) {
+			float k = 0.25f * bField.getValue(timeStep * iStep) * particle.getCharge() * (ymin + j * deltaY) / (deltaX * particle.getMass());
+			k *= timeStep;
+			Arrays.fill(w.hxSubRe, k);
+			Arrays.fill(w.hxSubIm, p);
+			Arrays.fill(w.hxSupRe, -k);
+			Arrays.fill(w.hxSupIm, p);
+			w.hxOff = Float.NaN;
+		} else if (w.hxOff != p) {
+			Arrays.fill(w.hxSubRe, 0);
+			Arrays.fill(w.hxSubIm, p);
+			Arrays.fill(w.hxSupRe, 0);
+			Arrays.fill(w.hxSupIm, p);
+			w.hxOff = p;
 		}
 		if (suzukiFlag) {
 			// the advantage of using Suzuki exponential is that we do not have to construct
 			// hxDiagonal and hxOffDiagonal at each step.
-			if (iStep < 1) {
-				Arrays.fill(hxDiagonal, new FloatComplex(0, -2 * p));
+			if (w.hxDiag != p) {
+				Arrays.fill(w.hxDiagRe, 0);
+				Arrays.fill(w.hxDiagIm, -2 * p);
+				w.hxDiag = p;
 			}
-			for (int i = 0; i < nx; i++) {
-				phix[i] = psi[i][j];
+			for (int i = 0, k = j; i < nx; i++, k += ny) {
+				w.phixRe[i] = psiRe[k];
+				w.phixIm[i] = psiIm[k];
 			}
 		} else {
 			// when we split the d^2/dx^2 operator, we also split the potential energy operator
 			// into half to go with it. The reason that it is half is because x and y direction
 			// should be completely equivalent--we should not create a biased division for the
 			// potential.
-			float p1;
-			float p2;
-			float xi;
-			float yj = ymin + j * deltaY;
-			float time = timeStep * iStep;
-			float bterm = 0;
-			if (bField != null) {
-				bterm = bField.getValue(time) * particle.getCharge();
-				bterm *= bterm;
-				bterm *= 0.125f / particle.getMass();
+			float h = 0.5f * timeStep;
+			float c = 2 * p;
+			if (eField != null)
+				c += eFieldY[j] * h;
+			for (int i = 0, k = j; i < nx; i++, k += ny) {
+				w.hxDiagRe[i] = diagRe[k] - absorptionX[i];
+				w.hxDiagIm[i] = diagIm[k] - c;
+				w.phixRe[i] = psiRe[k];
+				w.phixIm[i] = psiIm[k];
+			}
+			if (eField != null) {
+				for (int i = 0; i < nx; i++)
+					w.hxDiagIm[i] -= eFieldX[i] * h;
 			}
-			for (int i = 0; i < nx; i++) {
-				p1 = -staticImaginaryPotential[i][j];
-				p2 = -staticRealPotential[i][j];
-				if (eField != null) {
-					xi = xmin + i * deltaX;
-					p2 -= particle.getCharge() * eField.getPotential(xi, yj, time);
-				}
-				if (bField != null) {
-					xi = xmin + i * deltaX;
-					p2 -= bterm * xi * xi * ENERGY_UNIT_CONVERTER;
-				}
-				p1 *= 0.5f * timeStep;
-				p2 *= 0.5f * timeStep;
-				p2 -= 2 * p;
-				if (xBoundary == null) {
-					hxDiagonal[i] = new FloatComplex(p1, p2);
-				} else if (xBoundary instanceof AbsorbingBoundary) {
-					AbsorbingBoundary ab = (AbsorbingBoundary) xBoundary;
-					int lg = (int) (ab.getLengthPercentage() * nx);
-					if (i < lg) {
-						hxDiagonal[i] = new FloatComplex(p1 - ab.getAbsorption() * (lg - i), p2);
-					} else if (i > nx - lg) {
-						hxDiagonal[i] = new FloatComplex(p1 - ab.getAbsorption() * (lg - nx + i), p2);
-					} else {
-						hxDiagonal[i] = new FloatComplex(p1, p2);
-					}
-				}
-				phix[i] = psi[i][j];
+			if (bField != null) {
+				for (int i = 0; i < nx; i++)
+					w.hxDiagIm[i] -= bFieldX[i] * h;
 			}
+			w.hxDiag = Float.NaN;
 		}
-		phix = csx.nextStep(phix, hxSubDiagonal, hxDiagonal, hxSupDiagonal);
-		for (int i = 0; i < nx; i++) {
-			psi[i][j] = phix[i];
+		w.csx.nextStep(w.phixRe, w.phixIm, w.hxSubRe, w.hxSubIm, w.hxDiagRe, w.hxDiagIm, w.hxSupRe, w.hxSupIm);
+		for (int i = 0, k = j; i < nx; i++, k += ny) {
+			psiRe[k] = w.phixRe[i];
+			psiIm[k] = w.phixIm[i];
 		}
 	}
 
 	/*
 	 * generate the tridiagonal matrix of the second order differential operator d^2/dy^2 for psi[i][.] (dimension=ny). The caller will iterate from 0 to nx-1 and obtain psi[.][.] (nx by ny).
 	 */
-	private void solveYTridiagMatrix(int i) {
+	private void solveYTridiagMatrix(int i, Sweeper w) {
 		float p = timeStep * ay;
-		if (iStep < 1 && bField == null) {
-			FloatComplex c = new FloatComplex(0, p);
-			Arrays.fill(hySubDiagonal, c);
-			Arrays.fill(hySupDiagonal, c);
-		} else {
-			if (bField != null) {
-				float k = 0.25f * bField.getValue(timeStep * iStep) * particle.getCharge() * (xmin + i * deltaX) / (deltaY * particle.getMass());
-				k *= timeStep;
-				Arrays.fill(hySubDiagonal, new FloatComplex(-k, p));
-				Arrays.fill(hySupDiagonal, new FloatComplex(k, p));
-			}
+		if (bField != null) {
+			float k = 0.25f * bField.getValue(timeStep * iStep) * particle.getCharge() * (xmin + i * deltaX) / (deltaY * particle.getMass());
+			k *= timeStep;
+			Arrays.fill(w.hySubRe, -k);
+			Arrays.fill(w.hySubIm, p);
+			Arrays.fill(w.hySupRe, k);
+			Arrays.fill(w.hySupIm, p);
+			w.hyOff = Float.NaN;
+		} else if (w.hyOff != p) {
+			Arrays.fill(w.hySubRe, 0);
+			Arrays.fill(w.hySubIm, p);
+			Arrays.fill(w.hySupRe, 0);
+			Arrays.fill(w.hySupIm, p);
+			w.hyOff = p;
 		}
+		int offset = i * ny;
 		if (suzukiFlag) {
-			if (iStep < 1) {
-				Arrays.fill(hyDiagonal, new FloatComplex(0, -2 * p));
-			}
-			for (int j = 0; j < ny; j++) {
-				phiy[j] = psi[i][j];
+			if (w.hyDiag != p) {
+				Arrays.fill(w.hyDiagRe, 0);
+				Arrays.fill(w.hyDiagIm, -2 * p);
+				w.hyDiag = p;
 			}
+			System.arraycopy(psiRe, offset, w.phiyRe, 0, ny);
+			System.arraycopy(psiIm, offset, w.phiyIm, 0, ny);
 		} else {
 			// when we split the d^2/dy^2 operator, we also split the potential energy operator
 			// into half to go with it. The reason that it is half is because x and y direction
 			// should be completely equivalent--we should not create a biased division for the
 			// potential.
-			float p1;
-			float p2;
-			float xi = xmin + i * deltaX;
-			float yj;
-			float time = timeStep * iStep;
-			float bterm = 0;
-			if (bField != null) {
-				bterm = bField.getValue(time) * particle.getCharge();
-				bterm *= bterm;
-				bterm *= 0.125f / particle.getMass();
+			float h = 0.5f * timeStep;
+			float c = 2 * p;
+			if (eField != null)
+				c += eFieldX[i] * h;
+			for (int j = 0, k = offset; j < ny; j++, k++) {
+				w.hyDiagRe[j] = diagRe[k] - absorptionY[j];
+				w.hyDiagIm[j] = diagIm[k] - c;
+			}
+			if (eField != null) {
+				for (int j = 0; j < ny; j++)
+					w.hyDiagIm[j] -= eFieldY[j] * h;
 			}
-			for (int j = 0; j < ny; j++) {
-				p1 = -staticImaginaryPotential[i][j];
-				p2 = -staticRealPotential[i][j];
-				if (eField != null) {
-					yj = ymin + j * deltaY;
-					p2 -= particle.getCharge() * eField.getPotential(xi, yj, time);
-				}
-				if (bField != null) {
-					yj = ymin + j * deltaY;
-					p2 -= bterm * yj * yj * ENERGY_UNIT_CONVERTER;
-				}
-				p1 *= 0.5f * timeStep;
-				p2 *= 0.5f * timeStep;
-				p2 -= 2 * p;
-				if (yBoundary == null) {
-					hyDiagonal[j] = new FloatComplex(p1, p2);
-				} else if (yBoundary instanceof AbsorbingBoundary) {
-					AbsorbingBoundary ab = (AbsorbingBoundary) yBoundary;
-					int lg = (int) (ab.getLengthPercentage() * ny);
-					if (j < lg) {
-						hyDiagonal[j] = new FloatComplex(p1 - ab.getAbsorption() * (lg - j), p2);
-					} else if (j > ny - lg) {
-						hyDiagonal[j] = new FloatComplex(p1 - ab.getAbsorption() * (lg - ny + j), p2);
-					} else {
-						hyDiagonal[j] = new FloatComplex(p1, p2);
-					}
-				}
-				phiy[j] = psi[i][j];
+			if (bField != null) {
+				for (int j = 0; j < ny; j++)
+					w.hyDiagIm[j] -= bFieldY[j] * h;
 			}
+			w.hyDiag = Float.NaN;
+			System.arraycopy(psiRe, offset, w.phiyRe, 0, ny);
+			System.arraycopy(psiIm, offset, w.phiyIm, 0, ny);
 		}
-		phiy = csy.nextStep(phiy, hySubDiagonal, hyDiagonal, hySupDiagonal);
-		for (int j = 0; j < ny; j++) {
-			psi[i][j] = phiy[j];
-		}
+		w.csy.nextStep(w.phiyRe, w.phiyIm, w.hySubRe, w.hySubIm, w.hyDiagRe, w.hyDiagIm, w.hySupRe, w.hySupIm);
+		System.arraycopy(w.phiyRe, 0, psiRe, offset, ny);
+		System.arraycopy(w.phiyIm, 0, psiIm, offset, ny);
 	}
 
 	void clearWaveFunction() {
-		FloatComplex zero = new FloatComplex();
-		for (int i = 0; i < nx; i++) {
-			Arrays.fill(psi[i], zero);
-		}
+		Arrays.fill(psiRe, 0);
+		Arrays.fill(psiIm, 0);
 	}
 
 	void initPsi() {
-		if (psi == null || psi[0][0] == null)
+		if (psiRe == null)
 			return;
 		normalizePsi();
+		int k = 0;
 		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				amplitude[i][j] = psi[i][j].absSquare();
-				phase[i][j] = psi[i][j].arg();
+			for (int j = 0; j < ny; j++, k++) {
+				amplitude[i][j] = psiRe[k] * psiRe[k] + psiIm[k] * psiIm[k];
+				phase[i][j] = arg(psiRe[k], psiIm[k]);
 			}
 		}
-		requestVisualization();
+		requestVisualization(OutputDemand.AMPLITUDE | OutputDemand.PHASE);
 	}
 
 	void normalizePsi() {
 		sum = 0;
-		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				sum += psi[i][j].absSquare();
-			}
+		int n = psiRe.length;
+		for (int k = 0; k < n; k++) {
+			sum += psiRe[k] * psiRe[k] + psiIm[k] * psiIm[k];
 		}
 		sum = (float) (1.0 / Math.sqrt(sum));
-		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				psi[i][j] = new FloatComplex(psi[i][j].real() * sum, psi[i][j].imag() * sum);
-			}
+		for (int k = 0; k < n; k++) {
+			psiRe[k] *= sum;
+			psiIm[k] *= sum;
 		}
 	}
 
+	void copyWaveFunction(float[] re, float[] im) {
+		System.arraycopy(psiRe, 0, re, 0, psiRe.length);
+		System.arraycopy(psiIm, 0, im, 0, psiIm.length);
+	}
+
+	void setWaveFunction(float[] re, float[] im) {
+		System.arraycopy(re, 0, psiRe, 0, psiRe.length);
+		System.arraycopy(im, 0, psiIm, 0, psiIm.length);
+	}
+
 	void addWaveFunction(FloatComplex[][] wf) {
+		int k = 0;
 		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				if (psi[i][j] == null) {
-					psi[i][j] = new FloatComplex(wf[i][j]);
-				} else {
-					psi[i][j] = psi[i][j].add(wf[i][j]);
-				}
+			for (int j = 0; j < ny; j++, k++) {
+				psiRe[k] += wf[i][j].real();
+				psiIm[k] += wf[i][j].imag();
 			}
 		}
 	}
 
+	/* same convention as FloatComplex.arg() */
+	private static float arg(float re, float im) {
+		if (re == 0 && im == 0)
+			return 0;
+		return (float) Math.atan2(im, re);
+	}
+
 	void nextStep() {
-		lock.lock();
-		try {
-			applySource();
-			if (suzukiFlag)
-				rotatePhase();
-			for (int j = 0; j < ny; j++) {
-				solveXTridiagMatrix(j);
-			}
-			for (int i = 0; i < nx; i++) {
-				solveYTridiagMatrix(i);
-			}
-			if (suzukiFlag)
-				rotatePhase();
-			if (iStep % OUTPUT_INTERVAL == 0) {
-				outputProperties();
+		long t = System.nanoTime();
+		applySource();
+		t = metrics.lap(EngineMetrics.SOURCE, t);
+		updateDiagonals();
+		if (suzukiFlag)
+			rotatePhase();
+		if (suzukiFlag && bField == null)
+			factorize();
+		t = metrics.lap(EngineMetrics.PREPARE, t);
+		if (pool == null) {
+			sweepX(sweepers[0]);
+			t = metrics.lap(EngineMetrics.X_SWEEP, t);
+			sweepY(sweepers[0]);
+		} else {
+			// invokeAll returns only when all the blocks are done, which is the barrier between the two sweeps
+			sweep(xSweeps);
+			t = metrics.lap(EngineMetrics.X_SWEEP, t);
+			sweep(ySweeps);
+		}
+		t = metrics.lap(EngineMetrics.Y_SWEEP, t);
+		if (suzukiFlag) {
+			rotatePhase();
+			metrics.lap(EngineMetrics.PREPARE, t);
+		}
+		int output = getDemandedOutput(iStep);
+		if (output != 0)
+			output(output);
+		iStep++;
+	}
+
+	private void sweep(List<Callable<Object>> tasks) {
+		for (Future<Object> f : pool.invokeAll(tasks)) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
 			}
-			iStep++;
-		} finally {
-			lock.unlock();
 		}
 	}
 
@@ -360,33 +573,37 @@ public class RealTimePropagator2D extends TimePropagator2D {
 					PointSource ps = (PointSource) s;
 					a = 0.5f / (ps.getSigma() * ps.getSigma());
 					b = s.getAmplitude() / ((float) Math.sqrt(2 * Math.PI) * ps.getSigma());
+					int n = 0;
 					for (int i = 0; i < nx; i++) {
 						dx = xmin + deltaX * i - s.getXcenter();
 						dx *= dx;
-						for (int j = 0; j < ny; j++) {
+						for (int j = 0; j < ny; j++, n++) {
 							dy = ymin + deltaY * j - s.getYcenter();
 							g = (float) Math.exp(-(dx + dy * dy) * a) * b;
 							if (px == 0 && py == 0) {
-								psi[i][j] = psi[i][j].add(new FloatComplex(g, 0));
+								psiRe[n] += g;
 							} else {
 								k = px * (xmin + i * deltaX) + py * (ymin + j * deltaY);
-								psi[i][j] = psi[i][j].add(new FloatComplex((float) (g * Math.cos(k)), (float) (g * Math.sin(k))));
+								psiRe[n] += (float) (g * Math.cos(k));
+								psiIm[n] += (float) (g * Math.sin(k));
 							}
 						}
 					}
 				} else if (s instanceof PlaneWaveSource) {
 					PlaneWaveSource pws = (PlaneWaveSource) s;
 					g = pws.getAmplitude();
+					int n = 0;
 					for (int i = 0; i < nx; i++) {
 						dx = xmin + deltaX * i;
-						for (int j = 0; j < ny; j++) {
+						for (int j = 0; j < ny; j++, n++) {
 							dy = ymin + deltaY * j;
 							if (pws.contains(dx, dy)) {
 								if (px == 0 && py == 0) {
-									psi[i][j] = psi[i][j].add(new FloatComplex(g, 0));
+									psiRe[n] += g;
 								} else {
 									k = px * dx + py * dy;
-									psi[i][j] = psi[i][j].add(new FloatComplex((float) (g * Math.cos(k)), (float) (g * Math.sin(k))));
+									psiRe[n] += (float) (g * Math.cos(k));
+									psiIm[n] += (float) (g * Math.sin(k));
 								}
 							}
 						}
@@ -396,29 +613,50 @@ public class RealTimePropagator2D extends TimePropagator2D {
 		}
 	}
 
-	void outputProperties() {
-		sum = 0;
-		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				amplitude[i][j] = psi[i][j].absSquare();
-				phase[i][j] = psi[i][j].arg();
-				sum += amplitude[i][j];
-			}
+	void outputProperties(int quantities) {
+		if (xBoundary != null || yBoundary != null) // the observables are not computed with absorbing boundaries, whose layers take part of the probability
+			quantities &= ~(OutputDemand.EXPECTATION | OutputDemand.ENERGY);
+		outputQuantities = quantities;
+		if ((quantities & OutputDemand.ENERGY) != 0 && (eField != null || bField != null)) {
+			if (fieldTermY == null)
+				fieldTermY = new float[ny];
+			for (int j = 0; j < ny; j++)
+				fieldTermY[j] = (eField != null ? eFieldY[j] : 0) + (bField != null ? bFieldY[j] / ENERGY_UNIT_CONVERTER : 0);
 		}
-		if (xBoundary == null && yBoundary == null) {
-			if (computeExpectation) {
-				calculatePosition();
-				calculateMomentum();
-			}
-			if (computeEnergy) {
-				calculateKineticEnergy();
-				calculatePotentialEnergy();
-				totE = kinE + potE;
-			}
+		if ((quantities & OutputDemand.CURRENT) != 0)
+			initCurrentArray();
+		if (pool == null) {
+			reduce(sweepers[0]);
+		} else {
+			sweep(reductions);
+		}
+		// merge the partial sums in the order of the blocks, so that the result does not depend on the scheduling of the threads
+		double norm = 0, x = 0, y = 0, px = 0, py = 0, kx = 0, ky = 0, v = 0;
+		for (Sweeper w : sweepers) {
+			norm += w.norm;
+			x += w.x;
+			y += w.y;
+			px += w.px;
+			py += w.py;
+			kx += w.kx;
+			ky += w.ky;
+			v += w.v;
+		}
+		if ((quantities & OutputDemand.AMPLITUDE) != 0)
+			sum = (float) norm;
+		if ((quantities & OutputDemand.EXPECTATION) != 0) {
+			position.x = (float) (xmin + deltaX * x);
+			position.y = (float) (ymin + deltaY * y);
+			momentum.x = (float) (px / (2 * deltaX));
+			momentum.y = (float) (py / (2 * deltaY));
+		}
+		if ((quantities & OutputDemand.ENERGY) != 0) {
+			double c = -2 * particle.getMass() * MASS_UNIT_CONVERTER * ENERGY_UNIT_CONVERTER;
+			kinE = (float) ((kx / (deltaX * deltaX) + ky / (deltaY * deltaY)) / c);
+			potE = (float) v;
+			totE = kinE + potE;
 		}
-		if (computeCurrent)
-			calculateCurrent();
-		requestVisualization();
+		requestVisualization(quantities);
 		if (QuantumBox.getLogLevel() == 1) {
 			if (iStep % 20 == 0) {
 				System.out.printf(">>> %5.0f = %10.5f, %10.5f, %10.5f, %10.5f\n", iStep * timeStep, sum, totE, kinE, potE);
@@ -426,132 +664,149 @@ public class RealTimePropagator2D extends TimePropagator2D {
 		}
 	}
 
-	void calculatePosition() {
-		position.x = 0;
-		position.y = 0;
-		FloatComplex c, z;
-		for (int i = 0; i < nx; i++) {
-			for (int j = 0; j < ny; j++) {
-				c = psi[i][j].conjugate();
-				z = c.multiply(new FloatComplex(i * psi[i][j].real(), i * psi[i][j].imag()));
-				position.x += z.real();
-				z = c.multiply(new FloatComplex(j * psi[i][j].real(), j * psi[i][j].imag()));
-				position.y += z.real();
-			}
-		}
-		position.x = xmin + deltaX * position.x;
-		position.y = ymin + deltaY * position.y;
-	}
-
-	// must use central difference, or we will have a non-zero imaginary component for derivative
-	void calculateMomentum() {
-		FloatComplex m = new FloatComplex();
-		FloatComplex psi1, psi2;
-		for (int j = 0; j < ny; j++) {
-			for (int i = 1; i < nx - 1; i++) {
-				psi2 = psi[i + 1][j];
-				psi1 = psi[i - 1][j];
-				m = m.add(psi[i][j].conjugate().multiply(psi2.subtract(psi1)));
-			}
-		}
-		momentum.x = m.imag() / (2 * deltaX);
-		m = new FloatComplex();
-		for (int i = 0; i < nx; i++) {
-			for (int j = 1; j < ny - 1; j++) {
-				psi2 = psi[i][j + 1];
-				psi1 = psi[i][j - 1];
-				m = m.add(psi[i][j].conjugate().multiply(psi2.subtract(psi1)));
+	/*
+	 * Compute the output quantities of the rows from w.iStart to w.iEnd in a single sweep: each row is visited once, while it and its two neighbors are in the cache, by all the loops that need it. The partial sums of the norm, the expectation values of the position and the momentum, and the kinetic and potential energies are accumulated in double precision and left in w. The probability current is sampled every currentSteps cells.
+	 */
+	private void reduce(Sweeper w) {
+		int q = outputQuantities;
+		boolean density = (q & OutputDemand.AMPLITUDE) != 0;
+		boolean expectation = (q & OutputDemand.EXPECTATION) != 0;
+		boolean energy = (q & OutputDemand.ENERGY) != 0;
+		boolean fields = energy && (eField != null || bField != null);
+		boolean current = (q & OutputDemand.CURRENT) != 0;
+		double norm = 0, x = 0, y = 0, px = 0, py = 0, kx = 0, ky = 0, v = 0;
+		double rowNorm, rowY, rowV, rowPx, rowPy, rowKx, rowKy;
+		float cx = 0.5f / (deltaX * particle.getMass());
+		float cy = 0.5f / (deltaY * particle.getMass());
+		float invCurrentSteps = 1f / currentSteps;
+		float[] row, ph, jx, jy;
+		int k, k0, kEnd;
+		for (int i = w.iStart; i < w.iEnd; i++) {
+			k0 = i * ny;
+			kEnd = k0 + ny;
+			if (density || expectation || energy) {
+				row = density ? amplitude[i] : w.row;
+				for (k = k0; k < kEnd; k++)
+					row[k - k0] = psiRe[k] * psiRe[k] + psiIm[k] * psiIm[k];
+				rowNorm = rowY = rowV = 0;
+				for (int j = 0; j < ny; j++) {
+					rowNorm += row[j];
+					rowY += j * (double) row[j];
+				}
+				if (energy) {
+					for (k = k0; k < kEnd; k++)
+						rowV += staticRealPotential[k] * row[k - k0];
+					if (fields) { // the field terms are separable: the row term times the row norm plus the column terms
+						for (int j = 0; j < ny; j++)
+							rowV += fieldTermY[j] * row[j];
+						rowV += ((eField != null ? eFieldX[i] : 0) + (bField != null ? bFieldX[i] / ENERGY_UNIT_CONVERTER : 0)) * rowNorm;
+					}
+				}
+				norm += rowNorm;
+				x += i * rowNorm;
+				y += rowY;
+				v += rowV;
+			}
+			if ((q & OutputDemand.PHASE) != 0) { // by far the most expensive: one atan2 per cell
+				ph = phase[i];
+				for (k = k0; k < kEnd; k++)
+					ph[k - k0] = arg(psiRe[k], psiIm[k]);
+			}
+			if (expectation || energy) {
+				// the derivatives use central differences, or the momentum would have a non-zero imaginary part
+				rowPx = rowPy = rowKx = rowKy = 0;
+				if (i > 0 && i < nx - 1) {
+					for (k = k0; k < kEnd; k++) {
+						// imaginary and real parts of conj(psi[k]) * (psi[k+ny] - psi[k-ny]) and conj(psi[k]) * (psi[k+ny] - 2 * psi[k] + psi[k-ny])
+						rowPx += psiRe[k] * (psiIm[k + ny] - psiIm[k - ny]) - psiIm[k] * (psiRe[k + ny] - psiRe[k - ny]);
+						rowKx += psiRe[k] * (psiRe[k + ny] - 2 * psiRe[k] + psiRe[k - ny]) + psiIm[k] * (psiIm[k + ny] - 2 * psiIm[k] + psiIm[k - ny]);
+					}
+				}
+				for (k = k0 + 1; k < kEnd - 1; k++) {
+					rowPy += psiRe[k] * (psiIm[k + 1] - psiIm[k - 1]) - psiIm[k] * (psiRe[k + 1] - psiRe[k - 1]);
+					rowKy += psiRe[k] * (psiRe[k + 1] - 2 * psiRe[k] + psiRe[k - 1]) + psiIm[k] * (psiIm[k + 1] - 2 * psiIm[k] + psiIm[k - 1]);
+				}
+				px += rowPx;
+				py += rowPy;
+				kx += rowKx;
+				ky += rowKy;
+			}
+			if (current) {
+				if ((i - 1) % currentSteps == 0 && i < nx - 1) {
+					jx = currentX[Math.round(i * invCurrentSteps)];
+					for (int j = 0; j < ny; j += currentSteps) {
+						k = k0 + j;
+						jx[Math.round(j * invCurrentSteps)] = (psiRe[k] * (psiIm[k + ny] - psiIm[k - ny]) - psiIm[k] * (psiRe[k + ny] - psiRe[k - ny])) * cx;
+					}
+				}
+				if (i % currentSteps == 0) {
+					jy = currentY[Math.round(i * invCurrentSteps)];
+					for (int j = 1; j < ny - 1; j += currentSteps) {
+						k = k0 + j;
+						jy[Math.round(j * invCurrentSteps)] = (psiRe[k] * (psiIm[k + 1] - psiIm[k - 1]) - psiIm[k] * (psiRe[k + 1] - psiRe[k - 1])) * cy;
+					}
+				}
 			}
 		}
-		momentum.y = m.imag() / (2 * deltaY);
+		w.norm = norm;
+		w.x = x;
+		w.y = y;
+		w.px = px;
+		w.py = py;
+		w.kx = kx;
+		w.ky = ky;
+		w.v = v;
 	}
 
 	void resetCurrent() {
-		if (current == null || current[0][0] == null)
+		if (currentX == null)
 			return;
-		for (int i = 0; i < current.length; i++) {
-			for (int j = 0; j < current[0].length; j++) {
-				current[i][j].x = 0;
-				current[i][j].y = 0;
-			}
+		for (int i = 0; i < currentX.length; i++) {
+			Arrays.fill(currentX[i], 0);
+			Arrays.fill(currentY[i], 0);
 		}
 	}
 
-	// must use central difference, or we will have a non-zero imaginary component for derivative
-	void calculateCurrent() {
-		initCurrentArray();
-		float cx = 0.5f / (deltaX * particle.getMass());
-		float cy = 0.5f / (deltaY * particle.getMass());
-		FloatComplex z;
-		int i2, j2;
-		FloatComplex psi1, psi2;
-		float invCurrentSteps = 1f / currentSteps;
-		for (int j = 0; j < ny; j += currentSteps) {
-			j2 = Math.round(j * invCurrentSteps);
-			for (int i = 1; i < nx - 1; i += currentSteps) {
-				psi2 = psi[i + 1][j];
-				psi1 = psi[i - 1][j];
-				z = psi[i][j].conjugate().multiply(psi2.subtract(psi1));
-				i2 = Math.round(i * invCurrentSteps);
-				current[i2][j2].x = z.imag() * cx;
-			}
-		}
-		for (int i = 0; i < nx; i += currentSteps) {
-			i2 = Math.round(i * invCurrentSteps);
-			for (int j = 1; j < ny - 1; j += currentSteps) {
-				psi2 = psi[i][j + 1];
-				psi1 = psi[i][j - 1];
-				z = psi[i][j].conjugate().multiply(psi2.subtract(psi1));
-				j2 = Math.round(j * invCurrentSteps);
-				current[i2][j2].y = z.imag() * cy;
-			}
-		}
-	}
+	/*
+	 * the solver and scratch buffers of a block of rows (for the x-sweep) and columns (for the y-sweep). The off-diagonal elements and the Suzuki diagonal are refilled only when the coefficient they were filled with changes.
+	 */
+	private class Sweeper {
 
-	void calculatePotentialEnergy() {
-		potE = 0;
-		FloatComplex z;
-		float p;
-		float time = timeStep * iStep;
-		float x, y;
-		for (int i = 0; i < nx; i++) {
-			x = xmin + deltaX * i;
-			for (int j = 0; j < ny; j++) {
-				p = staticRealPotential[i][j];
-				if (eField != null) {
-					y = ymin + deltaY * j;
-					p += particle.getCharge() * eField.getPotential(x, y, time);
-				}
-				if (bField != null) {
-					y = ymin + deltaY * j;
-					p += 0.125f * particle.getCharge() * particle.getCharge() * bField.getValue(time) * bField.getValue(time) * (x * x + y * y) / particle.getMass();
-				}
-				z = psi[i][j].conjugate().multiply(new FloatComplex(p * psi[i][j].real(), p * psi[i][j].imag()));
-				potE += z.real();
-			}
-		}
-	}
+		final int jStart, jEnd, iStart, iEnd;
+		final float[] hxSubRe, hxSubIm, hxDiagRe, hxDiagIm, hxSupRe, hxSupIm;
+		final float[] hySubRe, hySubIm, hyDiagRe, hyDiagIm, hySupRe, hySupIm;
+		final float[] phixRe, phixIm, phiyRe, phiyIm;
+		final CayleySolver2D csx, csy;
+		float hxOff = Float.NaN, hxDiag = Float.NaN, hyOff = Float.NaN, hyDiag = Float.NaN;
+		final float[] row; // the probability density of a row when it is not demanded as an output
+		double norm, x, y, px, py, kx, ky, v; // the partial sums of the last reduction over rows iStart to iEnd
 
-	void calculateKineticEnergy() {
-		kinE = 0;
-		FloatComplex kex = new FloatComplex();
-		FloatComplex z;
-		for (int j = 0; j < ny; j++) {
-			for (int i = 1; i < nx - 1; i++) {
-				z = new FloatComplex((psi[i + 1][j].real() - 2 * psi[i][j].real() + psi[i - 1][j].real()), (psi[i + 1][j].imag() - 2 * psi[i][j].imag() + psi[i - 1][j].imag()));
-				kex = kex.add(psi[i][j].conjugate().multiply(z));
-			}
+		Sweeper(int jStart, int jEnd, int iStart, int iEnd) {
+			this.jStart = jStart;
+			this.jEnd = jEnd;
+			this.iStart = iStart;
+			this.iEnd = iEnd;
+			hxSubRe = new float[nx];
+			hxSubIm = new float[nx];
+			hxDiagRe = new float[nx];
+			hxDiagIm = new float[nx];
+			hxSupRe = new float[nx];
+			hxSupIm = new float[nx];
+			hySubRe = new float[ny];
+			hySubIm = new float[ny];
+			hyDiagRe = new float[ny];
+			hyDiagIm = new float[ny];
+			hySupRe = new float[ny];
+			hySupIm = new float[ny];
+			phixRe = new float[nx];
+			phixIm = new float[nx];
+			phiyRe = new float[ny];
+			phiyIm = new float[ny];
+			row = new float[ny];
+			csx = new CayleySolver2D(nx);
+			csy = new CayleySolver2D(ny);
 		}
-		FloatComplex key = new FloatComplex();
-		for (int i = 0; i < nx; i++) {
-			for (int j = 1; j < ny - 1; j++) {
-				z = new FloatComplex((psi[i][j + 1].real() - 2 * psi[i][j].real() + psi[i][j - 1].real()), (psi[i][j + 1].imag() - 2 * psi[i][j].imag() + psi[i][j - 1].imag()));
-				key = key.add(psi[i][j].conjugate().multiply(z));
-			}
-		}
-		float k = -2 * particle.getMass() * MASS_UNIT_CONVERTER * ENERGY_UNIT_CONVERTER;
-		kinE = kex.real() / (deltaX * deltaX) + key.real() / (deltaY * deltaY);
-		kinE /= k;
+
 	}
 
 }
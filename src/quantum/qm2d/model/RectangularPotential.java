@@ -13,6 +13,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 
 import quantum.qmshared.Boundary;
 
@@ -31,32 +32,16 @@ public class RectangularPotential extends AreaPotential {
 		this.lx = lx;
 		this.ly = ly;
 		this.cornerRadius = cornerRadius;
-		float dx = (xmax - xmin) / nx;
-		float dy = (ymax - ymin) / ny;
-		float x, y;
-		if (cornerRadius <= 0) {
-			boolean b;
-			for (int i = 0; i < nx; i++) {
-				x = xmin + i * dx;
-				b = Math.abs(x - xcenter) < 0.5 * lx;
-				for (int j = 0; j < ny; j++) {
-					y = ymin + j * dy;
-					if (b && Math.abs(y - ycenter) < 0.5 * ly) {
-						pot[i][j] = energy;
-					}
-				}
-			}
-		} else {
-			for (int i = 0; i < nx; i++) {
-				x = xmin + i * dx;
-				for (int j = 0; j < ny; j++) {
-					y = ymin + j * dy;
-					if (contains(x, y)) {
-						pot[i][j] = energy;
-					}
-				}
-			}
-		}
+	}
+
+	public float getValue(float x, float y) {
+		if (cornerRadius <= 0)
+			return Math.abs(x - xcenter) < 0.5 * lx && Math.abs(y - ycenter) < 0.5 * ly ? energy : 0;
+		return contains(x, y) ? energy : 0;
+	}
+
+	public Rectangle2D.Float getBoundingBox() {
+		return new Rectangle2D.Float(xcenter - 0.5f * lx, ycenter - 0.5f * ly, lx, ly);
 	}
 
 	public void setRects(Rectangle[] rect, Polygon[] handle, Dimension d, Boundary bx, Boundary by) {
@@ -5,33 +5,54 @@ import static quantum.qmshared.Boundary.DEFAULT_BOUNDARY_CONDITION;
 import static quantum.qmshared.Constants.ENERGY_UNIT_CONVERTER;
 import static quantum.qmshared.Constants.MASS_UNIT_CONVERTER;
 
-import java.awt.EventQueue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import quantum.math.FloatComplex;
 import quantum.math.Vector2D;
-import quantum.qmevent.VisualizationEvent;
+import quantum.qmevent.VisualizationDispatcher;
 import quantum.qmevent.VisualizationListener;
 import quantum.qmshared.AbsorbingBoundary;
 import quantum.qmshared.Boundary;
+import quantum.qmshared.EngineMetrics;
+import quantum.qmshared.HealthMonitor;
 import quantum.qmshared.Particle;
+import quantum.qmshared.Simulation;
+import quantum.qmshared.StepScheduler;
 
 /**
+ * The state of a propagator is changed by commands (see submit), which are queued by any thread and run by the thread that steps the propagator between two steps, so that a step never sees a change halfway and the thread that submits a change never waits for a step to finish. When the propagator is not stepping, a command is run at once by the thread that submits it. The methods that change the state directly are meant to be called from commands, or when the propagator is not running.
+ * 
+ * A propagator is stepped either by run() on a thread of its own, or batch by batch by a SimulationScheduler that shares its threads among many propagators (see startRunning and runBatch).
+ * 
  * @author Charles Xie
  * 
  */
-public abstract class TimePropagator2D {
+public abstract class TimePropagator2D implements Simulation {
 
 	public final static int OUTPUT_INTERVAL = 2;
 
-	Lock lock;
+	private final static Runnable NOTHING = new Runnable() {
+		public void run() {
+		}
+	};
+
 	int nx, ny;
 	int iStep;
-	float[][] amplitude, phase;
+	float[][] amplitude, phase; // the arrays of the back frame, filled by outputProperties
+	private FrameBuffer2D frames;
 	ElectricField2D eField;
 	MagneticField2D bField;
 
@@ -39,33 +60,107 @@ public abstract class TimePropagator2D {
 	float xmin, xmax, ymin, ymax;
 	Particle particle;
 	Boundary xBoundary, yBoundary;
-	float[][] staticRealPotential;
-	float[][] staticImaginaryPotential;
+	float[] staticRealPotential, staticImaginaryPotential; // row by row: cell (i, j) is at i * ny + j
+
+	/*
+	 * set whenever something that the precomputed diagonal tables of the subclasses depend on has changed: the static potentials, the boundary conditions, the time step, the area or the mass.
+	 */
+	volatile boolean staticPotentialChanged = true;
+
+	/*
+	 * per-column and per-row field terms of the potential energy at the current step (see calculateFieldTerms)
+	 */
+	float[] eFieldX, eFieldY, bFieldX, bFieldY;
 
 	float sum, totE, potE, kinE;
 	Vector2D position, momentum;
-	Vector2D[][] current;
+	float[][] currentX, currentY; // the probability current, sampled every few cells
 	float timeStep = 2;
 	private volatile boolean running;
-	private volatile boolean notifyReset;
+	private final AtomicBoolean looping = new AtomicBoolean(); // true while a loop steps, through run(), runSteps() or runBatch()
+	private final StepScheduler scheduler = new StepScheduler();
+	private boolean scheduled; // true while run() steps in the batches of the scheduler
+	private boolean frameDue; // true at the last step of a batch
+	private final Queue<FutureTask<?>> commands = new ConcurrentLinkedQueue<FutureTask<?>>();
+	private final AtomicReference<Thread> owner = new AtomicReference<Thread>(); // the thread that steps or runs the commands, if any
 	private List<Potential2D> potentials;
 	List<WavePacket2D> wavePackets, wavePacketHolder;
 	float ax, ay;
-	boolean computeExpectation, computeEnergy, computeCurrent;
 	WavePacketFactory wavepacketFactory;
 	private PotentialFactory potentialFactory;
 
-	private List<VisualizationListener> listeners;
+	private VisualizationDispatcher dispatcher;
+	final EngineMetrics metrics;
+	private long dispatchTime; // the total time of requestVisualization, in nanoseconds
+	private final HealthMonitor health = new HealthMonitor(new HealthMonitor.Subject() {
+
+		public String getName() {
+			return TimePropagator2D.this.getClass().getSimpleName();
+		}
+
+		public int getStep() {
+			return iStep;
+		}
+
+		public double getTimeStep() {
+			return timeStep;
+		}
+
+		public void setStep(int step, double timeStep) {
+			iStep = step;
+			TimePropagator2D.this.setTimeStep((float) timeStep);
+		}
+
+		public Object copyWaveFunction(Object copy) {
+			float[][] c = (float[][]) copy;
+			if (c == null)
+				c = new float[][] { new float[nx * ny], TimePropagator2D.this instanceof ImaginaryTimePropagator2D ? null : new float[nx * ny] };
+			TimePropagator2D.this.copyWaveFunction(c[0], c[1]);
+			return c;
+		}
+
+		public void setWaveFunction(Object copy) {
+			float[][] c = (float[][]) copy;
+			TimePropagator2D.this.setWaveFunction(c[0], c[1]);
+		}
+
+		public int countNonFiniteCells() {
+			float[][] c = (float[][]) copyWaveFunction(null);
+			int n = 0;
+			for (int k = 0; k < c[0].length; k++) {
+				if (Float.isNaN(c[0][k]) || Float.isInfinite(c[0][k]) || (c[1] != null && (Float.isNaN(c[1][k]) || Float.isInfinite(c[1][k]))))
+					n++;
+			}
+			return n;
+		}
+
+		public int getCellCount() {
+			return nx * ny;
+		}
+
+	});
+	private boolean checking; // true during the output of a step, whose norm and energy are checked
+	private boolean healthChecked; // a check has been made during the current step
+	private boolean healthOnly; // the output of the current step is computed only for the health monitor, so no frame is published
+	private String violation; // found by the check of the current step, if any
+	private boolean sound; // the check of the current step has found the state sound for a back-off
+	private List<OutputDemand> demands;
+	private List<FrameListener> frameListeners;
 
 	public TimePropagator2D(Particle particle, int nx, int ny, float xmin, float xmax, float ymin, float ymax) {
 		this.particle = particle;
 		this.nx = nx;
 		this.ny = ny;
 		setArea(xmin, xmax, ymin, ymax);
-		amplitude = new float[nx][ny];
-		phase = new float[nx][ny];
-		staticRealPotential = new float[nx][ny];
-		staticImaginaryPotential = new float[nx][ny];
+		frames = new FrameBuffer2D(nx, ny);
+		dispatcher = new VisualizationDispatcher(this);
+		metrics = new EngineMetrics(getClass().getSimpleName(), dispatcher);
+		demands = Collections.synchronizedList(new ArrayList<OutputDemand>());
+		frameListeners = Collections.synchronizedList(new ArrayList<FrameListener>());
+		amplitude = frames.getBackFrame().amplitude;
+		phase = frames.getBackFrame().phase;
+		staticRealPotential = new float[nx * ny];
+		staticImaginaryPotential = new float[nx * ny];
 		potentials = Collections.synchronizedList(new ArrayList<Potential2D>());
 		wavePackets = Collections.synchronizedList(new ArrayList<WavePacket2D>());
 		wavePacketHolder = Collections.synchronizedList(new ArrayList<WavePacket2D>());
@@ -85,26 +180,123 @@ public abstract class TimePropagator2D {
 		setBoundaryCondition('y', DEFAULT_BOUNDARY_CONDITION);
 	}
 
-	public void setComputeExpectation(boolean b) {
-		computeExpectation = b;
+	/** register the output that a consumer needs. Without any demand, the propagator computes no output at all. */
+	public void addOutputDemand(OutputDemand d) {
+		if (!demands.contains(d))
+			demands.add(d);
+	}
+
+	public void removeOutputDemand(OutputDemand d) {
+		demands.remove(d);
+	}
+
+	/* the union of the quantities demanded by the consumers that are due at the given step, or zero if none is due */
+	int getDemandedOutput(int step) {
+		boolean frame = scheduled ? frameDue : step % OUTPUT_INTERVAL == 0;
+		int q = 0;
+		synchronized (demands) {
+			for (OutputDemand d : demands) {
+				if (d.isDueAt(step, frame))
+					q |= d.getQuantities();
+			}
+		}
+		healthOnly = false;
+		if (health.getPolicy() != HealthMonitor.OFF && (scheduled ? frameDue : step % HealthMonitor.CHECK_INTERVAL == 0)) {
+			healthOnly = q == 0;
+			q |= OutputDemand.AMPLITUDE; // for the health monitor to check the norm
+		}
+		return q;
+	}
+
+	/**
+	 * Submit a command that changes the state of this propagator. If the propagator is stepping, the command is queued and run by the stepping thread as soon as the current step has finished; otherwise it is run at once by the calling thread. Commands run one at a time, in the order they are submitted. A command submitted by the thread that owns the propagator, e.g. by a visualization listener called during a step, is run at once, as it cannot wait for itself.
+	 * 
+	 * @return the pending command, which delivers the result of the command or the exception it has thrown
+	 */
+	public <V> Future<V> submit(Callable<V> command) {
+		FutureTask<V> task = new FutureTask<V>(command) {
+			@Override
+			protected void setException(Throwable t) {
+				t.printStackTrace(); // in case no one asks the future
+				super.setException(t);
+			}
+		};
+		Thread t = Thread.currentThread();
+		if (owner.get() == t) {
+			task.run();
+		} else {
+			commands.offer(task);
+			if (owner.compareAndSet(null, t))
+				release();
+		}
+		return task;
+	}
+
+	/** @see #submit(Callable) */
+	public Future<?> submit(Runnable command) {
+		return submit(Executors.callable(command));
+	}
+
+	/**
+	 * Submit a command and wait for it to be run, which takes no longer than the rest of the current step. An exception thrown by the command is thrown again.
+	 */
+	public void invokeAndWait(Runnable command) {
+		Future<?> f = submit(command);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					f.get();
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true; // the command cannot be withdrawn, so wait for it anyway
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException) e.getCause();
+					if (e.getCause() instanceof Error)
+						throw (Error) e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
 	}
 
-	public void setComputeEnergy(boolean b) {
-		computeEnergy = b;
+	/* become the owner of this propagator, waiting for another thread to finish its step or its command */
+	private boolean acquire() {
+		Thread t = Thread.currentThread();
+		if (owner.get() == t)
+			return false;
+		while (!owner.compareAndSet(null, t))
+			LockSupport.parkNanos(100000);
+		return true;
 	}
 
-	public void setComputeCurrent(boolean b) {
-		computeCurrent = b;
+	/* run the pending commands and give up the ownership, taking it back if a command has come in between */
+	private void release() {
+		do {
+			runCommands();
+			owner.set(null);
+		} while (!commands.isEmpty() && owner.compareAndSet(null, Thread.currentThread()));
 	}
 
-	public void setLock(Lock lock) {
-		this.lock = lock;
+	private void runCommands() {
+		FutureTask<?> task;
+		while ((task = commands.poll()) != null)
+			task.run();
 	}
 
+	/** stop stepping and destroy this propagator after the current step */
 	public void destroy() {
-		listeners.clear();
+		stopAndWait();
+		metrics.finish();
+		dispatcher.removeAllListeners();
 		potentials.clear();
 		wavePackets.clear();
+		demands.clear();
+		frameListeners.clear();
 		amplitude = null;
 		staticRealPotential = null;
 		staticImaginaryPotential = null;
@@ -131,6 +323,40 @@ public abstract class TimePropagator2D {
 	public void calculateMassRelatedThings() {
 		ax = 0.5f / (deltaX * deltaX * particle.getMass() * MASS_UNIT_CONVERTER);
 		ay = 0.5f / (deltaY * deltaY * particle.getMass() * MASS_UNIT_CONVERTER);
+		staticPotentialChanged = true;
+	}
+
+	/*
+	 * The potential energy of the electric field is linear in x and y, so it is the sum of a term that depends only on x and a term that depends only on y. The diamagnetic term of the magnetic field is split into an x^2 part for the x-sweep and a y^2 part for the y-sweep. Hence both can be computed once per step as one-dimensional arrays and added to the precomputed static diagonals as per-column and per-row corrections.
+	 */
+	void calculateFieldTerms(float time) {
+		if (eFieldX == null) {
+			eFieldX = new float[nx];
+			eFieldY = new float[ny];
+			bFieldX = new float[nx];
+			bFieldY = new float[ny];
+		}
+		float x, y;
+		if (eField != null) {
+			float q = particle.getCharge();
+			for (int i = 0; i < nx; i++)
+				eFieldX[i] = q * eField.getPotential(xmin + i * deltaX, 0, time);
+			for (int j = 0; j < ny; j++)
+				eFieldY[j] = q * eField.getPotential(0, ymin + j * deltaY, time);
+		}
+		if (bField != null) {
+			float bterm = bField.getValue(time) * particle.getCharge();
+			bterm *= bterm;
+			bterm *= 0.125f / particle.getMass();
+			for (int i = 0; i < nx; i++) {
+				x = xmin + i * deltaX;
+				bFieldX[i] = bterm * x * x * ENERGY_UNIT_CONVERTER;
+			}
+			for (int j = 0; j < ny; j++) {
+				y = ymin + j * deltaY;
+				bFieldY[j] = bterm * y * y * ENERGY_UNIT_CONVERTER;
+			}
+		}
 	}
 
 	public void setBoundaryCondition(char direction, String name) {
@@ -142,6 +368,7 @@ public abstract class TimePropagator2D {
 	}
 
 	public void setBoundaryCondition(char direction, byte bc) {
+		staticPotentialChanged = true;
 		if (direction == 'x' || direction == 'X') {
 			if (bc == ABSORBING_BOUNDARY_CONDITION) {
 				xBoundary = new AbsorbingBoundary();
@@ -179,70 +406,63 @@ public abstract class TimePropagator2D {
 		return potentials.get(i);
 	}
 
+	/**
+	 * Change the shape or the value of a potential that has been added, e.g. while it is dragged. The change is made to the potential at once by the calling thread, so that a view can show it, while the static potentials are updated by a command: the potential as it was is subtracted and the potential as it is now is added.
+	 */
+	public void changePotential(Potential2D p, Runnable change) {
+		final Potential2D before = p.snapshot();
+		change.run();
+		final Potential2D after = p.snapshot();
+		submit(new Runnable() {
+			public void run() {
+				removePotentialFunction(before);
+				addPotentialFunction(after);
+			}
+		});
+	}
+
 	public void addPotential(Potential2D potential) {
 		potentials.add(potential);
-		addPotentialFunction(potential.imaginary, potential.pot);
-		potential.destroy();
+		addPotentialFunction(potential);
 	}
 
 	public void addPotential(int index, Potential2D potential) {
 		potentials.add(index, potential);
-		addPotentialFunction(potential.imaginary, potential.pot);
-		potential.destroy();
-	}
-
-	public void addPotentialFunction(boolean imaginary, float[][] pot) {
-		if (imaginary) {
-			for (int i = 0; i < nx; i++) {
-				for (int j = 0; j < ny; j++) {
-					staticImaginaryPotential[i][j] += pot[i][j] * ENERGY_UNIT_CONVERTER;
-				}
-			}
-		} else {
-			for (int i = 0; i < nx; i++) {
-				for (int j = 0; j < ny; j++) {
-					staticRealPotential[i][j] += pot[i][j] * ENERGY_UNIT_CONVERTER;
-				}
-			}
-		}
+		addPotentialFunction(potential);
 	}
 
 	public int removePotential(Potential2D potential) {
 		int index = potentials.indexOf(potential);
 		potentials.remove(potential);
-		Potential2D p = potentialFactory.copy(potential);
-		removePotentialFunction(p.imaginary, p.pot);
-		p.destroy();
-		potential.destroy();
+		removePotentialFunction(potential);
 		return index;
 	}
 
-	public int indexOfPotential(Potential2D p) {
-		return potentials.indexOf(p);
+	/**
+	 * Add the values of the potential to the static potentials, visiting only the cells within its bounding box. To move or reshape a potential that has been added, call removePotentialFunction(Potential2D) before the change and this method after it.
+	 */
+	public void addPotentialFunction(Potential2D p) {
+		p.rasterize(p.imaginary ? staticImaginaryPotential : staticRealPotential, ENERGY_UNIT_CONVERTER, 1);
+		staticPotentialChanged = true;
 	}
 
-	public void removePotentialFunction(boolean imaginary, float[][] pot) {
-		if (imaginary) {
-			for (int i = 0; i < nx; i++) {
-				for (int j = 0; j < ny; j++) {
-					staticImaginaryPotential[i][j] -= pot[i][j] * ENERGY_UNIT_CONVERTER;
-				}
-			}
-		} else {
-			for (int i = 0; i < nx; i++) {
-				for (int j = 0; j < ny; j++) {
-					staticRealPotential[i][j] -= pot[i][j] * ENERGY_UNIT_CONVERTER;
-				}
-			}
-		}
+	/**
+	 * Subtract the values of the potential from the static potentials, visiting only the cells within its bounding box.
+	 */
+	public void removePotentialFunction(Potential2D p) {
+		p.rasterize(p.imaginary ? staticImaginaryPotential : staticRealPotential, ENERGY_UNIT_CONVERTER, -1);
+		staticPotentialChanged = true;
+	}
+
+	public int indexOfPotential(Potential2D p) {
+		return potentials.indexOf(p);
 	}
 
 	public void removeAllPotentials() {
 		potentials.clear();
-		for (int i = 0; i < nx; i++) {
-			Arrays.fill(staticRealPotential[i], 0);
-			Arrays.fill(staticImaginaryPotential[i], 0);
-		}
+		Arrays.fill(staticRealPotential, 0);
+		Arrays.fill(staticImaginaryPotential, 0);
+		staticPotentialChanged = true;
 	}
 
 	public void setElectricField(ElectricField2D eField) {
@@ -267,6 +487,7 @@ public abstract class TimePropagator2D {
 
 	public void setTimeStep(float timeStep) {
 		this.timeStep = timeStep;
+		staticPotentialChanged = true;
 	}
 
 	public float getTimeStep() {
@@ -299,18 +520,28 @@ public abstract class TimePropagator2D {
 	void removeAllSources() {
 	}
 
+	/* the sources, which add to the norm of the wave function */
+	int getSourceCount() {
+		return 0;
+	}
+
 	abstract void clearWaveFunction();
 
 	abstract void initPsi();
 
 	abstract void normalizePsi();
 
-	public float[][] getAmplitude() {
-		return amplitude;
-	}
+	/* copy the wave function into the arrays, cell (i, j) at i * ny + j. im is null for a real wave function. */
+	abstract void copyWaveFunction(float[] re, float[] im);
 
-	public float[][] getPhase() {
-		return phase;
+	/* replace the wave function with the arrays, cell (i, j) at i * ny + j. im is null for a real wave function. */
+	abstract void setWaveFunction(float[] re, float[] im);
+
+	/**
+	 * @return the latest frame published by this propagator. It will not be changed by the propagator, and stays valid until the next call of this method.
+	 */
+	public Frame2D getFrame() {
+		return frames.acquire();
 	}
 
 	public Vector2D getPosition() {
@@ -321,10 +552,6 @@ public abstract class TimePropagator2D {
 		return momentum;
 	}
 
-	public Vector2D[][] getCurrent() {
-		return current;
-	}
-
 	public float getKineticEnergy() {
 		return kinE;
 	}
@@ -337,51 +564,170 @@ public abstract class TimePropagator2D {
 		return totE;
 	}
 
-	public void stop() {
+	/**
+	 * Stop stepping after the current step.
+	 * 
+	 * @return a future that is done when the current step, if any, has finished
+	 */
+	public Future<?> stop() {
+		running = false;
+		scheduler.wakeUp();
+		return submit(NOTHING);
+	}
+
+	/** stop stepping and wait until the stepping thread has let go of this propagator, after which its state can be changed directly */
+	public void stopAndWait() {
 		running = false;
+		scheduler.wakeUp();
+		if (acquire())
+			release();
+	}
+
+	/** @return the scheduler that decides how many steps are taken between two frames while running, and how fast */
+	public StepScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/** @return the metrics of this propagator, which are published through JMX while it runs */
+	public EngineMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** @return the monitor that watches this propagator for a numerical blow-up */
+	public HealthMonitor getHealthMonitor() {
+		return health;
 	}
 
+	/** step until stopped, in the batches of the scheduler, on the calling thread */
 	public void run() {
-		if (!running) {
-			running = true;
-			while (running)
-				nextStep();
-			if (notifyReset) {
-				rebuildWaveFunction();
-				notifyReset = false;
+		if (startRunning()) {
+			while (runBatch())
+				scheduler.await();
+		}
+	}
+
+	/**
+	 * Start running, for a caller that steps this propagator batch by batch through runBatch() instead of calling run(), e.g. a SimulationScheduler.
+	 * 
+	 * @return true if the caller should step, false if this propagator is already being stepped, or is being stopped and now goes on
+	 */
+	public boolean startRunning() {
+		running = true;
+		if (!looping.compareAndSet(false, true))
+			return false;
+		scheduler.start();
+		metrics.start(nx * ny);
+		health.start();
+		return true;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Run a batch of steps, the last of which publishes a frame. The pending commands are run between the steps, and by the submitting threads between the batches.
+	 * 
+	 * @return true if still running, false if stopped, in which case the last frame has been delivered
+	 */
+	public boolean runBatch() {
+		boolean failed = true;
+		try {
+			if (running) {
+				boolean acquired = acquire();
+				scheduled = true;
+				try {
+					int n = scheduler.nextBatch(timeStep);
+					int i = 0;
+					metrics.beginBatch();
+					while (i < n) {
+						runCommands();
+						if (!running)
+							break;
+						frameDue = ++i == n;
+						metrics.beginStep();
+						nextStep();
+						metrics.endStep();
+						if (healthChecked)
+							checkHealth();
+					}
+					metrics.endBatch(i);
+					scheduler.endBatch(i, timeStep);
+				} finally {
+					scheduled = frameDue = false;
+					if (acquired)
+						release();
+				}
+			}
+			failed = false;
+		} finally {
+			if (failed) {
+				running = false;
+				looping.set(false);
+				metrics.finish();
 			}
 		}
+		if (running)
+			return true;
+		looping.set(false);
+		if (running && looping.compareAndSet(false, true)) // started again while stopping
+			return true;
+		dispatcher.flush();
+		metrics.finish();
+		return false;
 	}
 
+	/** @return the time in nanoseconds until the next batch is due when paced by the scheduler */
+	public long getDelay() {
+		return running ? scheduler.getDelay() : 0;
+	}
+
+	/** run n steps, or fewer if stopped, as fast as possible */
 	public void runSteps(int n) {
-		if (!running) {
+		if (!running && looping.compareAndSet(false, true)) {
 			running = true;
-			for (int i = 0; i < n; i++)
-				nextStep();
-			if (notifyReset) {
-				rebuildWaveFunction();
-				notifyReset = false;
+			boolean acquired = acquire();
+			metrics.start(nx * ny);
+			health.start();
+			try {
+				int i = 0;
+				metrics.beginBatch();
+				while (i < n && running) {
+					runCommands();
+					metrics.beginStep();
+					nextStep();
+					metrics.endStep();
+					if (healthChecked)
+						checkHealth();
+					i++;
+				}
+				metrics.endBatch(i);
+				dispatcher.flush();
+			} finally {
+				running = false;
+				looping.set(false);
+				metrics.finish();
+				if (acquired)
+					release();
 			}
-			running = false;
 		}
 	}
 
-	public void reset() {
-		iStep = 0;
-		position.x = position.y = 0;
-		if (running) {
-			stop();
-			clearWaveFunction();
-			notifyReset = true;
-		} else {
-			EventQueue.invokeLater(new Runnable() {
-				public void run() {
-					// IMPORTANT to be invoked later
-					rebuildWaveFunction();
-				}
-			});
-		}
-		running = false; // reassure that it is not running
+	/**
+	 * Stop stepping and rebuild the wave function from the wave packets after the current step.
+	 * 
+	 * @return a future that is done when the wave function has been rebuilt and published
+	 */
+	public Future<?> reset() {
+		running = false;
+		return submit(new Runnable() {
+			public void run() {
+				iStep = 0;
+				position.x = position.y = 0;
+				rebuildWaveFunction();
+				dispatcher.flush();
+			}
+		});
 	}
 
 	abstract void addWaveFunction(FloatComplex[][] wf);
@@ -395,6 +741,8 @@ public abstract class TimePropagator2D {
 				wave = null;
 			}
 		}
+		metrics.resetDrift();
+		health.reset();
 		initPsi();
 	}
 
@@ -422,49 +770,129 @@ public abstract class TimePropagator2D {
 			}
 		}
 		wavePacketHolder.clear();
+		metrics.resetDrift();
+		health.reset();
 		initPsi();
-		if (computeCurrent)
-			resetCurrent();
+		resetCurrent();
 	}
 
 	abstract void nextStep();
 
-	abstract void outputProperties();
+	/*
+	 * compute the demanded quantities (a combination of the constants of OutputDemand) of the current step and publish them
+	 */
+	abstract void outputProperties(int quantities);
 
-	abstract void calculatePosition();
-
-	abstract void calculateMomentum();
-
-	abstract void calculatePotentialEnergy();
+	abstract void resetCurrent();
 
-	abstract void calculateKineticEnergy();
+	/** @return the dispatcher that delivers the visualization requests, whose executor and frame rate cap can be set */
+	public VisualizationDispatcher getVisualizationDispatcher() {
+		return dispatcher;
+	}
 
-	abstract void resetCurrent();
+	/** add a listener that is given every frame on the thread of the propagator, unlike the visualization listeners, which may skip frames */
+	public void addFrameListener(FrameListener listener) {
+		if (!frameListeners.contains(listener))
+			frameListeners.add(listener);
+	}
 
-	abstract void calculateCurrent();
+	public void removeFrameListener(FrameListener listener) {
+		frameListeners.remove(listener);
+	}
 
 	public void addVisualizationListener(VisualizationListener listener) {
-		if (listeners == null)
-			listeners = new ArrayList<VisualizationListener>();
-		if (!listeners.contains(listener))
-			listeners.add(listener);
+		dispatcher.addListener(listener);
 	}
 
 	public void removeVisualizationListener(VisualizationListener listener) {
-		if (listeners != null)
-			listeners.remove(listener);
+		dispatcher.removeListener(listener);
+	}
+
+	/* complete the back frame with the observables, publish it and continue with a free frame */
+	private void publishFrame(int quantities) {
+		Frame2D f = frames.getBackFrame();
+		f.quantities = quantities;
+		f.flagged = violation != null;
+		f.step = iStep;
+		f.time = getTime();
+		f.timeStep = timeStep;
+		f.sum = sum;
+		f.kinE = kinE;
+		f.potE = potE;
+		f.totE = totE;
+		f.position.x = position.x;
+		f.position.y = position.y;
+		f.momentum.x = momentum.x;
+		f.momentum.y = momentum.y;
+		if ((quantities & OutputDemand.CURRENT) != 0)
+			f.setCurrent(currentX, currentY);
+		if (!frameListeners.isEmpty()) {
+			synchronized (frameListeners) {
+				for (FrameListener l : frameListeners)
+					l.frameCompleted(f);
+			}
+		}
+		frames.publish();
+		f = frames.getBackFrame();
+		amplitude = f.amplitude;
+		phase = f.phase;
+	}
+
+	/* compute the quantities and request a visualization, recording the time of the output stage apart from that of the dispatch within it */
+	void output(int quantities) {
+		long t = System.nanoTime();
+		long d = dispatchTime;
+		checking = true;
+		try {
+			outputProperties(quantities);
+		} finally {
+			checking = false;
+		}
+		metrics.add(EngineMetrics.OUTPUT, System.nanoTime() - t - (dispatchTime - d));
 	}
 
-	void requestVisualization() {
-		if (listeners == null || listeners.isEmpty())
-			return;
-		final VisualizationEvent e = new VisualizationEvent(this);
-		EventQueue.invokeLater(new Runnable() {
-			public void run() {
-				for (VisualizationListener x : listeners)
-					x.visualizationRequested(e);
+	/* check the norm and the energy that an output of a step has computed, before the frame is published */
+	private void checkOutput(int quantities) {
+		String v = null;
+		boolean b = false;
+		if ((quantities & OutputDemand.AMPLITUDE) != 0) {
+			v = health.checkNorm(sum, getSourceCount() == 0);
+			b = health.isSound();
+		}
+		if (v == null && (quantities & OutputDemand.ENERGY) != 0)
+			v = health.checkEnergy(totE);
+		violation = v;
+		sound = b;
+		healthChecked = true;
+	}
+
+	/* let the health monitor act on the check of the last step by its policy */
+	private void checkHealth() {
+		healthChecked = false;
+		if (!health.act(violation, sound))
+			running = false;
+		violation = null;
+	}
+
+	/* publish the frame that contains the given quantities and notify the listeners, unless it has been computed only for a check of the health monitor */
+	void requestVisualization(int quantities) {
+		long t = System.nanoTime();
+		if (checking && health.getPolicy() != HealthMonitor.OFF) {
+			checkOutput(quantities);
+			if (healthOnly) {
+				metrics.setNorm(sum);
+				return;
 			}
-		});
+		}
+		if ((quantities & OutputDemand.AMPLITUDE) != 0)
+			metrics.setNorm(sum);
+		if ((quantities & OutputDemand.ENERGY) != 0)
+			metrics.setEnergy(totE);
+		publishFrame(quantities);
+		dispatcher.dispatch();
+		t = System.nanoTime() - t;
+		dispatchTime += t;
+		metrics.add(EngineMetrics.DISPATCH, t);
 	}
 
 }
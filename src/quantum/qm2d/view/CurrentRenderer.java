@@ -7,7 +7,6 @@ import java.awt.Stroke;
 
 import javax.swing.JComponent;
 
-import quantum.math.Vector2D;
 import quantum.qmshared.AbsorbingBoundary;
 import quantum.qmshared.Boundary;
 
@@ -24,7 +23,7 @@ class CurrentRenderer {
 	private Stroke stroke = new BasicStroke(1);
 	private Color color = new Color(225, 225, 128);
 	private float scale = 10;
-	private Vector2D[][] current;
+	private float[][] currentX, currentY;
 	private Boundary xBoundary, yBoundary;
 
 	CurrentRenderer() {
@@ -39,19 +38,20 @@ class CurrentRenderer {
 		this.scale = scale;
 	}
 
-	void setCurrent(Vector2D[][] current) {
-		this.current = current;
+	void setCurrent(float[][] currentX, float[][] currentY) {
+		this.currentX = currentX;
+		this.currentY = currentY;
 	}
 
 	void render(JComponent c, Graphics2D g) {
 
-		if (!c.isVisible() || current == null)
+		if (!c.isVisible() || currentX == null || currentY == null)
 			return;
 
 		int w = c.getWidth();
 		int h = c.getHeight();
-		int mx = current.length;
-		int my = current[0].length;
+		int mx = currentX.length;
+		int my = currentX[0].length;
 		int mx0 = 0;
 		int my0 = 0;
 		if (xBoundary instanceof AbsorbingBoundary) {
@@ -72,13 +72,11 @@ class CurrentRenderer {
 		int ix, iy;
 		float tx, ty;
 		float s = scale * SCALE_UNIT;
-		Vector2D v;
 		for (int i = 0; i < mx; i++) {
 			ix = Math.round((i + 0.5f) * dx);
 			for (int j = 0; j < my; j++) {
-				v = current[i + mx0][j + my0];
-				tx = s * v.x;
-				ty = s * v.y;
+				tx = s * currentX[i + mx0][j + my0];
+				ty = s * currentY[i + mx0][j + my0];
 				if (tx >= 1 || ty >= 1) {
 					iy = Math.round((j + 0.5f) * dy);
 					drawVector(g, ix, iy, tx, ty);
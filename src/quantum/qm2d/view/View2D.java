@@ -49,6 +49,7 @@ import quantum.qm2d.model.ElectricField2D;
 import quantum.qm2d.model.EllipticalPotential;
 import quantum.qm2d.model.IonicPotential;
 import quantum.qm2d.model.MagneticField2D;
+import quantum.qm2d.model.OutputDemand;
 import quantum.qm2d.model.PointPotential;
 import quantum.qm2d.model.PointSource;
 import quantum.qm2d.model.Potential2D;
@@ -114,6 +115,7 @@ public class View2D extends JPanel {
     private MagneticField2D bField;
     private float kinE, potE, totE;
     private float time, timeStep;
+    private String warning;
     private float energyScale = 5;
     private GeneralPath path;
     private Potential2D selectedPotential;
@@ -426,8 +428,8 @@ public class View2D extends JPanel {
         this.momentum = momentum;
     }
 
-    public void setCurrent(Vector2D[][] current) {
-        currentRenderer.setCurrent(current);
+    public void setCurrent(float[][] currentX, float[][] currentY) {
+        currentRenderer.setCurrent(currentX, currentY);
     }
 
     public void setFrank(boolean b) {
@@ -476,6 +478,9 @@ public class View2D extends JPanel {
     public void setProbOnly(boolean b) {
         if (waveFunctionRenderer != null)
             waveFunctionRenderer.setProbOnly(b);
+        if (quantumBox != null) {
+            quantumBox.getOutputDemand().setQuantity(OutputDemand.PHASE, !b);
+        }
     }
 
     public boolean isProbOnly() {
@@ -510,7 +515,7 @@ public class View2D extends JPanel {
     public void setDrawCurrent(boolean b) {
         drawCurrent = b;
         if (quantumBox != null) {
-            quantumBox.getPropagator().setComputeCurrent(b);
+            quantumBox.getOutputDemand().setQuantity(OutputDemand.CURRENT, b);
         }
         if (b && currentRenderer == null)
             currentRenderer = new CurrentRenderer();
@@ -525,7 +530,7 @@ public class View2D extends JPanel {
     public void setDrawExpectation(boolean b) {
         drawExpectation = b;
         if (quantumBox != null) {
-            quantumBox.getPropagator().setComputeExpectation(b);
+            quantumBox.getOutputDemand().setQuantity(OutputDemand.EXPECTATION, b);
         }
     }
 
@@ -536,7 +541,7 @@ public class View2D extends JPanel {
     public void setDrawEnergy(boolean b) {
         drawEnergy = b;
         if (quantumBox != null) {
-            quantumBox.getPropagator().setComputeEnergy(b);
+            quantumBox.getOutputDemand().setQuantity(OutputDemand.ENERGY, b);
         }
     }
 
@@ -617,6 +622,11 @@ public class View2D extends JPanel {
         this.timeStep = timeStep;
     }
 
+    /** show a warning about the frame, e.g. that it is numerically unstable, or none if null */
+    public void setWarning(String warning) {
+        this.warning = warning;
+    }
+
     public void setElectricField(ElectricField2D eField) {
         this.eField = eField;
     }
@@ -803,6 +813,11 @@ public class View2D extends JPanel {
         }
         drawPictures(g2);
         drawTextBoxes(g2);
+        if (warning != null) {
+            g2.setFont(font);
+            g2.setColor(Color.red);
+            g2.drawString(warning, 10, getHeight() - (rulerRenderer != null ? 32 : 12));
+        }
         if (frank) {
 			g2.setFont(new Font("Arial", Font.BOLD, 12));
             int dy = rulerRenderer != null ? 32 : 12;
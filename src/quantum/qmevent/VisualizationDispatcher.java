@@ -0,0 +1,147 @@
+package quantum.qmevent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deliver the visualization requests of a propagator to its listeners. The listeners are called by an executor, which is the calling thread by default. A Swing application installs an executor that runs the calls on the event dispatch thread, while a headless run can keep the default or use any other executor.
+ * 
+ * Requests are coalesced: each listener has at most one pending call at a time, and requests that come while it is pending are dropped, since the listener will read the latest frame when it is called anyway. A fast engine therefore cannot flood the event queue. Optionally, the rate of the requests can be capped. A request dropped by the cap is remembered, so that flush() can deliver the last frame when the engine stops.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class VisualizationDispatcher {
+
+	private final static Executor DIRECT = new Executor() {
+		public void execute(Runnable r) {
+			r.run();
+		}
+	};
+
+	private final VisualizationEvent event;
+	private List<Slot> slots;
+	private volatile Executor executor = DIRECT;
+	private volatile long minimumInterval; // in nanoseconds, zero if the frame rate is not capped
+	private long lastTime;
+	private volatile boolean skipped;
+
+	public VisualizationDispatcher(Object source) {
+		event = new VisualizationEvent(source);
+		slots = new CopyOnWriteArrayList<Slot>();
+	}
+
+	/** set the executor that calls the listeners. If null, the listeners will be called by the thread that dispatches. */
+	public void setExecutor(Executor executor) {
+		this.executor = executor == null ? DIRECT : executor;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/** run a task by the executor of the listeners, e.g. to change the model on the same thread that reads it */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/** cap the number of frames per second. Zero or a negative number removes the cap. */
+	public void setMaximumFrameRate(float rate) {
+		minimumInterval = rate > 0 ? Math.round(1.0e9 / rate) : 0;
+	}
+
+	public float getMaximumFrameRate() {
+		long t = minimumInterval;
+		return t > 0 ? (float) (1.0e9 / t) : 0;
+	}
+
+	public void addListener(VisualizationListener listener) {
+		for (Slot s : slots) {
+			if (s.listener == listener)
+				return;
+		}
+		slots.add(new Slot(listener));
+	}
+
+	public void removeListener(VisualizationListener listener) {
+		for (Slot s : slots) {
+			if (s.listener == listener)
+				slots.remove(s);
+		}
+	}
+
+	public void removeAllListeners() {
+		slots.clear();
+	}
+
+	public boolean hasListeners() {
+		return !slots.isEmpty();
+	}
+
+	/** @return the number of listener calls that have been posted to the executor and have not started yet */
+	public int getPendingCount() {
+		int n = 0;
+		for (Slot s : slots) {
+			if (s.pending.get())
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * request a visualization from all the listeners.
+	 * 
+	 * @return false if the request was dropped because of the frame rate cap
+	 */
+	public boolean dispatch() {
+		if (slots.isEmpty())
+			return true;
+		long t = minimumInterval;
+		if (t > 0) {
+			long now = System.nanoTime();
+			if (now - lastTime < t) {
+				skipped = true;
+				return false;
+			}
+			lastTime = now;
+		}
+		skipped = false;
+		for (Slot s : slots)
+			s.post();
+		return true;
+	}
+
+	/** deliver the last request if it was dropped because of the frame rate cap */
+	public void flush() {
+		if (!skipped)
+			return;
+		skipped = false;
+		lastTime = System.nanoTime();
+		for (Slot s : slots)
+			s.post();
+	}
+
+	private class Slot implements Runnable {
+
+		private final VisualizationListener listener;
+		private final AtomicBoolean pending = new AtomicBoolean();
+
+		Slot(VisualizationListener listener) {
+			this.listener = listener;
+		}
+
+		void post() {
+			if (pending.compareAndSet(false, true))
+				executor.execute(this);
+		}
+
+		public void run() {
+			pending.set(false); // cleared first so that a frame published during the call is not lost
+			listener.visualizationRequested(event);
+		}
+
+	}
+
+}
@@ -0,0 +1,303 @@
+package quantum.qmshared;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import quantum.qmevent.VisualizationDispatcher;
+
+/**
+ * The metrics of a propagator: the steps per second, the time of a step split into its phases, the bytes allocated per step, the visualization requests that are pending, and the norm and the energy drift of the wave function. While the propagator runs, they are published as an MXBean named quantum:type=[class of the propagator],id=[n] on the platform MBean server, and each batch of steps is recorded as a JFR event (see StepBatchEvent) if the JVM has Flight Recorder.
+ * 
+ * The times of the phases are accumulated over the steps of a second and then published as averages per step, so that the cost of timing a phase is that of a call to System.nanoTime(). The allocation is counted per batch, on the thread that steps, and so misses what the threads of a parallel sweep allocate.
+ * 
+ * The recording methods are called by the thread that steps the propagator, one at a time, the getters by any thread.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class EngineMetrics implements EngineMetricsMXBean {
+
+	public final static int SOURCE = 0;
+	public final static int PREPARE = 1;
+	public final static int X_SWEEP = 2;
+	public final static int Y_SWEEP = 3;
+	public final static int SOLVE = 4; // the time of a step that is not recorded in another phase
+	public final static int OUTPUT = 5;
+	public final static int DISPATCH = 6;
+
+	private final static int PHASE_COUNT = 7;
+	private final static long WINDOW = 1000000000L; // nanoseconds
+	private final static boolean FLIGHT_RECORDER = hasFlightRecorder();
+	private final static AtomicInteger instances = new AtomicInteger();
+
+	private final String propagator;
+	private final VisualizationDispatcher dispatcher;
+	private final ObjectName name;
+	private volatile int cells;
+	private boolean registered;
+
+	// written by the thread that steps
+	private final long[] phaseTime = new long[PHASE_COUNT]; // nanoseconds in the current window
+	private boolean stepping;
+	private long stepStart, attributed; // the time of the current step recorded in the phases so far
+	private long windowStart;
+	private int windowSteps;
+	private long windowAllocated;
+	private int allocatedSteps; // the steps of the batches whose allocation has been counted in the current window
+	private long batchAllocated;
+	private Object batchEvent;
+
+	private volatile long steps;
+	private volatile double[] published = { 0, 0, 0, 0, 0, 0, 0, 0, -1 }; // the steps per second, the times of the phases in microseconds, and the bytes per step
+	private volatile long publishTime;
+	private volatile double norm = Double.NaN, energy = Double.NaN, initialEnergy = Double.NaN;
+
+	/**
+	 * @param propagator
+	 *            the name of the class of the propagator
+	 * @param dispatcher
+	 *            the dispatcher of the visualization requests of the propagator
+	 */
+	public EngineMetrics(String propagator, VisualizationDispatcher dispatcher) {
+		this.propagator = propagator;
+		this.dispatcher = dispatcher;
+		try {
+			name = new ObjectName("quantum:type=" + propagator + ",id=" + instances.incrementAndGet());
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static boolean hasFlightRecorder() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/* the bytes allocated so far by the calling thread, or -1 if the JVM cannot count them */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+		try {
+			if (!b.isThreadAllocatedMemorySupported() || !b.isThreadAllocatedMemoryEnabled())
+				return -1;
+			return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+		} catch (SecurityException e) {
+			return -1;
+		}
+	}
+
+	/** @return the name under which the MXBean is registered while the propagator runs */
+	public ObjectName getObjectName() {
+		return name;
+	}
+
+	/**
+	 * Called when the propagator starts running: start a new window of measurement and register the MXBean.
+	 * 
+	 * @param cells
+	 *            the number of cells of the grid
+	 */
+	public synchronized void start(int cells) {
+		this.cells = cells;
+		stepping = false;
+		windowStart = System.nanoTime();
+		windowSteps = allocatedSteps = 0;
+		windowAllocated = 0;
+		for (int i = 0; i < PHASE_COUNT; i++)
+			phaseTime[i] = 0;
+		if (registered)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			registered = true;
+		} catch (JMException e) {
+			e.printStackTrace();
+		} catch (SecurityException e) {
+			// an applet in the sandbox goes without
+		}
+	}
+
+	/** called when the propagator stops running: unregister the MXBean */
+	public synchronized void finish() {
+		if (!registered)
+			return;
+		registered = false;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void beginBatch() {
+		batchAllocated = allocatedBytes();
+		if (FLIGHT_RECORDER)
+			batchEvent = StepBatchEvent.start();
+	}
+
+	/**
+	 * @param n
+	 *            the number of steps that the batch has taken
+	 */
+	public void endBatch(int n) {
+		long bytes = -1;
+		if (batchAllocated >= 0) {
+			long a = allocatedBytes();
+			if (a >= 0) {
+				bytes = a - batchAllocated;
+				windowAllocated += bytes;
+				allocatedSteps += n;
+			}
+		}
+		if (batchEvent != null) {
+			StepBatchEvent.finish(batchEvent, propagator, cells, n, bytes, norm, energy);
+			batchEvent = null;
+		}
+	}
+
+	public void beginStep() {
+		stepping = true;
+		attributed = 0;
+		stepStart = System.nanoTime();
+	}
+
+	/** record the time of a phase of the current step, if any, in nanoseconds */
+	public void add(int phase, long time) {
+		if (stepping) {
+			phaseTime[phase] += time;
+			attributed += time;
+		}
+	}
+
+	/**
+	 * Record the time of a phase of the current step that began at the given time and ends now.
+	 * 
+	 * @return now, when the next phase begins
+	 */
+	public long lap(int phase, long start) {
+		long now = System.nanoTime();
+		add(phase, now - start);
+		return now;
+	}
+
+	public void endStep() {
+		long now = System.nanoTime();
+		stepping = false;
+		phaseTime[SOLVE] += Math.max(0, now - stepStart - attributed);
+		steps++;
+		windowSteps++;
+		if (now - windowStart >= WINDOW)
+			publish(now);
+	}
+
+	private void publish(long now) {
+		double[] p = new double[PHASE_COUNT + 2];
+		p[0] = windowSteps * 1.0e9 / (now - windowStart);
+		for (int i = 0; i < PHASE_COUNT; i++) {
+			p[i + 1] = phaseTime[i] * 0.001 / windowSteps;
+			phaseTime[i] = 0;
+		}
+		p[PHASE_COUNT + 1] = allocatedSteps > 0 ? (double) windowAllocated / allocatedSteps : published[PHASE_COUNT + 1];
+		published = p;
+		publishTime = now;
+		windowStart = now;
+		windowSteps = allocatedSteps = 0;
+		windowAllocated = 0;
+	}
+
+	public void setNorm(double norm) {
+		this.norm = norm;
+	}
+
+	/** set the total energy, the first value after resetDrift() being the reference of the drift */
+	public void setEnergy(double energy) {
+		if (Double.isNaN(initialEnergy))
+			initialEnergy = energy;
+		this.energy = energy;
+	}
+
+	/** called when the wave function is built */
+	public void resetDrift() {
+		initialEnergy = Double.NaN;
+	}
+
+	public String getPropagator() {
+		return propagator;
+	}
+
+	public int getCells() {
+		return cells;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public double getStepsPerSecond() {
+		return System.nanoTime() - publishTime > 2 * WINDOW ? 0 : published[0];
+	}
+
+	private double getPhaseTime(int phase) {
+		return published[phase + 1];
+	}
+
+	public double getSourceMicros() {
+		return getPhaseTime(SOURCE);
+	}
+
+	public double getPrepareMicros() {
+		return getPhaseTime(PREPARE);
+	}
+
+	public double getXSweepMicros() {
+		return getPhaseTime(X_SWEEP);
+	}
+
+	public double getYSweepMicros() {
+		return getPhaseTime(Y_SWEEP);
+	}
+
+	public double getSolveMicros() {
+		return getPhaseTime(SOLVE);
+	}
+
+	public double getOutputMicros() {
+		return getPhaseTime(OUTPUT);
+	}
+
+	public double getDispatchMicros() {
+		return getPhaseTime(DISPATCH);
+	}
+
+	public double getAllocatedBytesPerStep() {
+		return published[PHASE_COUNT + 1];
+	}
+
+	public int getPendingVisualizations() {
+		return dispatcher.getPendingCount();
+	}
+
+	public double getNorm() {
+		return norm;
+	}
+
+	public double getEnergy() {
+		return energy;
+	}
+
+	public double getEnergyDrift() {
+		return energy - initialEnergy;
+	}
+
+}
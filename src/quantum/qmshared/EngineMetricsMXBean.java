@@ -0,0 +1,58 @@
+package quantum.qmshared;
+
+/**
+ * The management interface of EngineMetrics, through which a JMX console such as JConsole or VisualVM watches a running propagator. The rate and the times are those of the last full second of stepping. The rate drops to zero when the propagator has stopped stepping, while the times are kept.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public interface EngineMetricsMXBean {
+
+	/** @return the class of the propagator */
+	public String getPropagator();
+
+	/** @return the number of cells of the grid */
+	public int getCells();
+
+	/** @return the number of steps taken since the propagator was created */
+	public long getSteps();
+
+	public double getStepsPerSecond();
+
+	/** @return the average time per step of the injection of the sources, in microseconds */
+	public double getSourceMicros();
+
+	/** @return the average time per step of the diagonals, the factorization, the phase rotation and the normalization, in microseconds */
+	public double getPrepareMicros();
+
+	/** @return the average time per step of the sweep along x, in microseconds */
+	public double getXSweepMicros();
+
+	/** @return the average time per step of the sweep along y, in microseconds */
+	public double getYSweepMicros();
+
+	/** @return the average time per step that is not attributed to another phase, e.g. the whole solve of a 1D step, in microseconds */
+	public double getSolveMicros();
+
+	/** @return the average time per step of the computation of the output quantities, without the dispatch, in microseconds */
+	public double getOutputMicros();
+
+	/** @return the average time per step of the publication of the frames and the dispatch of the visualization requests, in microseconds */
+	public double getDispatchMicros();
+
+	/** @return the average bytes allocated per step by the thread that steps, or -1 if the JVM cannot count them */
+	public double getAllocatedBytesPerStep();
+
+	/** @return the number of visualization requests that have been posted to the listeners and not delivered yet */
+	public int getPendingVisualizations();
+
+	/** @return the norm of the wave function at the last output that computed it */
+	public double getNorm();
+
+	/** @return the total energy at the last output that computed it */
+	public double getEnergy();
+
+	/** @return the change of the total energy since the wave function was built */
+	public double getEnergyDrift();
+
+}
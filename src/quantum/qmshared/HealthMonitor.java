@@ -0,0 +1,250 @@
+package quantum.qmshared;
+
+/**
+ * Watch a propagator for a numerical blow-up. A time step that is too large for the grid or the potential makes a solver diverge: the norm of the wave function explodes, or NaN and infinity spread over the grid, and the run goes on burning the processor. The monitor checks the norm and the total energy that the output of the propagator computes anyway, at every frame while running and at least every CHECK_INTERVAL steps otherwise, which costs no more than a few comparisons. An output that a propagator computes only for a check is not published to its listeners. The cells that are not finite are counted only for the diagnostic of a violation.
+ * 
+ * A violation is a norm or an energy that is not finite, a norm that has grown more than normLimit times over the norm of the wave function when it was built, or a total energy that has drifted by more than energyLimit since then. The propagator acts on it by the policy: FLAG marks the frame and goes on, HALT stops the run, and BACK_OFF rolls back to the last sound state and halves the time step, which keeps the simulated time, until MAXIMUM_BACK_OFFS back-offs have not helped, after which the run is halted. The diagnostic is printed to the standard error and kept for getDiagnostic().
+ * 
+ * A state is sound if it has passed a check with a norm that has not grown by more than SOUND_GROWTH, since a diverging state may pass a check a while before it blows up, and rolling back to it would not help. The check that takes the reference of the norm cannot tell, so the state a run starts from is kept as well. A state kept before the time of a violation may still carry the seed of it, so after a back-off no state is kept until the run has passed that time at the smaller time step.
+ * 
+ * The monitor reaches the propagator that it watches through a Subject, which copies and sets the wave function and the step count. The checks are made by the thread that steps the propagator, the settings can be changed by any thread.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class HealthMonitor {
+
+	public final static int OFF = 0;
+	public final static int FLAG = 1;
+	public final static int HALT = 2;
+	public final static int BACK_OFF = 3;
+
+	public final static int CHECK_INTERVAL = 100; // the steps between two checks of a run that has no output more often
+	public final static int MAXIMUM_BACK_OFFS = 5;
+	private final static double SOUND_GROWTH = 1.01;
+
+	/**
+	 * The propagator watched by a monitor, as far as the monitor needs it to diagnose a violation and to back off.
+	 */
+	public interface Subject {
+
+		/** @return the name of the propagator in a diagnostic */
+		public String getName();
+
+		public int getStep();
+
+		public double getTimeStep();
+
+		/** set the step count and the time step, which a back-off changes together so that the simulated time is kept */
+		public void setStep(int step, double timeStep);
+
+		/** copy the wave function into the given copy, or a new one if null, and return it */
+		public Object copyWaveFunction(Object copy);
+
+		public void setWaveFunction(Object copy);
+
+		/** @return the number of cells of the wave function that are not finite */
+		public int countNonFiniteCells();
+
+		public int getCellCount();
+
+	}
+
+	private final Subject subject;
+	private volatile int policy = HALT;
+	private volatile double normLimit = 10;
+	private volatile double energyLimit;
+	private double initialNorm = Double.NaN, initialEnergy = Double.NaN;
+	private int backOffs;
+	private boolean sound;
+	private boolean reported; // the violation of the last check has been reported
+	private Object good; // the last sound wave function, kept for a back-off
+	private int goodStep = -1;
+	private double goodTimeStep;
+	private double holdTime = -1; // no state is kept before this time, which a back-off has failed to pass
+	private volatile boolean halted;
+	private volatile String diagnostic;
+
+	public HealthMonitor(Subject subject) {
+		this.subject = subject;
+	}
+
+	/** set OFF, FLAG, HALT or BACK_OFF */
+	public void setPolicy(int policy) {
+		if (policy < OFF || policy > BACK_OFF)
+			throw new IllegalArgumentException("unknown policy: " + policy);
+		this.policy = policy;
+	}
+
+	public int getPolicy() {
+		return policy;
+	}
+
+	/** @return the policy of the name (off, flag, halt or backoff), or -1 if unknown */
+	public static int getPolicy(String name) {
+		name = name.toLowerCase().intern();
+		if (name == "off")
+			return OFF;
+		if (name == "flag")
+			return FLAG;
+		if (name == "halt")
+			return HALT;
+		if (name == "backoff")
+			return BACK_OFF;
+		return -1;
+	}
+
+	/** set the factor by which the norm may grow over that of the wave function when it was built, zero for no limit */
+	public void setNormLimit(double normLimit) {
+		if (normLimit < 0)
+			throw new IllegalArgumentException("norm limit must not be negative: " + normLimit);
+		this.normLimit = normLimit;
+	}
+
+	public double getNormLimit() {
+		return normLimit;
+	}
+
+	/** set the drift of the total energy allowed since the wave function was built, in eV, zero for no limit (the default, as a field or a source changes the energy) */
+	public void setEnergyLimit(double energyLimit) {
+		if (energyLimit < 0)
+			throw new IllegalArgumentException("energy limit must not be negative: " + energyLimit);
+		this.energyLimit = energyLimit;
+	}
+
+	public double getEnergyLimit() {
+		return energyLimit;
+	}
+
+	/** called when the wave function is built: the next norm and energy checked are the references of the limits */
+	public void reset() {
+		initialNorm = initialEnergy = Double.NaN;
+		backOffs = 0;
+		goodStep = -1;
+		holdTime = -1;
+	}
+
+	/** called when the propagator starts running. The model may have changed since the last run, so the state to roll back to is the current one. */
+	public void start() {
+		halted = false;
+		goodStep = -1;
+		holdTime = -1;
+		if (policy == BACK_OFF)
+			keepState();
+	}
+
+	/**
+	 * @param limited
+	 *            false to check only that the norm is finite, e.g. when sources add to the norm
+	 * @return the violation, or null if none
+	 */
+	public String checkNorm(double norm, boolean limited) {
+		sound = false;
+		if (Double.isNaN(norm) || Double.isInfinite(norm))
+			return "the norm is " + norm;
+		if (!limited) {
+			sound = true;
+			return null;
+		}
+		if (Double.isNaN(initialNorm)) {
+			if (norm > 0)
+				initialNorm = norm;
+			return null; // not sound, as there is nothing to compare with
+		}
+		sound = norm <= SOUND_GROWTH * initialNorm;
+		double limit = normLimit;
+		if (limit > 0 && norm > limit * initialNorm)
+			return "the norm has grown from " + (float) initialNorm + " to " + (float) norm;
+		return null;
+	}
+
+	/** @return the violation, or null if none */
+	public String checkEnergy(double energy) {
+		if (Double.isNaN(energy) || Double.isInfinite(energy))
+			return "the total energy is " + energy;
+		if (Double.isNaN(initialEnergy)) {
+			initialEnergy = energy;
+			return null;
+		}
+		double limit = energyLimit;
+		if (limit > 0 && Math.abs(energy - initialEnergy) > limit)
+			return "the total energy has drifted from " + (float) initialEnergy + " to " + (float) energy + " eV";
+		return null;
+	}
+
+	/** @return true if the last check of the norm has found it sound, i.e. the state may be kept for a back-off */
+	public boolean isSound() {
+		return sound;
+	}
+
+	/**
+	 * Act on the check of the last step by the policy: keep the state if it has passed and is sound, or flag, back off or halt.
+	 * 
+	 * @param violation
+	 *            the violation found by the check, or null if none
+	 * @param sound
+	 *            true if the check has found the state sound (see isSound)
+	 * @return false if the run must be halted
+	 */
+	public boolean act(String violation, boolean sound) {
+		double timeStep = subject.getTimeStep();
+		double time = subject.getStep() * timeStep;
+		if (violation == null) {
+			reported = false;
+			if (policy == BACK_OFF && sound && time > holdTime)
+				keepState();
+			return true;
+		}
+		String s = subject.getName() + " at step " + subject.getStep() + " (t = " + (float) time + " fs, time step " + (float) timeStep + " fs): " + violation + ", " + subject.countNonFiniteCells() + " of " + subject.getCellCount() + " cells are not finite. ";
+		if (policy == FLAG) {
+			if (!reported)
+				report(s + "The frames are flagged until the check passes again.", false);
+			reported = true;
+			return true;
+		}
+		if (policy == BACK_OFF && goodStep >= 0 && backOffs < MAXIMUM_BACK_OFFS) {
+			backOffs++;
+			holdTime = time;
+			// twice as many steps of half the time step to the same time
+			subject.setStep(2 * goodStep, goodTimeStep * 0.5);
+			subject.setWaveFunction(good);
+			goodStep = subject.getStep();
+			goodTimeStep = subject.getTimeStep();
+			report(s + "Rolled back to t = " + (float) (goodStep * goodTimeStep) + " fs with the time step halved to " + (float) goodTimeStep + " fs.", false);
+			return true;
+		}
+		report(s + "The run has been halted.", true);
+		return false;
+	}
+
+	/* keep the current state to roll back to */
+	private void keepState() {
+		good = subject.copyWaveFunction(good);
+		goodStep = subject.getStep();
+		goodTimeStep = subject.getTimeStep();
+	}
+
+	/** @return the number of back-offs since the wave function was built */
+	public int getBackOffCount() {
+		return backOffs;
+	}
+
+	/** record the diagnostic of a violation and print it to the standard error */
+	public void report(String diagnostic, boolean halt) {
+		this.diagnostic = diagnostic;
+		if (halt)
+			halted = true;
+		System.err.println(diagnostic);
+	}
+
+	/** @return the diagnostic of the last violation, or null if none */
+	public String getDiagnostic() {
+		return diagnostic;
+	}
+
+	/** @return true if the last run has been halted by this monitor */
+	public boolean isHalted() {
+		return halted;
+	}
+
+}
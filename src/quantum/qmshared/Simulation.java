@@ -0,0 +1,23 @@
+package quantum.qmshared;
+
+/**
+ * A simulation that can be stepped batch by batch by a SimulationScheduler, which shares a few threads among many simulations, instead of by a thread of its own.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public interface Simulation {
+
+	/**
+	 * Run a batch of steps, sized by the simulation itself (see StepScheduler), on the calling thread.
+	 * 
+	 * @return true if the simulation is still running and wants another batch, false if it has been stopped
+	 */
+	public boolean runBatch();
+
+	/** @return the time in nanoseconds until the next batch is due if the simulation is paced to the wall clock, zero or negative if it is due now */
+	public long getDelay();
+
+	public boolean isRunning();
+
+}
@@ -0,0 +1,264 @@
+package quantum.qmshared;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Step many simulations with a few threads, one per processor by default, instead of one thread per simulation. A registered simulation is time-sliced: a worker runs one batch of it (about a frame's worth of steps, see StepScheduler) and then picks the next simulation, so no simulation can hold a processor for long.
+ * 
+ * The scheduling is fair in proportion to the priority of a simulation. Each simulation accumulates the time it has run, weighted by its priority, and the ready simulation with the least accumulated time runs next. A VISIBLE simulation gets the full weight. A BACKGROUND one (e.g. in a window that is not active) counts its time BACKGROUND_WEIGHT times over and runs at most every BACKGROUND_INTERVAL, so it is throttled even when nothing else runs. A HIDDEN one is paused until its priority is raised again. A simulation paced to the wall clock is not ready until its next batch is due.
+ * 
+ * A scheduler is also an ExecutorService, so it can be handed to an applet through setExecutorService(). Tasks submitted as Runnables run on the same workers, ahead of the simulations.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class SimulationScheduler extends AbstractExecutorService {
+
+	public final static int VISIBLE = 0;
+	public final static int BACKGROUND = 1;
+	public final static int HIDDEN = 2;
+
+	private final static int BACKGROUND_WEIGHT = 8;
+	private final static long BACKGROUND_INTERVAL = 200000000L; // nanoseconds
+	private final static long MAXIMUM_WAIT = 100000000L; // nanoseconds, so that a hidden or paced simulation that has been stopped is let go soon
+
+	private static SimulationScheduler shared;
+
+	private final List<Task> tasks = new ArrayList<Task>();
+	private final LinkedList<Runnable> runnables = new LinkedList<Runnable>();
+	private final Thread[] workers;
+	private boolean shutdown;
+	private int workerCount;
+
+	/**
+	 * The registration of a simulation with a scheduler.
+	 */
+	public class Task {
+
+		private final Simulation simulation;
+		private int priority;
+		private long runtime; // the weighted time this simulation has run, in nanoseconds
+		private long lastRun;
+		private boolean active; // a worker is running a batch
+
+		private Task(Simulation simulation, int priority) {
+			this.simulation = simulation;
+			this.priority = priority;
+		}
+
+		public Simulation getSimulation() {
+			return simulation;
+		}
+
+		/** set VISIBLE, BACKGROUND or HIDDEN. A simulation that comes back is not credited for the time it has not run. */
+		public void setPriority(int priority) {
+			synchronized (SimulationScheduler.this) {
+				if (this.priority != priority) {
+					if (this.priority == HIDDEN)
+						runtime = Math.max(runtime, getMinimumRuntime());
+					this.priority = priority;
+					SimulationScheduler.this.notifyAll();
+				}
+			}
+		}
+
+		public int getPriority() {
+			synchronized (SimulationScheduler.this) {
+				return priority;
+			}
+		}
+
+		/** @return true if the simulation has stopped and has been let go */
+		public boolean isDone() {
+			synchronized (SimulationScheduler.this) {
+				return !tasks.contains(this);
+			}
+		}
+
+	}
+
+	/**
+	 * @param threadCount
+	 *            the number of worker threads
+	 */
+	public SimulationScheduler(int threadCount) {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("thread count must be positive: " + threadCount);
+		workers = new Thread[threadCount];
+		workerCount = threadCount;
+		for (int i = 0; i < threadCount; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "Simulation scheduler " + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/** @return the scheduler shared by all the simulations of this process that have not been given another executor */
+	public static synchronized SimulationScheduler getShared() {
+		if (shared == null)
+			shared = new SimulationScheduler(Runtime.getRuntime().availableProcessors());
+		return shared;
+	}
+
+	/**
+	 * Register a simulation that has been started, e.g. by TimePropagator2D.startRunning(). It is stepped until it stops.
+	 * 
+	 * @return the task, through which the priority can be changed
+	 */
+	public synchronized Task schedule(Simulation simulation, int priority) {
+		if (shutdown)
+			throw new IllegalStateException("The scheduler has been shut down.");
+		Task t = new Task(simulation, priority);
+		t.runtime = getMinimumRuntime(); // a newcomer starts level with the others
+		tasks.add(t);
+		notifyAll();
+		return t;
+	}
+
+	/** @return the number of simulations that are registered */
+	public synchronized int getTaskCount() {
+		return tasks.size();
+	}
+
+	private long getMinimumRuntime() {
+		long min = Long.MAX_VALUE;
+		for (Task t : tasks) {
+			if (t.priority != HIDDEN && t.runtime < min)
+				min = t.runtime;
+		}
+		return min == Long.MAX_VALUE ? 0 : min;
+	}
+
+	/* pick the next task to run, or return null and leave in wait[0] the time until one may be ready */
+	private Task next(long now, long[] wait) {
+		Task next = null;
+		long earliest = now + MAXIMUM_WAIT;
+		for (Task t : tasks) {
+			if (t.active)
+				continue;
+			if (!t.simulation.isRunning()) // let it wind down at once
+				return t;
+			if (t.priority == HIDDEN)
+				continue;
+			long ready = now + t.simulation.getDelay();
+			if (t.priority == BACKGROUND)
+				ready = Math.max(ready, t.lastRun + BACKGROUND_INTERVAL);
+			if (ready > now) {
+				earliest = Math.min(earliest, ready);
+			} else if (next == null || t.runtime < next.runtime) {
+				next = t;
+			}
+		}
+		wait[0] = earliest - now;
+		return next;
+	}
+
+	private void work() {
+		long[] wait = new long[1];
+		while (true) {
+			Runnable r = null;
+			Task t = null;
+			synchronized (this) {
+				while (true) {
+					if (shutdown && runnables.isEmpty()) {
+						if (--workerCount == 0)
+							notifyAll();
+						return;
+					}
+					r = runnables.poll();
+					if (r != null)
+						break;
+					t = next(System.nanoTime(), wait);
+					if (t != null) {
+						t.active = true;
+						break;
+					}
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this, wait[0]);
+					} catch (InterruptedException e) {
+						// shutdownNow() interrupts the workers, which then see that the scheduler is shut down
+					}
+				}
+			}
+			if (r != null) {
+				try {
+					r.run();
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+				continue;
+			}
+			boolean more = false;
+			long start = System.nanoTime();
+			try {
+				more = t.simulation.runBatch();
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+			long end = System.nanoTime();
+			synchronized (this) {
+				t.active = false;
+				t.lastRun = end;
+				t.runtime += (end - start) * (t.priority == BACKGROUND ? BACKGROUND_WEIGHT : 1);
+				if (!more)
+					tasks.remove(t);
+				notifyAll();
+			}
+		}
+	}
+
+	/** run the task on a worker, ahead of the simulations */
+	public synchronized void execute(Runnable command) {
+		if (shutdown)
+			throw new IllegalStateException("The scheduler has been shut down.");
+		runnables.offer(command);
+		notifyAll();
+	}
+
+	/** stop taking new work. The tasks submitted as Runnables are still run, while the simulations are no longer stepped. */
+	public synchronized void shutdown() {
+		shutdown = true;
+		tasks.clear();
+		notifyAll();
+	}
+
+	public List<Runnable> shutdownNow() {
+		List<Runnable> pending;
+		synchronized (this) {
+			pending = new ArrayList<Runnable>(runnables);
+			runnables.clear();
+			shutdown();
+		}
+		for (Thread w : workers)
+			w.interrupt();
+		return pending;
+	}
+
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	public synchronized boolean isTerminated() {
+		return shutdown && workerCount == 0;
+	}
+
+	public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long left;
+		while (!isTerminated()) {
+			if ((left = deadline - System.nanoTime()) <= 0)
+				return false;
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,62 @@
+package quantum.qmshared;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JFR event for a batch of steps of a propagator, whose duration is the wall-clock time of the batch. It is only touched through the static methods, and only by EngineMetrics if the JVM has Flight Recorder, so that the engine still runs on a JVM without the jdk.jfr module.
+ * 
+ * @author Charles Xie
+ * 
+ */
+@Name("quantum.StepBatch")
+@Label("Step Batch")
+@Category({ "Quantum", "Engine" })
+@Description("A batch of time steps of a propagator")
+@StackTrace(false)
+class StepBatchEvent extends Event {
+
+	@Label("Propagator")
+	String propagator;
+
+	@Label("Cells")
+	int cells;
+
+	@Label("Steps")
+	int steps;
+
+	@Label("Allocated Bytes")
+	@Description("The bytes allocated by the thread that stepped, -1 if not counted")
+	long allocatedBytes;
+
+	@Label("Norm")
+	double norm;
+
+	@Label("Energy")
+	double energy;
+
+	static Object start() {
+		StepBatchEvent e = new StepBatchEvent();
+		e.begin();
+		return e;
+	}
+
+	static void finish(Object event, String propagator, int cells, int steps, long allocatedBytes, double norm, double energy) {
+		StepBatchEvent e = (StepBatchEvent) event;
+		e.end();
+		if (e.shouldCommit()) {
+			e.propagator = propagator;
+			e.cells = cells;
+			e.steps = steps;
+			e.allocatedBytes = allocatedBytes;
+			e.norm = norm;
+			e.energy = energy;
+			e.commit();
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+package quantum.qmshared;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decide how many time steps a running propagator takes between two frames, and when it takes them. A display cannot show more than a few dozen frames per second, so the steps are run in batches, and only the last step of a batch produces a frame. The scheduler measures the cost of a step and sizes the batches so that a frame is published about every 1 / frameRate seconds.
+ * 
+ * By default the simulation runs flat out, i.e. a new batch starts as soon as the last one has finished. If a time rate is set, the simulation is paced to the wall clock instead: a batch covers the simulated time of one frame at that rate, and the propagator waits after it until the wall-clock time of the batch is up. If a step costs too much to keep up with the rate, the batches are cut to the frame budget, so that the display keeps its frame rate and the simulation falls behind rather than the frames.
+ * 
+ * A scheduler is used by one thread at a time, the one that steps the propagator, except for wakeUp(), which any thread can call.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class StepScheduler {
+
+	public final static float DEFAULT_FRAME_RATE = 30;
+	private final static int MAXIMUM_BATCH = 10000;
+	private final static double SMOOTHING = 0.2; // the weight of the last batch in the average cost of a step
+
+	private volatile float frameRate = DEFAULT_FRAME_RATE;
+	private volatile double timeRate;
+	private double stepCost; // the moving average of the wall-clock time of a step in nanoseconds, zero if not measured yet
+	private int batch;
+	private long batchStart, due;
+	private volatile Thread waiter;
+	private volatile boolean woken;
+
+	/** set the number of frames per second that the batches are sized for */
+	public void setFrameRate(float frameRate) {
+		if (frameRate <= 0)
+			throw new IllegalArgumentException("frame rate must be positive: " + frameRate);
+		this.frameRate = frameRate;
+	}
+
+	public float getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * Pace the simulation to the wall clock.
+	 * 
+	 * @param timeRate
+	 *            the simulated time per second of wall-clock time, in the time unit of the propagator (femtoseconds), or zero to run flat out
+	 */
+	public void setTimeRate(double timeRate) {
+		if (timeRate < 0)
+			throw new IllegalArgumentException("time rate must not be negative: " + timeRate);
+		this.timeRate = timeRate;
+	}
+
+	public double getTimeRate() {
+		return timeRate;
+	}
+
+	/** @return the average wall-clock time of a step in nanoseconds, including the share of the output of a frame, or zero if not measured yet */
+	public double getStepCost() {
+		return stepCost;
+	}
+
+	/** @return the number of steps in the last batch */
+	public int getBatchSize() {
+		return batch;
+	}
+
+	/** @return the time in nanoseconds until the next batch is due, zero or negative if it is due now */
+	public long getDelay() {
+		return due - System.nanoTime();
+	}
+
+	/** called when the propagator starts running. The cost of a step measured in an earlier run is kept as the first guess. */
+	public void start() {
+		batch = 0;
+		woken = false;
+		due = System.nanoTime();
+	}
+
+	/**
+	 * Start a batch.
+	 * 
+	 * @param timeStep
+	 *            the current time step of the propagator
+	 * @return the number of steps to take, the last of which should publish a frame
+	 */
+	public int nextBatch(double timeStep) {
+		batchStart = System.nanoTime();
+		double budget = 1.0e9 / frameRate;
+		int n = stepCost > 0 ? (int) Math.min(budget / stepCost, MAXIMUM_BATCH) : 1;
+		double rate = timeRate;
+		if (rate > 0 && timeStep > 0)
+			n = Math.min(n, (int) Math.round(Math.min(rate / (frameRate * timeStep), MAXIMUM_BATCH)));
+		if (batch > 0)
+			n = Math.min(n, 2 * batch); // grow gradually, as the first measurements include the warm-up of the JIT
+		if (n < 1)
+			n = 1;
+		batch = n;
+		return n;
+	}
+
+	/**
+	 * End a batch, which may have been cut short if the propagator has been stopped.
+	 * 
+	 * @param steps
+	 *            the number of steps that have been taken
+	 * @param timeStep
+	 *            the current time step of the propagator
+	 */
+	public void endBatch(int steps, double timeStep) {
+		long now = System.nanoTime();
+		if (steps > 0) {
+			double cost = (double) (now - batchStart) / steps;
+			stepCost = stepCost > 0 ? stepCost + SMOOTHING * (cost - stepCost) : cost;
+		}
+		double rate = timeRate;
+		due = rate > 0 ? batchStart + (long) (steps * timeStep / rate * 1.0e9) : now;
+	}
+
+	/**
+	 * Wait until the next batch is due or wakeUp() is called. Running flat out, the next batch is due at once.
+	 * 
+	 * @return true if woken up before the next batch is due
+	 */
+	public boolean await() {
+		waiter = Thread.currentThread();
+		try {
+			long delay;
+			while ((delay = due - System.nanoTime()) > 0) {
+				if (woken) {
+					woken = false;
+					return true;
+				}
+				LockSupport.parkNanos(this, delay);
+			}
+			return false;
+		} finally {
+			waiter = null;
+		}
+	}
+
+	/** wake up the thread that waits for the next batch, e.g. to stop it or to run a command */
+	public void wakeUp() {
+		woken = true;
+		Thread t = waiter;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+
+}
@@ -5,10 +5,12 @@ import quantum.qm2d.QuantumBox;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Container;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemListener;
 import java.awt.event.MouseEvent;
+import java.util.concurrent.Executor;
 
 import javax.swing.AbstractButton;
 import javax.swing.Spring;
@@ -22,6 +24,13 @@ public final class MiscUtil {
 
 	private final static String FILE_SEPARATOR = System.getProperty("file.separator");
 
+	/** an executor that runs its tasks later on the event dispatch thread */
+	public final static Executor EVENT_QUEUE = new Executor() {
+		public void execute(Runnable r) {
+			EventQueue.invokeLater(r);
+		}
+	};
+
 	/** return the file name of this path */
 	public static String getFileName(String path) {
 		if (path == null)
@@ -0,0 +1,103 @@
+package quantum.qmutil;
+
+import java.awt.Component;
+import java.awt.Frame;
+import java.awt.KeyboardFocusManager;
+import java.awt.Window;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+import javax.swing.SwingUtilities;
+
+import quantum.qmshared.SimulationScheduler;
+
+/**
+ * Keep the priority of a scheduled simulation in line with how visible the component that shows it is: HIDDEN if it is not showing at all (e.g. on a tab that is not selected or in a window that has been closed), BACKGROUND if its window is iconified or another window of this application is active, and VISIBLE otherwise. A window counts as visible when the user works in another application, since it may still be watched, and an applet in a browser may never be in an active window as far as AWT knows.
+ * 
+ * @author Charles Xie
+ * 
+ */
+public class VisibilityTracker {
+
+	private final Component component;
+	private Window window;
+	private SimulationScheduler.Task task;
+
+	private final PropertyChangeListener activeWindowListener = new PropertyChangeListener() {
+		public void propertyChange(PropertyChangeEvent e) {
+			update();
+		}
+	};
+
+	private final HierarchyListener hierarchyListener = new HierarchyListener() {
+		public void hierarchyChanged(HierarchyEvent e) {
+			if ((e.getChangeFlags() & (HierarchyEvent.SHOWING_CHANGED | HierarchyEvent.PARENT_CHANGED)) != 0)
+				update();
+		}
+	};
+
+	private final WindowAdapter windowListener = new WindowAdapter() {
+		public void windowIconified(WindowEvent e) {
+			update();
+		}
+
+		public void windowDeiconified(WindowEvent e) {
+			update();
+		}
+	};
+
+	public VisibilityTracker(Component component) {
+		this.component = component;
+		component.addHierarchyListener(hierarchyListener);
+		KeyboardFocusManager.getCurrentKeyboardFocusManager().addPropertyChangeListener("activeWindow", activeWindowListener);
+	}
+
+	/** stop tracking and remove the listeners, so that the component can be garbage-collected */
+	public void dispose() {
+		task = null;
+		component.removeHierarchyListener(hierarchyListener);
+		KeyboardFocusManager.getCurrentKeyboardFocusManager().removePropertyChangeListener("activeWindow", activeWindowListener);
+		if (window != null) {
+			window.removeWindowListener(windowListener);
+			window = null;
+		}
+	}
+
+	/** set the task whose priority is kept up to date, which replaces the last one */
+	public void track(SimulationScheduler.Task task) {
+		this.task = task;
+		update();
+	}
+
+	/** @return the priority that the simulation shown by the component deserves now */
+	public int getPriority() {
+		if (!component.isShowing())
+			return SimulationScheduler.HIDDEN;
+		Window w = SwingUtilities.getWindowAncestor(component);
+		if (w == null)
+			return SimulationScheduler.VISIBLE;
+		if (w instanceof Frame && (((Frame) w).getExtendedState() & Frame.ICONIFIED) != 0)
+			return SimulationScheduler.BACKGROUND;
+		Window active = KeyboardFocusManager.getCurrentKeyboardFocusManager().getActiveWindow();
+		return active == null || active == w ? SimulationScheduler.VISIBLE : SimulationScheduler.BACKGROUND;
+	}
+
+	private void update() {
+		Window w = SwingUtilities.getWindowAncestor(component);
+		if (w != window) {
+			if (window != null)
+				window.removeWindowListener(windowListener);
+			window = w;
+			if (window != null)
+				window.addWindowListener(windowListener);
+		}
+		SimulationScheduler.Task t = task;
+		if (t != null)
+			t.setPriority(getPriority());
+	}
+
+}